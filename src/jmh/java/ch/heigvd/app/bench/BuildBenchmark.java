@@ -0,0 +1,68 @@
+package ch.heigvd.app.bench;
+
+import ch.heigvd.app.utils.build.BuildEngine;
+import ch.heigvd.app.utils.build.BuildSettings;
+import ch.heigvd.app.utils.build.BuildResult;
+import ch.heigvd.app.utils.generate.SiteGenerator;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end build of generated sites: a full build, and an incremental
+ * build where nothing changed. Each measurement is a single build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuildBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int pages;
+
+    private Path sitePath;
+    private BuildEngine engine;
+    private BuildSettings settings;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // The build reports every file, which would be measured too
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        sitePath = Files.createTempDirectory("bench-site");
+        SiteGenerator generator = new SiteGenerator(42);
+        generator.setPages(pages);
+        generator.setTree(3, 10);
+        generator.generate(sitePath);
+        engine = new BuildEngine(sitePath, Runtime.getRuntime().availableProcessors());
+        settings = BuildSettings.defaults().withKeptGenerations(1);
+        engine.build(true, settings);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        engine.close();
+        FileUtils.deleteDirectory(sitePath.toFile());
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public BuildResult fullBuild() throws IOException {
+        return engine.build(true, settings);
+    }
+
+    @Benchmark
+    public BuildResult incrementalBuild() throws IOException {
+        return engine.build(false, settings);
+    }
+}
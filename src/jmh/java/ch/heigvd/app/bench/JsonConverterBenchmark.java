@@ -0,0 +1,41 @@
+package ch.heigvd.app.bench;
+
+import ch.heigvd.app.utils.JsonConverter;
+import ch.heigvd.app.utils.parsers.FrontMatter;
+import ch.heigvd.app.utils.parsers.PageConfig;
+import ch.heigvd.app.utils.parsers.SiteConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the page front matter and of config.json. convertPage is
+ * the former way of reading a page header, kept as a reference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonConverterBenchmark {
+
+    @Benchmark
+    public PageConfig convertPage() {
+        return JsonConverter.convertPage(SampleDocuments.PAGE_CONFIG);
+    }
+
+    @Benchmark
+    public Map<String, Object> frontMatter() throws IOException {
+        return FrontMatter.read(new BufferedReader(new StringReader(SampleDocuments.PAGE)));
+    }
+
+    @Benchmark
+    public SiteConfig convertSite() {
+        return JsonConverter.convertSite(SampleDocuments.SITE_CONFIG);
+    }
+}
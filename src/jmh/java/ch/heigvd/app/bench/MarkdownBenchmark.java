@@ -0,0 +1,39 @@
+package ch.heigvd.app.bench;
+
+import ch.heigvd.app.utils.parsers.MarkdownConverter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Markdown to HTML conversion, for a short and a long document
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkdownBenchmark {
+    @Param({"1", "20"})
+    public int sections;
+
+    private String markdown;
+    private MarkdownConverter converter;
+
+    @Setup
+    public void setup() {
+        markdown = SampleDocuments.markdown(sections);
+        converter = MarkdownConverter.getDefault();
+    }
+
+    @Benchmark
+    public String convert() {
+        return MarkdownConverter.convert(markdown);
+    }
+
+    @Benchmark
+    public String render() {
+        return converter.render(markdown);
+    }
+}
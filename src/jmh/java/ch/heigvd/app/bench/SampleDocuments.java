@@ -0,0 +1,38 @@
+package ch.heigvd.app.bench;
+
+/**
+ * Documents used by the benchmarks
+ */
+final class SampleDocuments {
+    static final String SITE_CONFIG = "{\"title\":\"Benchmark\",\"lang\":\"fr\",\"charset\":\"utf-8\"}";
+    static final String PAGE_CONFIG = "{\"title\":\"Mon article\",\"author\":\"Jean Dupont\",\"date\":\"2022-03-10\"}";
+    static final String PAGE = PAGE_CONFIG + "\n---\n# Mon article\n";
+    static final String LAYOUT = "<html lang=\"{{ site.lang }}\"><head><meta charset=\"{{ site.charset }}\">"
+            + "<title>{{ site.title }} | {{ page.title }}</title></head>"
+            + "<body>{{> menu }}<main>{{{ content }}}</main><footer>{{ page.author }} - {{ page.date }}</footer></body></html>";
+    static final String MENU = "<nav><ul><li><a href=\"/index.html\">Accueil</a></li>"
+            + "<li><a href=\"/contact.html\">Contact</a></li></ul></nav>";
+
+    private SampleDocuments() {
+    }
+
+    /**
+     * Get a markdown document using the common syntax elements
+     * @param sections Number of sections
+     * @return Markdown document
+     */
+    static String markdown(int sections) {
+        StringBuilder sb = new StringBuilder("# Mon premier article\n\n");
+        for (int i = 0; i < sections; i++) {
+            sb.append("## Section ").append(i).append("\n\n")
+                    .append("Le contenu de mon article, avec du **gras**, de l'*italique*, du `code` et ")
+                    .append("[un lien](https://example.com/").append(i).append(").\n")
+                    .append("Une deuxième ligne du même paragraphe ~~barrée~~ avec https://heig-vd.ch.\n\n")
+                    .append("- premier point\n- deuxième point\n  - sous-point\n- [x] tâche faite\n\n")
+                    .append("| Nom | Valeur |\n|-----|--------|\n| a | ").append(i).append(" |\n| b | 2 |\n\n")
+                    .append("```java\nSystem.out.println(\"").append(i).append("\");\n```\n\n")
+                    .append("![Une image](./image.png)\n\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,267 @@
+package ch.heigvd.app.bench;
+
+import ch.heigvd.app.commands.ServerOptions;
+import ch.heigvd.app.utils.build.BuildEngine;
+import ch.heigvd.app.utils.generate.SiteGenerator;
+import ch.heigvd.app.utils.serve.FileCache;
+import ch.heigvd.app.utils.serve.MappedSearchIndex;
+import ch.heigvd.app.utils.serve.SiteServer;
+import org.apache.commons.io.FileUtils;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Load test of the server of the serve command, over a generated site.
+ * Each connection is a thread sending requests one after the other on a
+ * keep-alive socket, to the pages of the site in turn. Once warmed up,
+ * the throughput and the latency percentiles of the requests are printed.
+ * The server options are the ones of serve.
+ *
+ * mvn -Pbench -DskipTests test-compile exec:exec@serve-load -Dload.args="--connections 64 --workers 16"
+ */
+@Command(name = "serve-load", mixinStandardHelpOptions = true)
+public class ServeLoadTest implements Callable<Integer> {
+    @CommandLine.Option(names = {"--pages"}, description = "Number of pages of the generated site (default: 1000)")
+    private int pages = 1000;
+
+    @CommandLine.Option(names = {"--connections"}, description = "Number of concurrent keep-alive connections (default: 16)")
+    private int connections = 16;
+
+    @CommandLine.Option(names = {"--warmup"}, description = "Seconds of requests before measuring (default: 5)")
+    private int warmup = 5;
+
+    @CommandLine.Option(names = {"--duration"}, description = "Seconds of measured requests (default: 10)")
+    private int duration = 10;
+
+    @CommandLine.Option(names = {"--cache-size"}, description = "Maximum size of the files kept in memory, in megabytes (default: 64)")
+    private long cacheSize = 64;
+
+    @CommandLine.Mixin
+    private ServerOptions serverOptions = new ServerOptions();
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new ServeLoadTest()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        Path sitePath = Files.createTempDirectory("load-site");
+        PrintStream out = System.out;
+        try {
+            // The build reports every file
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            SiteGenerator generator = new SiteGenerator(42);
+            generator.setPages(pages);
+            generator.setTree(3, 10);
+            generator.generate(sitePath);
+            Path buildPath;
+            try (BuildEngine engine = new BuildEngine(sitePath, Runtime.getRuntime().availableProcessors())) {
+                engine.build(true);
+                buildPath = engine.getBuildPath();
+            }
+            System.setOut(out);
+
+            // The build directory links to the last generation
+            Path generation = buildPath.toRealPath();
+            List<String> urls;
+            try (Stream<Path> files = Files.walk(generation)) {
+                urls = files.filter(file -> file.toString().endsWith(".html"))
+                        .map(file -> "/" + generation.relativize(file).toString().replace(File.separatorChar, '/'))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+
+            FileCache cache = new FileCache(buildPath, cacheSize * 1024 * 1024);
+            SiteServer server = new SiteServer(cache, null, new MappedSearchIndex(buildPath), serverOptions.toSettings());
+            server.start();
+            try {
+                System.out.println("Warming up for " + warmup + " s");
+                run(server.getPort(), urls, warmup);
+                System.out.println("Measuring " + connections + " connection(s) over " + urls.size()
+                        + " pages for " + duration + " s");
+                Result result = run(server.getPort(), urls, duration);
+                System.out.println(result.report());
+            } finally {
+                server.stop();
+            }
+        } finally {
+            System.setOut(out);
+            FileUtils.deleteDirectory(sitePath.toFile());
+        }
+        return 0;
+    }
+
+    /**
+     * Send requests from every connection for a number of seconds
+     */
+    private Result run(int port, List<String> urls, int seconds) throws InterruptedException {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        Connection[] clients = new Connection[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = new Connection(port, urls, i * urls.size() / connections, end);
+            threads[i] = new Thread(clients[i], "load-" + i);
+            threads[i].start();
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Result(clients, System.nanoTime() - start);
+    }
+
+    /**
+     * Keep-alive connection sending requests until a deadline
+     */
+    private static class Connection implements Runnable {
+        private final int port;
+        private final List<String> urls;
+        private final long end;
+        private int next;
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+        private long bytes;
+
+        Connection(int port, List<String> urls, int first, long end) {
+            this.port = port;
+            this.urls = urls;
+            this.next = first;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            while (System.nanoTime() < end) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress("localhost", port));
+                    socket.setTcpNoDelay(true);
+                    OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+                    InputStream input = new BufferedInputStream(socket.getInputStream());
+                    while (System.nanoTime() < end) {
+                        String url = urls.get(next);
+                        next = (next + 1) % urls.size();
+
+                        long start = System.nanoTime();
+                        output.write(("GET " + url + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                        output.flush();
+                        int status = readResponse(input);
+                        long latency = System.nanoTime() - start;
+                        if (status != 200) {
+                            errors++;
+                            continue;
+                        }
+                        if (count == latencies.length)
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        latencies[count++] = latency;
+                    }
+                } catch (IOException e) {
+                    // The connection is opened again
+                    errors++;
+                }
+            }
+        }
+
+        /**
+         * Read a response with a Content-Length, skipping its body
+         * @return Status of the response
+         */
+        private int readResponse(InputStream input) throws IOException {
+            String statusLine = readLine(input);
+            String[] parts = statusLine.split(" ");
+            if (parts.length < 2)
+                throw new IOException("Invalid status line: " + statusLine);
+            long length = -1;
+            String header;
+            while (!(header = readLine(input)).isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length"))
+                    length = Long.parseLong(header.substring(colon + 1).trim());
+            }
+            if (length < 0)
+                throw new IOException("Response without Content-Length");
+            for (long remaining = length; remaining > 0; ) {
+                long skipped = input.skip(remaining);
+                if (skipped <= 0) {
+                    if (input.read() < 0)
+                        throw new EOFException("Connection closed by the server");
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            bytes += length;
+            return Integer.parseInt(parts[1]);
+        }
+
+        private static String readLine(InputStream input) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = input.read()) != '\n') {
+                if (c < 0)
+                    throw new EOFException("Connection closed by the server");
+                if (c != '\r')
+                    line.append((char) c);
+            }
+            return line.toString();
+        }
+    }
+
+    /**
+     * Requests of every connection
+     */
+    private static class Result {
+        private final long[] latencies;
+        private final long errors;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        Result(Connection[] clients, long elapsedNanos) {
+            int total = 0;
+            long errors = 0;
+            long bytes = 0;
+            for (Connection client : clients) {
+                total += client.count;
+                errors += client.errors;
+                bytes += client.bytes;
+            }
+            latencies = new long[total];
+            int position = 0;
+            for (Connection client : clients) {
+                System.arraycopy(client.latencies, 0, latencies, position, client.count);
+                position += client.count;
+            }
+            Arrays.sort(latencies);
+            this.errors = errors;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        private double percentile(double fraction) {
+            if (latencies.length == 0)
+                return 0;
+            int index = (int) Math.ceil(fraction * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+
+        String report() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format(Locale.ROOT, "Requests: %d (%d errors)%n"
+                            + "Throughput: %.1f requests/s, %.1f MB/s%n"
+                            + "Latency (ms): p50 %.3f, p99 %.3f, p999 %.3f, max %.3f",
+                    latencies.length, errors, latencies.length / seconds, bytes / seconds / (1024 * 1024),
+                    percentile(0.5), percentile(0.99), percentile(0.999), percentile(1));
+        }
+    }
+}
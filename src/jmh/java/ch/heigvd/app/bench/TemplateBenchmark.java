@@ -0,0 +1,58 @@
+package ch.heigvd.app.bench;
+
+import ch.heigvd.app.utils.build.TemplateRegistry;
+import com.github.jknack.handlebars.Template;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application of a layout including a partial to a rendered page
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateBenchmark {
+    private Path templatePath;
+    private TemplateRegistry registry;
+    private Template layout;
+    private Map<String, Object> data;
+
+    @Setup
+    public void setup() throws IOException {
+        templatePath = Files.createTempDirectory("bench-template");
+        Files.writeString(templatePath.resolve("layout.html"), SampleDocuments.LAYOUT, StandardCharsets.UTF_8);
+        Files.writeString(templatePath.resolve("menu.html"), SampleDocuments.MENU, StandardCharsets.UTF_8);
+        registry = new TemplateRegistry(templatePath);
+        registry.refresh();
+        layout = registry.get(TemplateRegistry.DEFAULT_LAYOUT);
+        data = Map.of(
+                "site", Map.of("title", "Benchmark", "lang", "fr", "charset", "utf-8"),
+                "page", Map.of("title", "Mon article", "author", "Jean Dupont", "date", "2022-03-10"),
+                "content", SampleDocuments.markdown(3));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(templatePath.toFile());
+    }
+
+    @Benchmark
+    public String applyLayout() throws IOException {
+        return layout.apply(data);
+    }
+
+    @Benchmark
+    public boolean refreshUnchanged() throws IOException {
+        return registry.refresh().isEmpty();
+    }
+}
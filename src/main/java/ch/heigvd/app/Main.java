@@ -1,6 +1,8 @@
 package ch.heigvd.app;
 
 import ch.heigvd.app.commands.*;
+import ch.heigvd.app.utils.daemon.DaemonClient;
+import ch.heigvd.app.utils.daemon.DaemonState;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import java.util.concurrent.Callable;
@@ -10,7 +12,7 @@ import picocli.CommandLine.IVersionProvider;
         mixinStandardHelpOptions = true,
         description = "Generate random static websites",
         subcommands = {New.class, Clean.class, Build.class, Serve.class,
-                Init.class, Publish.class},
+                Init.class, Publish.class, Generate.class, Daemon.class},
         versionProvider = Main.ManifestVersionProvider.class)
 public class Main implements Callable<Integer>
 {
@@ -27,7 +29,10 @@ public class Main implements Callable<Integer>
 
     public static void main( String[] args )
     {
-        int exitCode = new CommandLine(new Main()).execute(args);
+        // A running daemon saves the startup of a new JVM
+        Integer exitCode = new DaemonClient(DaemonState.defaultPath()).forward(new CommandLine(new Main()), args);
+        if (exitCode == null)
+            exitCode = new CommandLine(new Main()).execute(args);
         System.exit(exitCode);
     }
 
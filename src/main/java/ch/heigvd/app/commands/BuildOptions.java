@@ -0,0 +1,41 @@
+package ch.heigvd.app.commands;
+
+import ch.heigvd.app.utils.build.BuildSettings;
+import picocli.CommandLine;
+
+/**
+ * Build options shared by the commands that build the site
+ */
+public class BuildOptions {
+    @CommandLine.Option(names = {"--keep-generations"}, description = "Number of builds kept on disk to roll back to (default: 3)")
+    private int keepGenerations = BuildSettings.DEFAULT_KEPT_GENERATIONS;
+
+    @CommandLine.Option(names = {"--link-assets"}, description = "Hard-link assets to their source instead of copying them; editing a source then changes the published build and its rollbacks")
+    private boolean linkAssets;
+
+    @CommandLine.Option(names = {"--fingerprint"}, description = "Name stylesheets, scripts, images and fonts after a hash of their content")
+    private boolean fingerprint;
+
+    @CommandLine.Option(names = {"--memory-budget"}, description = "Memory the pages being built may use together, in megabytes (default: a quarter of the heap)")
+    private long memoryBudget;
+
+    @CommandLine.Option(names = {"--watch-generations"}, description = "Write each rebuild of watch mode in a new generation instead of updating the published build")
+    private boolean watchGenerations;
+
+    @CommandLine.Mixin
+    private CompressionOptions compression = new CompressionOptions();
+
+    /**
+     * Get the build settings matching the options
+     * @return Settings of the builds of the command
+     */
+    public BuildSettings toSettings() {
+        return BuildSettings.defaults()
+                .withPrecompressor(compression.toPrecompressor())
+                .withKeptGenerations(keepGenerations)
+                .withLinkAssets(linkAssets)
+                .withFingerprintAssets(fingerprint)
+                .withMemoryBudget(memoryBudget > 0 ? memoryBudget * 1024 * 1024 : BuildSettings.defaultMemoryBudget())
+                .withRebuildGenerations(watchGenerations);
+    }
+}
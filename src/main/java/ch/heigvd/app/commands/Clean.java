@@ -1,5 +1,6 @@
 package ch.heigvd.app.commands;
 
+import ch.heigvd.app.utils.build.Generations;
 import org.apache.commons.io.FileUtils;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -20,6 +21,7 @@ public class Clean implements Callable<Integer> {
         System.out.println("PathTClean = " + pathToClean);
 
         FileUtils.deleteDirectory(pathToClean.toFile());
+        FileUtils.deleteDirectory(pathToClean.resolveSibling(Generations.DIRECTORY_NAME).toFile());
 
         System.out.println("Build directory cleaned");
 
@@ -0,0 +1,26 @@
+package ch.heigvd.app.commands;
+
+import ch.heigvd.app.utils.build.Precompressor;
+import picocli.CommandLine;
+
+/**
+ * Compression options shared by the commands that build the site
+ */
+public class CompressionOptions {
+    @CommandLine.Option(names = {"--gzip"}, description = "Write a .gz copy of the HTML, CSS, JS, JSON, SVG and XML outputs")
+    private boolean gzip;
+
+    @CommandLine.Option(names = {"--gzip-level"}, description = "Compression level, from 1 to 9 (default: 9)")
+    private int level = 9;
+
+    @CommandLine.Option(names = {"--gzip-min-size"}, description = "Size in bytes under which outputs are not compressed (default: 1024)")
+    private long minSize = 1024;
+
+    /**
+     * Get the precompressor matching the options
+     * @return Precompressor, or null if the compression is disabled
+     */
+    public Precompressor toPrecompressor() {
+        return gzip ? new Precompressor(level, minSize) : null;
+    }
+}
@@ -0,0 +1,45 @@
+package ch.heigvd.app.commands;
+
+import ch.heigvd.app.Main;
+import ch.heigvd.app.utils.daemon.DaemonClient;
+import ch.heigvd.app.utils.daemon.DaemonServer;
+import ch.heigvd.app.utils.daemon.DaemonState;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+@Command(name = "daemon", description = "Keep a warm process running the build, clean and serve commands")
+public class Daemon implements Callable<Integer> {
+    @CommandLine.Option(names = {"--stop"}, description = "Stop the running daemon")
+    private boolean stop;
+
+    @CommandLine.Option(names = {"--status"}, description = "Tell if a daemon is running")
+    private boolean status;
+
+    @CommandLine.Option(names = {"--idle-timeout"}, description = "Minutes without command before the daemon stops, 0 for never (default: 180)")
+    private long idleTimeout = 180;
+
+    @Override
+    public Integer call() throws Exception {
+        DaemonClient client = new DaemonClient(DaemonState.defaultPath());
+
+        if (stop || status) {
+            Integer exitCode = client.send(new String[]{"daemon", stop ? "--stop" : "--status"});
+            if (exitCode == null) {
+                System.out.println("No daemon running");
+                return 1;
+            }
+            return exitCode;
+        }
+
+        if (client.send(new String[]{"daemon", "--status"}) != null) {
+            System.err.println("A daemon is already running, stop it with: statique daemon --stop");
+            return 1;
+        }
+        new DaemonServer(DaemonState.defaultPath(), Duration.ofMinutes(idleTimeout),
+                args -> new CommandLine(new Main()).execute(args)).run();
+        return 0;
+    }
+}
@@ -0,0 +1,96 @@
+package ch.heigvd.app.commands;
+
+import ch.heigvd.app.utils.generate.SiteGenerator;
+import org.apache.commons.io.FileUtils;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+@Command(name = "generate", description = "Generate a random site of any size, the same for a given seed")
+public class Generate implements Callable<Integer> {
+    @CommandLine.Parameters(index = "0", description = "Path to the generated site")
+    private String path;
+
+    @CommandLine.Option(names = {"-f", "--force"}, description = "Replace the content of the directory")
+    private boolean overwrite;
+
+    @CommandLine.Option(names = {"--seed"}, description = "Seed of the random content (default: 42)")
+    private long seed = 42;
+
+    @CommandLine.Option(names = {"-n", "--pages"}, description = "Number of pages (default: 100)")
+    private int pages = 100;
+
+    @CommandLine.Option(names = {"--depth"}, description = "Levels of directories under the root (default: 2)")
+    private int depth = 2;
+
+    @CommandLine.Option(names = {"--fan-out"}, description = "Sub-directories of each directory (default: 4)")
+    private int fanOut = 4;
+
+    @CommandLine.Option(names = {"--sections"}, description = "Markdown blocks of each page (default: 5)")
+    private int sections = 5;
+
+    @CommandLine.Option(names = {"--feature"}, description = "Weight of a markdown block, e.g. table=2 "
+            + "(paragraph, long-paragraph, table, code, image, list; default: 4, 1, 1, 1, 1, 2)")
+    private Map<String, Integer> features;
+
+    @CommandLine.Option(names = {"--extra-fields"}, description = "Fields added to the header of each page (default: 0)")
+    private int extraFields = 0;
+
+    @CommandLine.Option(names = {"--assets"}, description = "Number of generated images (default: 10)")
+    private int assets = 10;
+
+    @CommandLine.Option(names = {"--asset-min-size"}, description = "Minimum size of an image in bytes (default: 1024)")
+    private long assetMinSize = 1024;
+
+    @CommandLine.Option(names = {"--asset-max-size"}, description = "Maximum size of an image in bytes (default: 65536)")
+    private long assetMaxSize = 64 * 1024;
+
+    @Override
+    public Integer call() throws Exception {
+        Path sitePath = Paths.get(System.getProperty("user" + ".dir")).resolve(path);
+
+        if (Files.isDirectory(sitePath)) {
+            boolean empty;
+            try (Stream<Path> files = Files.list(sitePath)) {
+                empty = files.findAny().isEmpty();
+            }
+            if (!empty) {
+                if (!overwrite) {
+                    System.err.println("Directory " + sitePath + " is not empty. If you want to replace it use :");
+                    System.err.println("statique generate <Path> --force");
+                    return 1;
+                }
+                FileUtils.cleanDirectory(sitePath.toFile());
+            }
+        }
+
+        SiteGenerator generator = new SiteGenerator(seed);
+        try {
+            generator.setPages(pages);
+            generator.setTree(depth, fanOut);
+            generator.setSections(sections);
+            generator.setExtraFields(extraFields);
+            generator.setAssets(assets, assetMinSize, assetMaxSize);
+            if (features != null) {
+                for (Map.Entry<String, Integer> feature : features.entrySet()) {
+                    generator.setFeatureWeight(SiteGenerator.Feature.fromName(feature.getKey()), feature.getValue());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+
+        long start = System.nanoTime();
+        generator.generate(sitePath);
+        System.out.println(pages + " page(s) generated in " + sitePath + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return 0;
+    }
+}
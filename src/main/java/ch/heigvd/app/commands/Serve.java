@@ -1,81 +1,163 @@
 package ch.heigvd.app.commands;
 
-import ch.heigvd.app.Main;
-import io.javalin.plugin.rendering.FileRenderer;
+import ch.heigvd.app.utils.build.BuildEngine;
+import ch.heigvd.app.utils.build.BuildResult;
+import ch.heigvd.app.utils.build.BuildSettings;
+import ch.heigvd.app.utils.daemon.DaemonServer;
+import ch.heigvd.app.utils.serve.FileCache;
+import ch.heigvd.app.utils.serve.LiveReload;
+import ch.heigvd.app.utils.serve.MappedSearchIndex;
+import ch.heigvd.app.utils.serve.SiteServer;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 
-import java.io.File;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 
-import io.javalin.Javalin;
+import utils.watchDir.ChangeSet;
 import utils.watchDir.WatchDir;
 
 @Command(name = "serve")
 public class Serve implements Callable<Integer> {
+    private static final String INDEX_FILENAME = "index.html";
+
     @CommandLine.Parameters(index = "0", description = "Path to serve directory")
     private Path path;
 
     @CommandLine.Option(names = {"-w", "--watch"}, description = "Allows to regenerate site when modification are made")
     private boolean watchDir;
 
+    @CommandLine.Option(names = {"--debounce"}, description = "Milliseconds without change to wait before rebuilding in watch mode (default: 200)")
+    private long debounce = 200;
+
+    @CommandLine.Option(names = {"--threads"}, description = "Number of build threads (default: number of cores)")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @CommandLine.Mixin
+    private BuildOptions buildOptions = new BuildOptions();
+
+    @CommandLine.Mixin
+    private ServerOptions serverOptions = new ServerOptions();
+
+    @CommandLine.Option(names = {"--cache-size"}, description = "Maximum size of the files kept in memory, in megabytes (default: 64)")
+    private long cacheSize = 64;
+
+    @CommandLine.Option(names = {"--stream-threshold"}, description = "Size above which files are streamed from disk instead of read in memory, in kilobytes (default: 1024)")
+    private long streamThreshold = FileCache.DEFAULT_STREAM_THRESHOLD / 1024;
+
+    private BuildSettings settings;
+    private FileCache cache;
+    private LiveReload liveReload;
+    private MappedSearchIndex searchIndex;
+
     @Override
     public Integer call() throws Exception {
-        Main appMain = new Main();
-        CommandLine cmd = new CommandLine(appMain);
-        StringWriter sw = new StringWriter();
-        cmd.setOut(new PrintWriter(sw));
-        Javalin app = Javalin.create().start(7070);
-        AtomicBoolean running = new AtomicBoolean(true);
-        File index =
-                new File(System.getProperty("user" + ".dir"));
-        Path indexPath = index.toPath().resolve(path.toString()).resolve(
-                "build").resolve("index.html");
-
-
-        if(!Files.exists(indexPath)){
-            System.out.println("Le fichier index.html n'existe pas!");
-            TimeUnit.SECONDS.sleep(3);
-            return -1;
-        }
+        settings = buildOptions.toSettings();
+        boolean inDaemon = DaemonServer.isClientCommand();
+        try (BuildEngine engine = BuildEngine.open(path, threads)) {
+            Path indexPath = engine.getBuildPath().resolve(INDEX_FILENAME);
+            // In watch mode, served pages reload themselves after a rebuild
+            if (watchDir)
+                liveReload = new LiveReload();
+            cache = new FileCache(engine.getBuildPath(), cacheSize * 1024 * 1024,
+                    watchDir ? LiveReload::inject : null, streamThreshold * 1024);
+            searchIndex = new MappedSearchIndex(engine.getBuildPath());
+
+            // The watcher is started before the first build so that no
+            // change made in the meantime is missed
+            BlockingQueue<ChangeSet> changes = new LinkedBlockingQueue<>();
+            Thread watcherThread = null;
+            SiteServer server = null;
+            if (watchDir) {
+                WatchDir watcher = new WatchDir(path, Duration.ofMillis(debounce),
+                        List.of(engine.getBuildPath(), engine.getGenerationsPath()), engine.readConfig().getWatchIgnore(), changes::add);
+                watcherThread = new Thread(watcher, "watch-dir");
+                watcherThread.setDaemon(true);
+                watcherThread.start();
+            }
 
-        System.out.println("Serve");
-        app.get("/", ctx -> ctx.html(new String(Files.readAllBytes(indexPath))));
-
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            app.stop();
-            running.set(false);
-        }));
-
-        if (watchDir) {
-            WatchDir watcher = new WatchDir(path, false);
-            ExecutorService executor = Executors.newSingleThreadExecutor();
-            Future<?> future = executor.submit(watcher);
-            executor.shutdown();
-
-            while(!future.isCancelled()) {
-                if (watcher.isReserve()) {
-                    cmd.execute("build", path.toString());
-                    TimeUnit.SECONDS.sleep(3);
-                    System.out.println("Re-served");
-                    watcher.setReserve(false);
+            try {
+                buildFiles(engine, null);
+                if (!Files.exists(indexPath)) {
+                    System.out.println("Le fichier index.html n'existe pas!");
+                    return -1;
                 }
 
-            }
-            // Shutdown after 10 seconds
-            executor.awaitTermination(30, TimeUnit.SECONDS);
-            // abort watcher
-            future.cancel(true);
+                server = new SiteServer(cache, liveReload, searchIndex, serverOptions.toSettings());
+                server.start();
+                // The daemon outlives its commands: the server is stopped
+                // with the command, when its client disconnects
+                if (!inDaemon)
+                    Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+                System.out.println("Serve");
+                if (inDaemon && watcherThread == null)
+                    awaitDisconnection();
 
-            executor.awaitTermination(1, TimeUnit.SECONDS);
-            executor.shutdownNow();
+                // Cached files keep being served while the engine rebuilds
+                // the site, and are dropped once it is done
+                while (watcherThread != null) {
+                    ChangeSet change = changes.take();
+                    ChangeSet next;
+                    while ((next = changes.poll()) != null) {
+                        change = change.merge(next);
+                    }
+                    if (change.hasChanges()) {
+                        BuildResult result = buildFiles(engine, change);
+                        if (result != null)
+                            liveReload.notify(result);
+                        System.out.println("Re-served");
+                    }
+                    if (change.isLast()) {
+                        System.err.println("Stopped watching " + path);
+                        return 1;
+                    }
+                }
+            } finally {
+                // In watch mode or in the daemon the server lives as long
+                // as the command, which ends when it is interrupted
+                if (watcherThread != null)
+                    watcherThread.interrupt();
+                if ((watcherThread != null || inDaemon) && server != null)
+                    server.stop();
+            }
         }
 
         return 0;
     }
+
+    /**
+     * Wait until the client of the daemon disconnects, which interrupts
+     * the command
+     */
+    private static void awaitDisconnection() {
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            // The client left
+        }
+    }
+
+    /**
+     * Build the site, drop the cached files it changed and map its search index
+     * @param engine Build engine of the site
+     * @param change Changes that triggered the build, or null to check all files
+     * @return Outputs changed by the build, or null if it failed
+     */
+    private BuildResult buildFiles(BuildEngine engine, ChangeSet change) {
+        try {
+            BuildResult result = change == null || change.isFullRescan()
+                    ? engine.build(false, settings)
+                    : engine.rebuild(change.getPaths(), settings);
+            cache.invalidate(result);
+            searchIndex.reload();
+            return result;
+        } catch (IOException e) {
+            System.err.println("An error was encounter during the creation of the template: " + e.getMessage());
+            return null;
+        }
+    }
 }
@@ -0,0 +1,32 @@
+package ch.heigvd.app.commands;
+
+import ch.heigvd.app.utils.serve.ServerSettings;
+import picocli.CommandLine;
+
+/**
+ * Port and concurrency options of the web server
+ */
+public class ServerOptions {
+    @CommandLine.Option(names = {"--port"}, description = "Port to listen on (default: 7070)")
+    private int port = ServerSettings.DEFAULT_PORT;
+
+    @CommandLine.Option(names = {"--acceptors"}, description = "Number of threads accepting connections (default: chosen from the number of cores)")
+    private int acceptors = ServerSettings.DEFAULT_ACCEPTORS;
+
+    @CommandLine.Option(names = {"--workers"}, description = "Maximum number of threads handling requests (default: 200)")
+    private int workers = ServerSettings.DEFAULT_WORKERS;
+
+    @CommandLine.Option(names = {"--idle-timeout"}, description = "Milliseconds after which an idle connection is closed (default: 30000)")
+    private long idleTimeout = ServerSettings.DEFAULT_IDLE_TIMEOUT;
+
+    @CommandLine.Option(names = {"--queue-size"}, description = "Number of requests waiting for a worker before new ones are refused (default: no limit)")
+    private int queueSize = ServerSettings.DEFAULT_QUEUE_SIZE;
+
+    /**
+     * Get the server settings matching the options
+     * @return Settings of the server
+     */
+    public ServerSettings toSettings() {
+        return new ServerSettings(port, acceptors, workers, idleTimeout, queueSize);
+    }
+}
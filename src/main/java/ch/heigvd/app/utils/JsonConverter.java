@@ -3,12 +3,14 @@ package ch.heigvd.app.utils;
 import ch.heigvd.app.utils.parsers.PageConfig;
 import ch.heigvd.app.utils.parsers.SiteConfig;
 import com.google.gson.Gson;
-import io.javalin.http.SinglePageHandler;
 
 /**
  * JsonConverter class
  */
 public class JsonConverter {
+    // Gson instances are thread safe and cache their type adapters
+    private static final Gson GSON = new Gson();
+
     /**
      * Converts a json string into a java object for site config
      * @param input JSON string
@@ -16,10 +18,7 @@ public class JsonConverter {
      * @see <a href="https://github.com/google/gson">gson</a>
      */
     public static SiteConfig convertSite(String input){
-
-        Gson gson = new Gson();
-
-        return gson.fromJson(input, SiteConfig.class);
+        return GSON.fromJson(input, SiteConfig.class);
     }
 
     /**
@@ -28,9 +27,7 @@ public class JsonConverter {
      * @return Java object
      */
     public static PageConfig convertPage(String input){
-        Gson gson = new Gson();
-
-        return gson.fromJson(input, PageConfig.class);
+        return GSON.fromJson(input, PageConfig.class);
     }
 
 }
@@ -0,0 +1,316 @@
+package ch.heigvd.app.utils.build;
+
+import com.google.gson.GsonBuilder;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fingerprinted names of the assets of a site: stylesheets, scripts,
+ * images and fonts are written as name.hash.ext, the hash being taken
+ * from their content, so that they can be cached forever. References to
+ * them in the HTML and CSS outputs are rewritten to these names, and
+ * {@value #MANIFEST} maps each asset to its fingerprinted name. In HTML,
+ * only the attributes of the tags and the style elements are rewritten,
+ * never the text of the page.
+ *
+ * Stylesheets are rewritten before they are hashed, so that a stylesheet
+ * gets a new name when an image it uses changes.
+ */
+class AssetFingerprints {
+    static final String MANIFEST = BuildEngine.ASSET_MANIFEST_FILENAME;
+    private static final Set<String> EXTENSIONS = Set.of("css", "js", "mjs", "png", "jpg", "jpeg", "gif", "svg",
+            "webp", "avif", "ico", "woff", "woff2", "ttf", "otf", "eot");
+    private static final String STYLESHEET_EXTENSION = "css";
+    private static final int HASH_LENGTH = 8;
+    private static final Pattern CSS_REFERENCE = Pattern.compile(
+            "url\\(\\s*(['\"]?)([^'\")\\s]+)\\1\\s*\\)|@import\\s+(['\"])([^'\"]+)\\3");
+    // Attributes of a tag, and url() in its style attribute
+    private static final Pattern TAG_REFERENCE = Pattern.compile(
+            "(\\s(?:src|href|poster)\\s*=\\s*)(['\"])([^'\"]*)\\2|(\\ssrcset\\s*=\\s*)(['\"])([^'\"]*)\\5"
+                    + "|url\\(\\s*(['\"]?)([^'\")\\s]+)\\7\\s*\\)", Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, String> hashes = new HashMap<>();
+    private final Map<String, String> names = new TreeMap<>();
+    private final Map<String, String> stylesheets = new HashMap<>();
+    private final Map<String, Set<String>> stylesheetReferences = new HashMap<>();
+    private final Set<String> changed = new HashSet<>();
+
+    /**
+     * Check if a file is fingerprinted
+     * @param relativePath Path of the file
+     * @return True for stylesheets, scripts, images and fonts
+     */
+    static boolean isFingerprinted(String relativePath) {
+        return EXTENSIONS.contains(FilenameUtils.getExtension(relativePath).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Hash the assets of a site, reusing the hashes of the manifest for
+     * the files that did not change
+     * @param assets Fingerprinted files, by source path relative to the site
+     * @param sourcePath Site directory
+     * @param manifest Manifest of the previous build
+     * @param executor Executor hashing the files that changed
+     * @return Fingerprints of the assets
+     * @throws IOException Error while reading an asset
+     */
+    static AssetFingerprints compute(Map<String, BasicFileAttributes> assets, Path sourcePath, BuildManifest manifest,
+                                     Executor executor) throws IOException {
+        AssetFingerprints fingerprints = new AssetFingerprints();
+        // The workers only write their own future, read once they are all done
+        Map<String, CompletableFuture<String>> hashing = new HashMap<>();
+        for (Map.Entry<String, BasicFileAttributes> asset : assets.entrySet()) {
+            BuildManifest.Entry previous = manifest.getEntry(asset.getKey());
+            if (previous != null && previous.hasSameAttributes(asset.getValue())) {
+                fingerprints.hashes.put(asset.getKey(), previous.getHash());
+                continue;
+            }
+            hashing.put(asset.getKey(), CompletableFuture.supplyAsync(() -> {
+                try {
+                    return BuildManifest.hash(sourcePath.resolve(asset.getKey()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(hashing.values().toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            throw e;
+        }
+        for (Map.Entry<String, CompletableFuture<String>> hash : hashing.entrySet()) {
+            fingerprints.hashes.put(hash.getKey(), hash.getValue().join());
+        }
+
+        // Stylesheets are named once the assets they use are
+        for (String source : assets.keySet()) {
+            if (!isStylesheet(source))
+                fingerprints.names.put(source, fingerprintedName(source, fingerprints.hashes.get(source)));
+        }
+        for (String source : assets.keySet()) {
+            if (isStylesheet(source))
+                fingerprints.nameStylesheet(source, sourcePath, new HashSet<>());
+        }
+
+        for (Map.Entry<String, String> name : fingerprints.names.entrySet()) {
+            BuildManifest.Entry previous = manifest.getEntry(name.getKey());
+            if (previous == null || !previous.getOutputs().contains(name.getValue()))
+                fingerprints.changed.add(name.getKey());
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Rewrite and name a stylesheet, and first the stylesheets it imports
+     */
+    private void nameStylesheet(String source, Path sourcePath, Set<String> inProgress) throws IOException {
+        if (names.containsKey(source) || !inProgress.add(source))
+            return;
+        String css = Files.readString(sourcePath.resolve(source), StandardCharsets.UTF_8);
+        String directory = directory(source);
+        Matcher matcher = CSS_REFERENCE.matcher(css);
+        while (matcher.find()) {
+            String reference = matcher.group(2) != null ? matcher.group(2) : matcher.group(4);
+            String target = resolve(reference, directory);
+            if (target != null && isStylesheet(target) && hashes.containsKey(target))
+                nameStylesheet(target, sourcePath, inProgress);
+        }
+
+        // Imports forming a cycle keep their name
+        Set<String> references = new HashSet<>();
+        String rewritten = rewrite(css, CSS_REFERENCE, directory, references);
+        stylesheets.put(source, rewritten);
+        stylesheetReferences.put(source, references);
+        names.put(source, fingerprintedName(source, BuildManifest.hash(rewritten)));
+    }
+
+    /**
+     * Get the fingerprinted path of an asset
+     * @param source Source path relative to the site
+     * @return Output path relative to the build directory, or null if the
+     *         file is not fingerprinted
+     */
+    String getName(String source) {
+        return names.get(source);
+    }
+
+    /**
+     * Get the hash of the content of an asset
+     * @return Hash, or null if the file is not fingerprinted
+     */
+    String getHash(String source) {
+        return hashes.get(source);
+    }
+
+    /**
+     * Get a stylesheet with its references rewritten
+     * @return Content of the stylesheet, or null if the file is not one
+     */
+    String getStylesheet(String source) {
+        return stylesheets.get(source);
+    }
+
+    /**
+     * Get the assets a stylesheet uses
+     * @return Source paths of the assets, empty if the file is not a stylesheet
+     */
+    Set<String> getStylesheetReferences(String source) {
+        return stylesheetReferences.getOrDefault(source, Set.of());
+    }
+
+    /**
+     * Get the assets whose fingerprinted name is not the one of the
+     * previous build, whose references must be rewritten
+     * @return Source paths of the assets
+     */
+    Set<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Get the content of {@value #MANIFEST}
+     * @return JSON object mapping each asset to its fingerprinted path
+     */
+    String toJson() {
+        return new GsonBuilder().setPrettyPrinting().create().toJson(names);
+    }
+
+    /**
+     * Rewrite the references to fingerprinted assets in the attributes of
+     * an HTML tag
+     * @param tag Whole tag, from &lt; to &gt;
+     * @param directory Directory of the page, relative to the build directory
+     * @param references Where the source paths of the referenced assets are added
+     * @return Tag with the fingerprinted names
+     */
+    String rewriteTag(CharSequence tag, String directory, Set<String> references) {
+        return rewrite(tag, TAG_REFERENCE, directory, references);
+    }
+
+    /**
+     * Rewrite the references to fingerprinted assets in the content of a
+     * style element
+     * @param css Part of the content, made of whole declarations
+     * @param directory Directory of the page, relative to the build directory
+     * @param references Where the source paths of the referenced assets are added
+     * @return CSS with the fingerprinted names
+     */
+    String rewriteStyle(CharSequence css, String directory, Set<String> references) {
+        return rewrite(css, CSS_REFERENCE, directory, references);
+    }
+
+    private String rewrite(CharSequence text, Pattern pattern, String directory, Set<String> references) {
+        Matcher matcher = pattern.matcher(text);
+        StringBuilder result = new StringBuilder(text.length());
+        int last = 0;
+        while (matcher.find()) {
+            // The group of the reference, in the matched alternative
+            for (int group = 1; group <= matcher.groupCount(); group++) {
+                String value = matcher.group(group);
+                if (value == null || !isReferenceGroup(pattern, group))
+                    continue;
+                String replacement = pattern == TAG_REFERENCE && group == 6
+                        ? rewriteSrcset(value, directory, references)
+                        : rewriteReference(value, directory, references);
+                result.append(text, last, matcher.start(group)).append(replacement);
+                last = matcher.end(group);
+            }
+        }
+        return result.append(text, last, text.length()).toString();
+    }
+
+    private static boolean isReferenceGroup(Pattern pattern, int group) {
+        return pattern == CSS_REFERENCE ? group == 2 || group == 4 : group == 3 || group == 6 || group == 8;
+    }
+
+    private String rewriteSrcset(String srcset, String directory, Set<String> references) {
+        StringBuilder result = new StringBuilder();
+        for (String candidate : srcset.split(",", -1)) {
+            if (result.length() > 0)
+                result.append(',');
+            String trimmed = candidate.trim();
+            int space = trimmed.indexOf(' ');
+            String url = space < 0 ? trimmed : trimmed.substring(0, space);
+            result.append(candidate, 0, candidate.indexOf(url.isEmpty() ? candidate : url))
+                    .append(rewriteReference(url, directory, references))
+                    .append(candidate.substring(candidate.indexOf(url) + url.length()));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Replace the file name of a reference with the fingerprinted one, so
+     * that relative references stay relative
+     */
+    private String rewriteReference(String reference, String directory, Set<String> references) {
+        String target = resolve(reference, directory);
+        if (target == null)
+            return reference;
+        // Assets added later must rewrite the references to them
+        references.add(target);
+        String name = names.get(target);
+        if (name == null)
+            return reference;
+
+        int end = endOfPath(reference);
+        int slash = reference.lastIndexOf('/', end - 1);
+        return reference.substring(0, slash + 1) + name.substring(name.lastIndexOf('/') + 1) + reference.substring(end);
+    }
+
+    /**
+     * Resolve a reference to the source path of a fingerprinted asset
+     * @return Path relative to the site, or null if the reference is not
+     *         a local fingerprinted file
+     */
+    private static String resolve(String reference, String directory) {
+        if (reference.isEmpty() || reference.startsWith("#") || reference.startsWith("//")
+                || reference.matches("^[a-zA-Z][a-zA-Z0-9+.-]*:.*"))
+            return null;
+        String path = reference.substring(0, endOfPath(reference));
+        String target = path.startsWith("/") ? path.substring(1)
+                : directory.isEmpty() ? path : directory + "/" + path;
+        target = FilenameUtils.normalize(target, true);
+        return target == null || !isFingerprinted(target) ? null : target;
+    }
+
+    private static int endOfPath(String reference) {
+        int end = reference.length();
+        for (char c : new char[]{'?', '#'}) {
+            int index = reference.indexOf(c);
+            if (index >= 0 && index < end)
+                end = index;
+        }
+        return end;
+    }
+
+    /**
+     * Get the directory of a path relative to the site, empty at the root
+     */
+    static String directory(String relativePath) {
+        int slash = relativePath.lastIndexOf('/');
+        return slash < 0 ? "" : relativePath.substring(0, slash);
+    }
+
+    private static boolean isStylesheet(String relativePath) {
+        return FilenameUtils.getExtension(relativePath).equalsIgnoreCase(STYLESHEET_EXTENSION);
+    }
+
+    private static String fingerprintedName(String source, String hash) {
+        String extension = FilenameUtils.getExtension(source);
+        return source.substring(0, source.length() - extension.length()) + hash.substring(0, HASH_LENGTH) + "." + extension;
+    }
+}
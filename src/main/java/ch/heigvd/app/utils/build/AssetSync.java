@@ -0,0 +1,91 @@
+package ch.heigvd.app.utils.build;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts the assets of a site in the build directory. An asset is copied,
+ * its content being transferred by the kernel with
+ * {@link FileChannel#transferTo}, so that the build never shares a file
+ * with the sources. Assets may instead be hard links to their source,
+ * which copies nothing, but then editing a source in place changes every
+ * generation linking to it, and a tool rewriting the build changes the
+ * source. Counts the bytes copied, linked and skipped during a build.
+ */
+class AssetSync {
+    private final boolean linkSources;
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong linkedBytes = new AtomicLong();
+    private final AtomicLong skippedBytes = new AtomicLong();
+
+    /**
+     * AssetSync constructor
+     * @param linkSources True to link the assets to their source instead of copying them
+     */
+    AssetSync(boolean linkSources) {
+        this.linkSources = linkSources;
+    }
+
+    /**
+     * Check if the assets are linked to their source
+     * @return True if they are linked when possible, false if they are copied
+     */
+    boolean isLinkingSources() {
+        return linkSources;
+    }
+
+    /**
+     * Put an asset in the build directory, replacing the previous version
+     * @param source Asset of the site
+     * @param target Path of the asset in the build directory
+     * @throws IOException Error while linking or copying
+     */
+    void sync(Path source, Path target) throws IOException {
+        Generations.replaceable(target);
+
+        if (linkSources) {
+            try {
+                Files.createLink(target, source);
+                linkedBytes.addAndGet(Files.size(target));
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // Different file system or no hard links
+            }
+        }
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            copiedBytes.addAndGet(size);
+        }
+    }
+
+    /**
+     * Count an asset that did not need to be copied
+     * @param size Size of the asset
+     */
+    void skip(long size) {
+        skippedBytes.addAndGet(size);
+    }
+
+    /**
+     * Get a summary of the transferred bytes
+     * @return Bytes copied, linked and skipped
+     */
+    String summary() {
+        return "Assets: " + FileUtils.byteCountToDisplaySize(copiedBytes.get()) + " copied, "
+                + FileUtils.byteCountToDisplaySize(linkedBytes.get()) + " linked, "
+                + FileUtils.byteCountToDisplaySize(skippedBytes.get()) + " skipped";
+    }
+}
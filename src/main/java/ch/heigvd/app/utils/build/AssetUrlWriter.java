@@ -0,0 +1,160 @@
+package ch.heigvd.app.utils.build;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Rewrites the references to fingerprinted assets in the HTML written
+ * through it. Only the attributes of the tags and the content of the
+ * style elements are rewritten: the text of the page, comments and
+ * scripts are passed on as they are, so that a code sample mentioning an
+ * asset is left alone. The text is held until the end of a tag, so that a
+ * reference is never split between two rewrites, and passed on in chunks
+ * so that a page is never held whole.
+ */
+class AssetUrlWriter extends Writer {
+    private static final int CHUNK_SIZE = 8 * 1024;
+    // A text without tags this long is passed on as it is
+    private static final int MAX_PENDING = 1024 * 1024;
+    private static final String COMMENT_START = "<!--";
+    private static final String COMMENT_END = "-->";
+    private static final String STYLE = "style";
+    private static final String SCRIPT = "script";
+
+    private final Writer output;
+    private final AssetFingerprints fingerprints;
+    private final String directory;
+    private final Set<String> references;
+    private final StringBuilder pending = new StringBuilder(CHUNK_SIZE * 2);
+    // End of the comment, style or script the text is in, null between tags
+    private String rawTextEnd;
+
+    /**
+     * AssetUrlWriter constructor
+     * @param output Writer of the file
+     * @param fingerprints Fingerprinted names of the assets
+     * @param directory Directory of the file, relative to the build directory
+     * @param references Where the source paths of the referenced assets are added
+     */
+    AssetUrlWriter(Writer output, AssetFingerprints fingerprints, String directory, Set<String> references) {
+        this.output = output;
+        this.fingerprints = fingerprints;
+        this.directory = directory;
+        this.references = references;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        pending.append(buffer, offset, length);
+        if (pending.length() >= CHUNK_SIZE)
+            rewritePending(false);
+    }
+
+    @Override
+    public void write(String text, int offset, int length) throws IOException {
+        pending.append(text, offset, offset + length);
+        if (pending.length() >= CHUNK_SIZE)
+            rewritePending(false);
+    }
+
+    /**
+     * Pass on the pending text up to its last tag, or all of it
+     */
+    private void rewritePending(boolean all) throws IOException {
+        int end = all ? pending.length() : pending.lastIndexOf(">") + 1;
+        if (end == 0 && pending.length() >= MAX_PENDING)
+            end = pending.length();
+        if (end == 0)
+            return;
+        output.write(rewrite(pending.substring(0, end)));
+        pending.delete(0, end);
+    }
+
+    /**
+     * Rewrite the tags and style elements of a part of the page
+     */
+    private String rewrite(String html) {
+        StringBuilder result = new StringBuilder(html.length());
+        int position = 0;
+        while (position < html.length()) {
+            if (rawTextEnd != null) {
+                int end = indexOfIgnoreCase(html, rawTextEnd, position);
+                int stop = end < 0 ? html.length() : end;
+                String text = html.substring(position, stop);
+                result.append(rawTextEnd.equals("</" + STYLE)
+                        ? fingerprints.rewriteStyle(text, directory, references) : text);
+                position = stop;
+                if (end < 0)
+                    break;
+                // The closing tag of a style or script is read as a tag
+                if (rawTextEnd.equals(COMMENT_END)) {
+                    result.append(COMMENT_END);
+                    position += COMMENT_END.length();
+                }
+                rawTextEnd = null;
+                continue;
+            }
+
+            int open = html.indexOf('<', position);
+            if (open < 0) {
+                result.append(html, position, html.length());
+                break;
+            }
+            result.append(html, position, open);
+            if (html.startsWith(COMMENT_START, open)) {
+                result.append(COMMENT_START);
+                position = open + COMMENT_START.length();
+                rawTextEnd = COMMENT_END;
+                continue;
+            }
+            int close = html.indexOf('>', open);
+            if (close < 0) {
+                // A tag cut by a text too long, passed on as it is
+                result.append(html, open, html.length());
+                break;
+            }
+            String tag = html.substring(open, close + 1);
+            result.append(fingerprints.rewriteTag(tag, directory, references));
+            position = close + 1;
+            String name = tagName(html, open);
+            if ((name.equals(STYLE) || name.equals(SCRIPT)) && !tag.endsWith("/>"))
+                rawTextEnd = "</" + name;
+        }
+        return result.toString();
+    }
+
+    /**
+     * Get the name of the tag opened at a position, in lower case
+     */
+    private static String tagName(String html, int open) {
+        int end = open + 1;
+        while (end < html.length() && Character.isLetterOrDigit(html.charAt(end)))
+            end++;
+        return html.substring(open + 1, end).toLowerCase(Locale.ROOT);
+    }
+
+    private static int indexOfIgnoreCase(String text, String searched, int from) {
+        for (int i = from; i <= text.length() - searched.length(); i++) {
+            if (text.regionMatches(true, i, searched, 0, searched.length()))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Only whole tags are rewritten, the rest waits for close
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            rewritePending(true);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package ch.heigvd.app.utils.build;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Asset stages of the build: names the assets after their content when
+ * they are fingerprinted, then puts each asset in the build directory
+ * under its name, through {@link AssetSync}. Stylesheets are written with
+ * their references rewritten.
+ */
+class AssetWriter {
+    private final BuildManifest manifest;
+    private final BuildOutputs outputs;
+    private final AssetSync sync;
+    // Null when the assets are not fingerprinted
+    private AssetFingerprints fingerprints;
+
+    /**
+     * AssetWriter constructor
+     * @param manifest Manifest of the build
+     * @param outputs Outputs of the build
+     * @param linkSources True to link the assets to their source instead of copying them
+     */
+    AssetWriter(BuildManifest manifest, BuildOutputs outputs, boolean linkSources) {
+        this.manifest = manifest;
+        this.outputs = outputs;
+        this.sync = new AssetSync(linkSources);
+    }
+
+    /**
+     * Hash the assets of the whole site and write
+     * {@value AssetFingerprints#MANIFEST} if their names changed. Must be
+     * called before the outputs referring to the assets are written.
+     * @param found Fingerprinted assets of the site, by relative path
+     * @param sourcePath Directory of the site
+     * @param executor Executor hashing the assets
+     * @throws IOException Error while hashing an asset or writing the manifest
+     */
+    void fingerprint(Map<String, BasicFileAttributes> found, Path sourcePath, Executor executor) throws IOException {
+        fingerprints = AssetFingerprints.compute(found, sourcePath, manifest, executor);
+
+        String json = fingerprints.toJson();
+        String hash = BuildManifest.hash(json);
+        BuildManifest.Entry previous = manifest.getEntry(BuildEngine.FINGERPRINT_INPUT);
+        if (previous != null && previous.getHash().equals(hash) && outputs.exist(previous))
+            return;
+        Path file = outputs.getPath().resolve(AssetFingerprints.MANIFEST);
+        Files.writeString(Generations.replaceable(file), json, StandardCharsets.UTF_8);
+        manifest.putEntry(BuildEngine.FINGERPRINT_INPUT,
+                new BuildManifest.Entry(0, 0, hash, List.of(AssetFingerprints.MANIFEST)));
+        outputs.written(AssetFingerprints.MANIFEST);
+        System.out.println("File " + file + " successfully created");
+    }
+
+    /**
+     * Get the fingerprinted names of the assets
+     * @return Names computed by {@link #fingerprint}, or null if the assets are not fingerprinted
+     */
+    AssetFingerprints getFingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * Check if the assets are linked to their source
+     * @return True if they are linked when possible, false if they are copied
+     */
+    boolean isLinkingSources() {
+        return sync.isLinkingSources();
+    }
+
+    /**
+     * Copy an asset, under its fingerprinted name if it has one
+     * @param file Asset of the site
+     * @param relativeSource Path of the asset, relative to the site
+     * @return Path of the copy
+     */
+    Path copy(Path file, String relativeSource) {
+        String name = fingerprints == null ? null : fingerprints.getName(relativeSource);
+        Path output = outputs.getPath().resolve(name == null ? relativeSource : name);
+        try {
+            String stylesheet = fingerprints == null ? null : fingerprints.getStylesheet(relativeSource);
+            if (stylesheet != null) {
+                Files.writeString(Generations.replaceable(output), stylesheet, StandardCharsets.UTF_8);
+            } else {
+                sync.sync(file, output);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("File " + file + " successfully copied");
+        return output;
+    }
+
+    /**
+     * Get every input used to write an asset
+     * @param relativeSource Path of the asset, relative to the site
+     * @return Relative paths of the inputs
+     */
+    Set<String> inputs(String relativeSource) {
+        if (fingerprints == null)
+            return Set.of(relativeSource, BuildEngine.ASSET_LINK_INPUT);
+        Set<String> inputs = new HashSet<>(fingerprints.getStylesheetReferences(relativeSource));
+        inputs.add(relativeSource);
+        inputs.add(BuildEngine.ASSET_LINK_INPUT);
+        return inputs;
+    }
+
+    /**
+     * Count an asset that did not need to be copied
+     * @param size Size of the asset
+     */
+    void skip(long size) {
+        sync.skip(size);
+    }
+
+    /**
+     * Get a summary of the transferred bytes
+     * @return Bytes copied, linked and skipped
+     */
+    String summary() {
+        return sync.summary();
+    }
+}
@@ -0,0 +1,948 @@
+package ch.heigvd.app.utils.build;
+
+import ch.heigvd.app.utils.JsonConverter;
+import ch.heigvd.app.utils.daemon.ConsoleRouting;
+import ch.heigvd.app.utils.parsers.MarkdownConverter;
+import ch.heigvd.app.utils.parsers.SiteConfig;
+import ch.heigvd.app.utils.search.SearchIndex;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Builds a site into its build directory. Files go through a pipeline:
+ * the calling thread discovers them, then reading and front matter
+ * parsing, markdown rendering, layout application and writing run as
+ * separate stages on a shared worker pool, see {@link PageReader},
+ * {@link PageRenderer} and {@link PageSearch}. Assets are named and copied
+ * by the same pool, see {@link AssetWriter}. The number of files in flight
+ * is bounded so that discovery never runs far ahead of the workers, and
+ * so is the memory they may hold: each page reserves an estimate of its
+ * size from a memory budget. Pages are not copied into strings: the
+ * markdown is parsed, then rendered straight to the output file while the
+ * layout is applied.
+ *
+ * Every output is recorded in a dependency graph with the inputs used to
+ * produce it (its source, config.json, its layout and partials), so that
+ * an incremental build only renders the outputs affected by a change.
+ * Each build is written in a new {@link Generations generation}, which
+ * replaces the build directory only once it is complete. Rebuilds of
+ * some changed paths, as in watch mode, update the published generation
+ * in place by default, as seeding a generation is proportional to the
+ * size of the site.
+ *
+ * The headers read by the pipeline fill the {@link PageIndex} stored in the
+ * manifest. Listing pages, which show the index, are put aside when they
+ * are read and rendered once every page was read, and again whenever the
+ * indexed fields of a page change. The sitemap, the feed and the tag and
+ * archive pages are then made from the index, see {@link IndexOutputs}.
+ */
+public class BuildEngine implements AutoCloseable {
+    public static final String CONFIG_FILENAME = "config.json";
+    public static final String ASSET_MANIFEST_FILENAME = "asset-manifest.json";
+    public static final String BUILD_DIRECTORY_NAME = "build";
+    public static final String TEMPLATE_DIRECTORY_NAME = "template";
+    private static final String MARKDOWN_FILE_TYPE = "md";
+    static final String TEMPLATE_FILE_TYPE = "html";
+    private static final Set<String> DIRECTORIES_TO_EXCLUDE = Set.of(BUILD_DIRECTORY_NAME, Generations.DIRECTORY_NAME);
+    private static final Set<String> FILES_TO_EXCLUDE = Set.of(CONFIG_FILENAME);
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+    // Estimate of the memory used by a page, mostly its parsed markdown
+    private static final long MEMORY_PER_SOURCE_BYTE = 4;
+    private static final long MEMORY_PER_PAGE = 16 * 1024;
+    // Virtual input of the outputs that may be compressed, changed with the settings
+    static final String COMPRESSION_INPUT = "@compression";
+    private static final String NO_COMPRESSION = "none";
+    static final String FINGERPRINT_INPUT = "@fingerprint";
+    // Virtual input of the assets, changed when they are linked to their source or copied
+    static final String ASSET_LINK_INPUT = "@asset-links";
+    private static final String LINKED_ASSETS = "link";
+    private static final String COPIED_ASSETS = "copy";
+    private static final Map<String, BuildEngine> KEPT_ENGINES = new ConcurrentHashMap<>();
+    private static volatile boolean keepEngines;
+
+    private final Path sourcePath;
+    private final Path buildPath;
+    private final Generations generations;
+    private final int threads;
+    private final ExecutorService pool;
+    private final Executor executor;
+    private boolean kept;
+    private final TemplateRegistry templates;
+    private volatile MarkdownConverter markdownConverter = MarkdownConverter.getDefault();
+
+    /**
+     * BuildEngine constructor
+     * @param sourcePath Directory of the site
+     * @param threads Number of worker threads
+     */
+    public BuildEngine(Path sourcePath, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is needed!");
+        this.sourcePath = sourcePath;
+        this.buildPath = sourcePath.resolve(BUILD_DIRECTORY_NAME);
+        this.generations = new Generations(buildPath);
+        this.threads = threads;
+        this.templates = new TemplateRegistry(sourcePath.resolve(TEMPLATE_DIRECTORY_NAME));
+        AtomicInteger count = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "build-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Workers print for the command that submitted their task
+        this.executor = task -> pool.execute(ConsoleRouting.propagate(task));
+    }
+
+    /**
+     * Get an engine for a site. Once {@link #keepEngines()} was called,
+     * the same engine is given to every command building the site, with
+     * its compiled templates, and closing it does nothing. Only these
+     * caches are shared: the settings are given with each build.
+     * @param sourcePath Directory of the site
+     * @param threads Number of worker threads
+     * @return New or kept engine
+     */
+    public static BuildEngine open(Path sourcePath, int threads) {
+        if (!keepEngines)
+            return new BuildEngine(sourcePath, threads);
+        String key = sourcePath.toAbsolutePath().normalize() + File.pathSeparator + threads;
+        return KEPT_ENGINES.computeIfAbsent(key, k -> {
+            BuildEngine engine = new BuildEngine(sourcePath, threads);
+            engine.kept = true;
+            return engine;
+        });
+    }
+
+    /**
+     * Keep the engines given by {@link #open(Path, int)} between commands,
+     * for a process running many commands
+     */
+    public static void keepEngines() {
+        keepEngines = true;
+    }
+
+    /**
+     * Stop the kept engines
+     */
+    public static void closeEngines() {
+        keepEngines = false;
+        for (BuildEngine engine : KEPT_ENGINES.values()) {
+            engine.pool.shutdownNow();
+        }
+        KEPT_ENGINES.clear();
+    }
+
+    /**
+     * Get the build directory
+     * @return Build directory
+     */
+    public Path getBuildPath() {
+        return buildPath;
+    }
+
+    /**
+     * Get the directory where the builds are written before being published
+     * @return Generations directory
+     */
+    public Path getGenerationsPath() {
+        return generations.getGenerationsPath();
+    }
+
+    /**
+     * Publish the build preceding the current one
+     * @return True if there was a build to go back to
+     * @throws IOException Error while replacing the build directory
+     */
+    public synchronized boolean rollback() throws IOException {
+        Path generation = generations.rollback();
+        if (generation == null)
+            return false;
+        System.out.println("Build directory now links to " + generation);
+        return true;
+    }
+
+    /**
+     * Read the config.json of the site
+     * @return Site config
+     * @throws IOException Error while reading the config
+     */
+    public SiteConfig readConfig() throws IOException {
+        Path configPath = sourcePath.resolve(CONFIG_FILENAME);
+        String configContent = Files.readString(configPath, StandardCharsets.UTF_8);
+        return JsonConverter.convertSite(configContent);
+    }
+
+    /**
+     * Build the site with the default settings
+     * @param fullBuild True to ignore the manifest and rebuild every file
+     * @return Outputs written and removed by the build
+     * @throws IOException Error while reading the sources or writing the build
+     */
+    public BuildResult build(boolean fullBuild) throws IOException {
+        return build(fullBuild, BuildSettings.defaults());
+    }
+
+    /**
+     * Build the site
+     * @param fullBuild True to ignore the manifest and rebuild every file
+     * @param settings Settings of this build
+     * @return Outputs written and removed by the build
+     * @throws IOException Error while reading the sources or writing the build
+     */
+    public BuildResult build(boolean fullBuild, BuildSettings settings) throws IOException {
+        return build(fullBuild, null, settings);
+    }
+
+    /**
+     * Build only what is affected by some changed paths, with the default
+     * settings
+     * @param changedPaths Created, modified or deleted files and directories
+     * @return Outputs written and removed by the build
+     * @throws IOException Error while reading the sources or writing the build
+     */
+    public BuildResult rebuild(Collection<Path> changedPaths) throws IOException {
+        return rebuild(changedPaths, BuildSettings.defaults());
+    }
+
+    /**
+     * Build only what is affected by some changed paths, without walking
+     * the whole site. Falls back to a normal build if there is no manifest.
+     * The published build is updated in place, unless the settings ask for
+     * a new generation.
+     * @param changedPaths Created, modified or deleted files and directories
+     * @param settings Settings of this build
+     * @return Outputs written and removed by the build
+     * @throws IOException Error while reading the sources or writing the build
+     */
+    public BuildResult rebuild(Collection<Path> changedPaths, BuildSettings settings) throws IOException {
+        Path root = sourcePath.toAbsolutePath().normalize();
+        Set<String> scope = new HashSet<>();
+        for (Path changed : changedPaths) {
+            Path absolute = changed.toAbsolutePath().normalize();
+            if (absolute.startsWith(root) && !absolute.equals(root))
+                scope.add(FilenameUtils.separatorsToUnix(root.relativize(absolute).toString()));
+        }
+        return build(false, scope, settings);
+    }
+
+    /**
+     * Build the site
+     * @param fullBuild True to ignore the manifest and rebuild every file
+     * @param scope Relative paths to check, or null to walk the whole site
+     * @param settings Settings of this build
+     * @return Outputs written and removed by the build
+     */
+    private synchronized BuildResult build(boolean fullBuild, Set<String> scope, BuildSettings settings)
+            throws IOException {
+        System.out.println("Building in : " + sourcePath);
+        System.out.println("buildPath = " + buildPath);
+        BuildProfiler profiler = settings.isProfiling() ? BuildProfiler.start(threads, settings.getSlowestPages()) : BuildProfiler.disabled();
+
+        // Get values from config file
+        Map<String, String> siteMetaData = new HashMap<>();
+        SiteConfig siteConfig = profiler.measure(BuildProfiler.Phase.CONFIG, () -> {
+            SiteConfig config = readConfig();
+
+            siteMetaData.put("title", config.getTitle());
+            siteMetaData.put("lang", config.getLang());
+            siteMetaData.put("charset", config.getCharset());
+
+            // The converter is kept between builds unless the extensions change
+            if (!markdownConverter.getExtensions().equals(config.getMarkdownExtensions())) {
+                markdownConverter = new MarkdownConverter(config.getMarkdownExtensions());
+            }
+
+            // Compile the templates that changed since the previous build
+            templates.refresh();
+            if (!templates.has(TemplateRegistry.DEFAULT_LAYOUT))
+                throw new IOException("No layout given!");
+            return config;
+        });
+
+        BuildManifest loaded = fullBuild ? null
+                : profiler.measure(BuildProfiler.Phase.SEED, () -> BuildManifest.load(buildPath));
+        // The search index is updated from the one of the previous build
+        if (loaded != null && siteConfig.isSearch() && !SearchIndex.exists(buildPath))
+            loaded = null;
+        // Every reference changes when the assets are fingerprinted or not anymore
+        boolean fingerprinting = settings.isFingerprintAssets();
+        if (loaded != null && fingerprinting != (loaded.getEntry(FINGERPRINT_INPUT) != null))
+            loaded = null;
+        boolean incremental = loaded != null;
+        BuildManifest manifest = incremental ? loaded : BuildManifest.empty();
+        if (!incremental)
+            scope = null;
+
+        // The build is written in a new generation, made of links to the
+        // files of the published one, and replaces it once complete. Linking
+        // costs a walk of the whole published site, so a rebuild of some
+        // changed paths updates the published generation in place instead,
+        // unless asked otherwise
+        boolean inPlace = scope != null && !settings.isRebuildGenerations() && Files.isDirectory(buildPath);
+        Path generation = inPlace ? buildPath.toRealPath()
+                : profiler.measure(BuildProfiler.Phase.SEED, () -> generations.create(incremental));
+        Run run = new Run(siteConfig, Collections.unmodifiableMap(siteMetaData), markdownConverter, settings,
+                manifest, incremental, scope, generation, profiler);
+        try {
+            run.execute();
+            profiler.measure(BuildProfiler.Phase.MANIFEST, () -> {
+                manifest.save(generation);
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            // Outputs updated in place are checked again by the next build,
+            // as the manifest still has their previous inputs
+            if (!inPlace)
+                generations.discard(generation);
+            throw e;
+        }
+        if (!inPlace) {
+            profiler.measure(BuildProfiler.Phase.PUBLISH, () -> {
+                generations.publish(generation);
+                generations.prune(settings.getKeptGenerations());
+                return null;
+            });
+        }
+
+        if (profiler.isEnabled()) {
+            Path report = generations.getGenerationsPath().resolve(BuildProfiler.FILENAME);
+            profiler.write(report);
+            System.out.println(profiler.summary(report));
+        }
+
+        Set<String> writtenOutputs = new HashSet<>(run.outputs.getRendered());
+        writtenOutputs.addAll(run.outputs.getCompressed());
+        return new BuildResult(writtenOutputs, run.outputs.getRemoved(), !incremental);
+    }
+
+    /**
+     * Stop the worker pool, unless the engine is kept
+     */
+    @Override
+    public void close() {
+        if (!kept)
+            pool.shutdownNow();
+    }
+
+    /**
+     * Get the relative path of a template file, as recorded in the manifest
+     * @param name Name of the template
+     * @return Path relative to the site directory
+     */
+    static String templateInput(String name) {
+        return TEMPLATE_DIRECTORY_NAME + "/" + name + "." + TEMPLATE_FILE_TYPE;
+    }
+
+    /**
+     * State of a single build. Files go from the check of the manifest
+     * through the stages of {@link PageReader}, {@link PageRenderer},
+     * {@link PageSearch} or {@link AssetWriter}, which record what they
+     * write in the {@link BuildOutputs}: the run discovers the files and
+     * chains the stages on the worker pool.
+     */
+    private class Run {
+        private final SiteConfig siteConfig;
+        private final Map<String, String> siteMetaData;
+        private final MarkdownConverter converter;
+        private final Precompressor precompressor;
+        private final BuildManifest manifest;
+        private final DependencyGraph dependencies;
+        private final boolean incremental;
+        private final Set<String> scope;
+        private final boolean fingerprinting;
+        private final BuildProfiler profiler;
+        private final BuildOutputs outputs;
+        private final PageIndex pageIndex;
+        private final PageReader reader;
+        private final PageSearch search;
+        private final AssetWriter assets;
+        // Made once the assets are named, as it rewrites the references to them
+        private PageRenderer renderer;
+        private final Set<String> visitedSources = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private Set<String> changedInputs = Set.of();
+        // Listing pages read before the index was complete, with their hash
+        private final Map<String, String> deferredListings = new ConcurrentHashMap<>();
+        private volatile boolean listingPass;
+        private List<PageIndex.Entry> sortedPages;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final Semaphore inFlight = new Semaphore(threads * IN_FLIGHT_PER_THREAD);
+        // Counted in kilobytes to fit in the permits
+        private final int memoryBudgetKb;
+        private final Semaphore memory;
+        private final List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        private Set<String> affectedOutputs = Set.of();
+
+        Run(SiteConfig siteConfig, Map<String, String> siteMetaData, MarkdownConverter converter, BuildSettings settings,
+            BuildManifest manifest, boolean incremental, Set<String> scope, Path outputPath, BuildProfiler profiler) {
+            this.siteConfig = siteConfig;
+            this.siteMetaData = siteMetaData;
+            this.converter = converter;
+            this.precompressor = settings.getPrecompressor();
+            this.manifest = manifest;
+            this.dependencies = manifest.getDependencies();
+            this.pageIndex = manifest.getPageIndex();
+            this.incremental = incremental;
+            this.scope = scope;
+            this.fingerprinting = settings.isFingerprintAssets();
+            this.profiler = profiler;
+            this.outputs = new BuildOutputs(outputPath, manifest, precompressor);
+            this.reader = new PageReader(pageIndex, outputs);
+            this.search = new PageSearch(siteConfig.isSearch(), incremental ? outputPath : null);
+            this.assets = new AssetWriter(manifest, outputs, settings.isLinkAssets());
+            this.memoryBudgetKb = (int) Math.min(Integer.MAX_VALUE, Math.max(1, settings.getMemoryBudget() / 1024));
+            this.memory = new Semaphore(memoryBudgetKb);
+        }
+
+        /**
+         * Discover the files and wait for the pipeline to process them
+         * @throws IOException Error during one of the stages
+         */
+        void execute() throws IOException {
+            // Assets are named before the outputs referring to them are written
+            if (fingerprinting) {
+                profiler.measure(BuildProfiler.Phase.FINGERPRINT, () -> {
+                    visitedSources.add(FINGERPRINT_INPUT);
+                    assets.fingerprint(findFingerprintedAssets(), sourcePath, executor);
+                    return null;
+                });
+            }
+            AssetFingerprints fingerprints = assets.getFingerprints();
+            renderer = new PageRenderer(converter, templates, siteMetaData, outputs, fingerprints);
+
+            // Outputs depending on a modified config, template or asset
+            // name are rendered again even if their own source did not change
+            try {
+                profiler.measure(BuildProfiler.Phase.DISCOVER, () -> {
+                    changedInputs = checkSharedInputs();
+                    if (fingerprints != null)
+                        changedInputs.addAll(fingerprints.getChanged());
+                    affectedOutputs = dependencies.affectedOutputs(changedInputs);
+                    if (scope == null)
+                        walk(sourcePath);
+                    else
+                        discoverScope();
+                    return null;
+                });
+            } finally {
+                awaitTasks();
+            }
+            throwFailure();
+
+            int removed = profiler.measure(BuildProfiler.Phase.REMOVE, this::removeDeletedSources);
+
+            // Listing pages show the index, complete only now
+            if (!deferredListings.isEmpty() || reader.hasMetaDataChanged()) {
+                try {
+                    profiler.measure(BuildProfiler.Phase.DISCOVER, () -> {
+                        renderListingPages();
+                        return null;
+                    });
+                } finally {
+                    awaitTasks();
+                }
+                throwFailure();
+            }
+
+            // Made from the index, without reading the pages
+            if (!incremental || reader.isIndexTouched() || !changedInputs.isEmpty()) {
+                try {
+                    profiler.measure(BuildProfiler.Phase.GENERATE, () -> {
+                        writeIndexOutputs();
+                        return null;
+                    });
+                } finally {
+                    awaitTasks();
+                }
+                throwFailure();
+            }
+
+            profiler.measure(BuildProfiler.Phase.SEARCH, () -> {
+                search.write(outputs, incremental);
+                return null;
+            });
+
+            System.out.println(outputs.getRendered().size() + " file(s) built, " + skipped.get()
+                    + " unchanged, " + removed + " removed");
+            System.out.println(assets.summary());
+        }
+
+        /**
+         * Check config.json and the templates against the manifest
+         * @return Relative paths of the inputs that changed or disappeared
+         */
+        private Set<String> checkSharedInputs() throws IOException {
+            Set<String> changed = new HashSet<>();
+            Map<String, Path> inputs = new HashMap<>();
+            inputs.put(CONFIG_FILENAME, sourcePath.resolve(CONFIG_FILENAME));
+            for (String name : templates.getNames()) {
+                inputs.put(templateInput(name), sourcePath.resolve(TEMPLATE_DIRECTORY_NAME).resolve(name + "." + TEMPLATE_FILE_TYPE));
+            }
+
+            for (Map.Entry<String, Path> input : inputs.entrySet()) {
+                visitedSources.add(input.getKey());
+                BasicFileAttributes attrs = Files.readAttributes(input.getValue(), BasicFileAttributes.class);
+                String hash = changedHash(input.getKey(), input.getValue(), attrs);
+                if (hash != null) {
+                    manifest.putEntry(input.getKey(), new BuildManifest.Entry(attrs.size(),
+                            attrs.lastModifiedTime().toMillis(), hash, List.of()));
+                    changed.add(input.getKey());
+                }
+            }
+
+            // Compressed copies must be written again or removed when the settings change
+            String compression = precompressor == null ? NO_COMPRESSION : precompressor.getSettings();
+            visitedSources.add(COMPRESSION_INPUT);
+            BuildManifest.Entry previousCompression = manifest.getEntry(COMPRESSION_INPUT);
+            if (previousCompression == null || !previousCompression.getHash().equals(compression)) {
+                manifest.putEntry(COMPRESSION_INPUT, new BuildManifest.Entry(0, 0, compression, List.of()));
+                changed.add(COMPRESSION_INPUT);
+            }
+
+            // Assets are linked or copied again when the mode changes
+            String assetLinks = assets.isLinkingSources() ? LINKED_ASSETS : COPIED_ASSETS;
+            visitedSources.add(ASSET_LINK_INPUT);
+            BuildManifest.Entry previousAssetLinks = manifest.getEntry(ASSET_LINK_INPUT);
+            if (previousAssetLinks == null || !previousAssetLinks.getHash().equals(assetLinks)) {
+                manifest.putEntry(ASSET_LINK_INPUT, new BuildManifest.Entry(0, 0, assetLinks, List.of()));
+                changed.add(ASSET_LINK_INPUT);
+            }
+
+            String templatePrefix = TEMPLATE_DIRECTORY_NAME + "/";
+            for (String source : manifest.getSources()) {
+                if (source.startsWith(templatePrefix) && !inputs.containsKey(source)) {
+                    manifest.removeEntry(source);
+                    changed.add(source);
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Find the assets of the whole site to fingerprint, whatever the scope
+         * @return Attributes of the assets, by relative path
+         */
+        private Map<String, BasicFileAttributes> findFingerprintedAssets() throws IOException {
+            Map<String, BasicFileAttributes> found = new HashMap<>();
+            Files.walkFileTree(sourcePath, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return isExcludedDirectory(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String relativeSource = FilenameUtils.separatorsToUnix(sourcePath.relativize(file).toString());
+                    if (attrs.isRegularFile() && AssetFingerprints.isFingerprinted(relativeSource))
+                        found.put(relativeSource, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return found;
+        }
+
+        /**
+         * Go through all directories, create them in the build folder and
+         * submit the files to the pipeline
+         * @param start Directory where the walk starts
+         */
+        private void walk(Path start) throws IOException {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (isExcludedDirectory(dir))
+                        return FileVisitResult.SKIP_SUBTREE;
+
+                    Path destinationPath = outputs.getPath().resolve(sourcePath.relativize(dir));
+                    if (!Files.isDirectory(destinationPath)) {
+                        Files.createDirectories(destinationPath);
+                        System.out.println("Directory " + destinationPath + " successfully created");
+                    }
+
+                    return failure.get() == null ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    discoverFile(file, attrs);
+                    return failure.get() == null ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+                }
+            });
+        }
+
+        /**
+         * Submit only the paths of the scope, and the sources of the
+         * outputs affected by a config or template change
+         */
+        private void discoverScope() throws IOException {
+            Set<String> toCheck = new TreeSet<>(scope);
+            if (!affectedOutputs.isEmpty()) {
+                for (String source : manifest.getSources()) {
+                    BuildManifest.Entry entry = manifest.getEntry(source);
+                    if (entry != null && !Collections.disjoint(entry.getOutputs(), affectedOutputs))
+                        toCheck.add(source);
+                }
+            }
+
+            for (String relative : toCheck) {
+                Path path = sourcePath.resolve(relative);
+                if (isExcludedDirectory(path) || isInExcludedDirectory(path)) {
+                    continue;
+                } else if (Files.isDirectory(path)) {
+                    walk(path);
+                } else if (Files.isRegularFile(path) && !isExcludedDirectory(path.getParent())
+                        && !isInExcludedDirectory(path)) {
+                    Files.createDirectories(outputs.getPath().resolve(sourcePath.relativize(path.getParent())));
+                    discoverFile(path, Files.readAttributes(path, BasicFileAttributes.class));
+                }
+                if (failure.get() != null)
+                    return;
+            }
+        }
+
+        /**
+         * Check if a directory of the site must not be copied in the build
+         */
+        private boolean isExcludedDirectory(Path dir) {
+            // Templates are only used to render pages
+            return dir.equals(buildPath) || dir.equals(sourcePath.resolve(TEMPLATE_DIRECTORY_NAME))
+                    || DIRECTORIES_TO_EXCLUDE.contains(dir.getFileName().toString());
+        }
+
+        private boolean isInExcludedDirectory(Path path) {
+            for (Path parent = path.getParent(); parent != null && !parent.equals(sourcePath); parent = parent.getParent()) {
+                if (isExcludedDirectory(parent))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Submit a file found in the site to the pipeline
+         */
+        private void discoverFile(Path file, BasicFileAttributes attrs) {
+            // The build directory is a link, seen as a file
+            if (FILES_TO_EXCLUDE.contains(file.getFileName().toString()) || file.equals(buildPath))
+                return;
+
+            String fileExtension = FilenameUtils.getExtension(file.toString());
+            if (fileExtension.equals("html")) {
+                System.out.println("Convert to html with handlebars : " + file);
+                return;
+            }
+
+            // A file can be reached twice when both it and its directory changed
+            String relativeSource = FilenameUtils.separatorsToUnix(sourcePath.relativize(file).toString());
+            if (!visitedSources.add(relativeSource))
+                return;
+            boolean markdown = fileExtension.equals(MARKDOWN_FILE_TYPE);
+            submit(file, attrs, relativeSource, markdown, () -> isUpToDate(file, attrs, relativeSource, markdown));
+        }
+
+        /**
+         * Render the listing pages put aside while reading, and the other
+         * listing pages if the index changed
+         */
+        private void renderListingPages() throws IOException {
+            listingPass = true;
+            Map<String, Object> site = new HashMap<>(siteMetaData);
+            site.putAll(PageIndex.collections(sortedPages()));
+            renderer.setListingSiteMetaData(Collections.unmodifiableMap(site));
+
+            Map<String, String> listings = new TreeMap<>(deferredListings);
+            if (reader.hasMetaDataChanged()) {
+                Set<String> listingOutputs = dependencies.affectedOutputs(List.of(DependencyGraph.METADATA));
+                for (String source : manifest.getSources()) {
+                    BuildManifest.Entry entry = manifest.getEntry(source);
+                    if (entry == null || listings.containsKey(source) || Collections.disjoint(entry.getOutputs(), listingOutputs)
+                            || !Collections.disjoint(entry.getOutputs(), outputs.getRendered()))
+                        continue;
+                    if (visitedSources.contains(source))
+                        skipped.decrementAndGet();
+                    listings.put(source, entry.getHash());
+                }
+            }
+
+            for (Map.Entry<String, String> listing : listings.entrySet()) {
+                Path file = sourcePath.resolve(listing.getKey());
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                submit(file, attrs, listing.getKey(), true, listing::getValue);
+            }
+        }
+
+        /**
+         * Get the listed pages sorted by date, once the index is complete
+         */
+        private List<PageIndex.Entry> sortedPages() {
+            if (sortedPages == null)
+                sortedPages = pageIndex.sorted();
+            return sortedPages;
+        }
+
+        /**
+         * Write the outputs made from the index whose signature changed, and
+         * remove the ones that are not made anymore
+         */
+        private void writeIndexOutputs() throws IOException {
+            String compression = precompressor == null ? NO_COMPRESSION : precompressor.getSettings();
+            String settings = manifest.getEntry(CONFIG_FILENAME).getHash() + compression;
+            if (fingerprinting)
+                settings += manifest.getEntry(FINGERPRINT_INPUT).getHash();
+            IndexOutputs indexOutputs = new IndexOutputs(siteConfig, siteMetaData, pageIndex, templates, settings);
+
+            Set<String> planned = new HashSet<>();
+            for (IndexOutputs.Output output : indexOutputs.plan(sortedPages(), this::layoutSignature)) {
+                String source = IndexOutputs.SOURCE_PREFIX + output.getPath();
+                planned.add(source);
+                BuildManifest.Entry previous = manifest.getEntry(source);
+                if (previous != null && previous.getHash().equals(output.getSignature()) && outputs.exist(previous))
+                    continue;
+                tasks.add(CompletableFuture
+                        .runAsync(() -> outputs.recordGenerated(source, output.getSignature(),
+                                renderer.writeIndexOutput(output)), executor)
+                        .whenComplete((ignored, e) -> {
+                            if (e != null)
+                                failure.compareAndSet(null, e instanceof CompletionException ? e.getCause() : e);
+                        }));
+            }
+
+            for (String source : manifest.getSources()) {
+                if (source.startsWith(IndexOutputs.SOURCE_PREFIX) && !planned.contains(source))
+                    outputs.delete(manifest.removeEntry(source));
+            }
+        }
+
+        /**
+         * Get the signature of a layout, made of the hashes of its templates
+         */
+        private String layoutSignature(String layout) {
+            StringBuilder signature = new StringBuilder();
+            for (String template : new TreeSet<>(templates.dependencies(layout))) {
+                BuildManifest.Entry entry = manifest.getEntry(templateInput(template));
+                signature.append(entry == null ? "" : entry.getHash());
+            }
+            return signature.toString();
+        }
+
+        /**
+         * Submit a file to the pipeline, waiting if too many files are
+         * already in flight
+         * @param check Gives the hash of the file if it must be processed,
+         *              null if it is up to date
+         */
+        private void submit(Path file, BasicFileAttributes attrs, String relativeSource, boolean markdown, Supplier<String> check) {
+            // Assets are streamed, only pages are held in memory
+            int memoryKb = markdown ? memoryEstimateKb(attrs.size()) : 0;
+            long waitStart = System.nanoTime();
+            try {
+                inFlight.acquire();
+                try {
+                    memory.acquire(memoryKb);
+                } catch (InterruptedException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+                return;
+            }
+            profiler.submitWait(System.nanoTime() - waitStart);
+
+            BuildProfiler.Task timings = profiler.task(relativeSource);
+            CompletableFuture<Void> task = CompletableFuture
+                    .supplyAsync(() -> profiler.call(BuildProfiler.Phase.CHECK, timings, check), executor)
+                    .thenCompose(hash -> {
+                        if (hash == null)
+                            return CompletableFuture.completedFuture(null);
+                        return markdown
+                                ? renderPipeline(file, attrs, relativeSource, hash, timings)
+                                : CompletableFuture.runAsync(() -> {
+                                    Path output = profiler.call(BuildProfiler.Phase.ASSET, timings,
+                                            () -> assets.copy(file, relativeSource));
+                                    profiler.run(BuildProfiler.Phase.RECORD, timings, () ->
+                                            outputs.record(relativeSource, attrs, hash, output, assets.inputs(relativeSource)));
+                                }, executor);
+                    })
+                    .whenComplete((ignored, e) -> {
+                        memory.release(memoryKb);
+                        inFlight.release();
+                        if (e != null)
+                            failure.compareAndSet(null, e instanceof CompletionException ? e.getCause() : e);
+                    });
+            tasks.add(task);
+        }
+
+        /**
+         * Estimate the memory needed to build a page, at most the whole budget
+         * @param size Size of the source in bytes
+         * @return Estimate in kilobytes
+         */
+        private int memoryEstimateKb(long size) {
+            long bytes = size * MEMORY_PER_SOURCE_BYTE + MEMORY_PER_PAGE;
+            return (int) Math.min(memoryBudgetKb, Math.max(1, bytes / 1024));
+        }
+
+        private void awaitTasks() {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+            tasks.clear();
+        }
+
+        private void throwFailure() throws IOException {
+            Throwable error = failure.get();
+            if (error instanceof UncheckedIOException)
+                error = error.getCause();
+            if (error instanceof IOException)
+                throw (IOException) error;
+            if (error != null)
+                throw new IOException(error.getMessage(), error);
+        }
+
+        /**
+         * Chain the stages rendering a markdown page
+         */
+        private CompletableFuture<Void> renderPipeline(Path file, BasicFileAttributes attrs, String relativeSource, String hash,
+                                                       BuildProfiler.Task timings) {
+            Path htmlFile = Paths.get(FilenameUtils.removeExtension(
+                    outputs.getPath().resolve(sourcePath.relativize(file)).toString()) + ".html");
+            Page page = new Page(file, htmlFile);
+
+            return CompletableFuture.completedFuture(page)
+                    .thenApplyAsync(p -> profiler.call(BuildProfiler.Phase.READ, timings, () -> reader.read(p, relativeSource)), executor)
+                    .thenCompose(p -> {
+                        // Rendered once every page is in the index
+                        if (p.isListing() && !listingPass) {
+                            PageReader.close(p);
+                            deferredListings.put(relativeSource, hash);
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        return renderPage(p, relativeSource, attrs, hash, timings);
+                    })
+                    .whenComplete((ignored, e) -> {
+                        // A failed stage may have left the source open
+                        if (e != null)
+                            PageReader.close(page);
+                    });
+        }
+
+        /**
+         * Chain the stages rendering a page once its header is read
+         */
+        private CompletableFuture<Void> renderPage(Page page, String relativeSource, BasicFileAttributes attrs, String hash,
+                                                   BuildProfiler.Task timings) {
+            return CompletableFuture.completedFuture(page)
+                    .thenApplyAsync(p -> profiler.call(BuildProfiler.Phase.MARKDOWN, timings, () -> renderer.parse(p)), executor)
+                    .thenAcceptAsync(p -> {
+                        // The output is written while the layout is applied
+                        Writer output = profiler.call(BuildProfiler.Phase.LAYOUT, timings, () -> renderer.applyLayout(p));
+                        profiler.run(BuildProfiler.Phase.WRITE, timings, () -> renderer.write(p, output));
+                        if (search.isEnabled())
+                            profiler.run(BuildProfiler.Phase.SEARCH, timings, () ->
+                                    search.add(relativeSource, outputs.url(p.getOutput()), p));
+                        profiler.run(BuildProfiler.Phase.RECORD, timings, () ->
+                                outputs.record(relativeSource, attrs, hash, p.getOutput(), renderer.inputs(relativeSource, p)));
+                        profiler.pageDone(timings);
+                    }, executor);
+        }
+
+        /**
+         * Check the manifest to know if a file must be processed
+         * @return Hash of the file if it must be processed, null otherwise
+         */
+        private String isUpToDate(Path file, BasicFileAttributes attrs, String relativeSource, boolean markdown) {
+            try {
+                BuildManifest.Entry previous = manifest.getEntry(relativeSource);
+                if (incremental && previous != null && outputs.exist(previous)) {
+                    String hash = changedHash(relativeSource, file, attrs);
+                    if (hash != null)
+                        return hash;
+                    if (!Collections.disjoint(previous.getOutputs(), affectedOutputs))
+                        return previous.getHash();
+                    skipped.incrementAndGet();
+                    if (!markdown)
+                        assets.skip(attrs.size());
+                    return null;
+                }
+                return hash(relativeSource, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Compare a file with its manifest entry. Files with the same size
+         * and modification time are not read.
+         * @return Hash of the file if it is new or changed, null otherwise
+         */
+        private String changedHash(String relativeSource, Path file, BasicFileAttributes attrs) throws IOException {
+            BuildManifest.Entry previous = manifest.getEntry(relativeSource);
+            if (previous == null)
+                return hash(relativeSource, file);
+            if (previous.hasSameAttributes(attrs))
+                return null;
+
+            String hash = hash(relativeSource, file);
+            if (!hash.equals(previous.getHash()))
+                return hash;
+
+            // Only the modification time changed
+            manifest.putEntry(relativeSource, new BuildManifest.Entry(attrs.size(),
+                    attrs.lastModifiedTime().toMillis(), hash, previous.getOutputs()));
+            return null;
+        }
+
+        /**
+         * Hash a file, unless it was hashed while fingerprinting the assets
+         */
+        private String hash(String relativeSource, Path file) throws IOException {
+            AssetFingerprints fingerprints = assets.getFingerprints();
+            String hash = fingerprints == null ? null : fingerprints.getHash(relativeSource);
+            return hash != null ? hash : BuildManifest.hash(file);
+        }
+
+        /**
+         * Check if a source was part of the paths to check
+         */
+        private boolean isInScope(String source) {
+            if (scope == null || scope.contains(source))
+                return true;
+            for (String relative : scope) {
+                if (source.startsWith(relative + "/"))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Delete outputs of the sources that disappeared since the last build
+         * @return Number of removed sources
+         */
+        private int removeDeletedSources() throws IOException {
+            int removed = 0;
+            for (String source : manifest.getSources()) {
+                // Outputs made from the index are removed once it is complete
+                if (visitedSources.contains(source) || !isInScope(source) || source.startsWith(IndexOutputs.SOURCE_PREFIX))
+                    continue;
+
+                BuildManifest.Entry entry = manifest.removeEntry(source);
+                reader.remove(source);
+                search.remove(source);
+                outputs.delete(entry);
+                removed++;
+            }
+            return removed;
+        }
+    }
+}
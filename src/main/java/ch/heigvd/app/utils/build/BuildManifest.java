@@ -0,0 +1,238 @@
+package ch.heigvd.app.utils.build;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Persisted record of the last build, stored in the build directory.
+ * It keeps, for every input file (sources, config.json and templates),
+ * its size, modification time, content hash and the outputs it owns,
+ * together with the dependency graph of the outputs and the
+ * {@link PageIndex index of the pages}.
+ */
+public class BuildManifest {
+    public static final String FILENAME = ".manifest.json";
+    private static final int VERSION = 5;
+    private static final Gson GSON = new Gson();
+
+    private final int version;
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private final DependencyGraph dependencies = new DependencyGraph();
+    private final PageIndex pages = new PageIndex();
+
+    /**
+     * Manifest constructor. Gson does not use it, so fields missing from
+     * an old manifest stay unset and the version check rejects it.
+     * @param version Version of the manifest format
+     */
+    private BuildManifest(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Create the manifest of a build starting from scratch
+     * @return Empty manifest
+     */
+    public static BuildManifest empty() {
+        return new BuildManifest(VERSION);
+    }
+
+    /**
+     * Load the manifest stored in a build directory
+     * @param buildPath Build directory
+     * @return The manifest, or null if there is none or it cannot be read
+     */
+    public static BuildManifest load(Path buildPath) {
+        Path manifestPath = buildPath.resolve(FILENAME);
+        if (!Files.exists(manifestPath))
+            return null;
+
+        try (Reader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+            BuildManifest manifest = GSON.fromJson(reader, BuildManifest.class);
+            if (manifest == null || manifest.version != VERSION)
+                return null;
+            manifest.dependencies.reindex();
+            return manifest;
+        } catch (IOException | JsonParseException e) {
+            System.err.println("Build manifest could not be read, doing a full build: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the manifest in a build directory. It replaces the previous
+     * one with a rename, so that a build updated in place is never left
+     * with a partial manifest.
+     * @param buildPath Build directory
+     * @throws IOException Error while writing the manifest
+     */
+    public void save(Path buildPath) throws IOException {
+        Files.createDirectories(buildPath);
+        Path temporary = buildPath.resolve(FILENAME + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            GSON.toJson(this, writer);
+        }
+        Files.move(temporary, buildPath.resolve(FILENAME), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Get the dependency graph of the outputs
+     * @return Dependency graph
+     */
+    public DependencyGraph getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * Get the index of the pages
+     * @return Page index
+     */
+    public PageIndex getPageIndex() {
+        return pages;
+    }
+
+    /**
+     * Get the entry of a source file
+     * @param source Source path relative to the site directory
+     * @return The entry or null if the source was never built
+     */
+    public Entry getEntry(String source) {
+        return entries.get(source);
+    }
+
+    /**
+     * Record the outputs of a source file
+     * @param source Source path relative to the site directory
+     * @param entry Entry of the source
+     */
+    public void putEntry(String source, Entry entry) {
+        entries.put(source, entry);
+    }
+
+    /**
+     * Forget a source file
+     * @param source Source path relative to the site directory
+     * @return The removed entry or null
+     */
+    public Entry removeEntry(String source) {
+        return entries.remove(source);
+    }
+
+    /**
+     * Get all recorded sources
+     * @return Copy of the recorded source paths
+     */
+    public Set<String> getSources() {
+        return Set.copyOf(entries.keySet());
+    }
+
+    /**
+     * Hash the content of a file
+     * @param file File to hash
+     * @return Hexadecimal SHA-256 of the content
+     * @throws IOException Error while reading the file
+     */
+    public static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hash a text
+     * @param text Text to hash
+     * @return Hexadecimal SHA-256 of the text in UTF-8
+     */
+    public static String hash(String text) {
+        return toHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * State of a source file at the time it was built
+     */
+    public static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+        private final List<String> outputs;
+
+        /**
+         * Entry constructor
+         * @param size Size of the source in bytes
+         * @param lastModified Modification time of the source in milliseconds
+         * @param hash Content hash of the source
+         * @param outputs Outputs produced, relative to the build directory
+         */
+        public Entry(long size, long lastModified, String hash, List<String> outputs) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.outputs = new ArrayList<>(outputs);
+        }
+
+        /**
+         * Get the content hash of the source
+         * @return Content hash
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * Get the outputs produced by the source
+         * @return Outputs relative to the build directory
+         */
+        public List<String> getOutputs() {
+            return new ArrayList<>(outputs);
+        }
+
+        /**
+         * Check if size and modification time still match the file
+         * @param attrs Current attributes of the source
+         * @return True if the source is very likely unchanged
+         */
+        public boolean hasSameAttributes(BasicFileAttributes attrs) {
+            return size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ch.heigvd.app.utils.build;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Outputs of a single build: records each output written in the manifest
+ * and the dependency graph, writes its compressed copy, and deletes the
+ * outputs that are not made anymore. Used by every stage of the build,
+ * from any worker thread.
+ */
+class BuildOutputs {
+    private final Path outputPath;
+    private final BuildManifest manifest;
+    private final DependencyGraph dependencies;
+    // Null when the outputs are not compressed
+    private final Precompressor precompressor;
+    private final Set<String> rendered = ConcurrentHashMap.newKeySet();
+    private final Set<String> compressed = ConcurrentHashMap.newKeySet();
+    private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * BuildOutputs constructor
+     * @param outputPath Generation the build is written in
+     * @param manifest Manifest of the build
+     * @param precompressor Compression settings, or null to disable the compression
+     */
+    BuildOutputs(Path outputPath, BuildManifest manifest, Precompressor precompressor) {
+        this.outputPath = outputPath;
+        this.manifest = manifest;
+        this.dependencies = manifest.getDependencies();
+        this.precompressor = precompressor;
+    }
+
+    /**
+     * Get the generation the build is written in
+     * @return Output directory
+     */
+    Path getPath() {
+        return outputPath;
+    }
+
+    /**
+     * Get the outputs written by the build, compressed copies excluded
+     * @return Paths relative to the output directory
+     */
+    Set<String> getRendered() {
+        return rendered;
+    }
+
+    /**
+     * Get the compressed copies written by the build
+     * @return Paths relative to the output directory
+     */
+    Set<String> getCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Get the outputs removed by the build
+     * @return Paths relative to the output directory
+     */
+    Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Get the path of an output, relative to the output directory
+     * @param output Output file
+     * @return Relative path, with forward slashes
+     */
+    String relativize(Path output) {
+        return FilenameUtils.separatorsToUnix(outputPath.relativize(output).toString());
+    }
+
+    /**
+     * Get the URL of an output, from the root of the site
+     * @param output Output file
+     * @return URL starting with a slash
+     */
+    String url(Path output) {
+        return "/" + relativize(output);
+    }
+
+    /**
+     * Record an output written from a source, with the inputs used to
+     * write it, and compress it. The outputs the source had before and
+     * does not have anymore are deleted.
+     * @param relativeSource Path of the source, relative to the site
+     * @param attrs Attributes of the source
+     * @param hash Hash of the source
+     * @param output Output file
+     * @param inputs Relative paths of the inputs used to write the output
+     */
+    void record(String relativeSource, BasicFileAttributes attrs, String hash, Path output, Set<String> inputs) {
+        String relativeOutput = relativize(output);
+        if (Precompressor.isCompressible(relativeOutput)) {
+            inputs = new HashSet<>(inputs);
+            inputs.add(BuildEngine.COMPRESSION_INPUT);
+        }
+        List<String> outputs = withCompressedCopy(output, relativeOutput);
+
+        // A fingerprinted asset that changed replaces its previous copy
+        BuildManifest.Entry previous = manifest.getEntry(relativeSource);
+        if (previous != null && !outputs.containsAll(previous.getOutputs())) {
+            List<String> stale = new ArrayList<>(previous.getOutputs());
+            stale.removeAll(outputs);
+            try {
+                delete(new BuildManifest.Entry(0, 0, previous.getHash(), stale));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        manifest.putEntry(relativeSource, new BuildManifest.Entry(attrs.size(),
+                attrs.lastModifiedTime().toMillis(), hash, outputs));
+        dependencies.record(relativeOutput, inputs);
+        rendered.add(relativeOutput);
+    }
+
+    /**
+     * Record an output made without a source file, and compress it
+     * @param source Virtual source of the output in the manifest
+     * @param signature Signature of what the output is made from
+     * @param output Output file
+     */
+    void recordGenerated(String source, String signature, Path output) {
+        String relativeOutput = relativize(output);
+        manifest.putEntry(source, new BuildManifest.Entry(0, 0, signature, withCompressedCopy(output, relativeOutput)));
+        rendered.add(relativeOutput);
+    }
+
+    /**
+     * Record an output written without being compressed nor recorded in
+     * the dependency graph
+     * @param relativeOutput Path of the output, relative to the output directory
+     */
+    void written(String relativeOutput) {
+        rendered.add(relativeOutput);
+    }
+
+    /**
+     * Compress an output if it can be
+     * @return Relative paths of the output and of its compressed copy
+     */
+    private List<String> withCompressedCopy(Path output, String relativeOutput) {
+        List<String> outputs = new ArrayList<>();
+        outputs.add(relativeOutput);
+        if (Precompressor.isCompressible(relativeOutput)) {
+            String copy = compress(output, relativeOutput);
+            if (copy != null)
+                outputs.add(copy);
+        }
+        return outputs;
+    }
+
+    /**
+     * Write the compressed copy of an output, or remove the one of a
+     * previous build if the output must not be compressed anymore
+     * @return Relative path of the compressed copy, null if there is none
+     */
+    private String compress(Path output, String relativeOutput) {
+        String relativeCompressed = relativeOutput + Precompressor.GZIP_EXTENSION;
+        try {
+            if (precompressor != null && precompressor.compress(output) != null) {
+                compressed.add(relativeCompressed);
+                return relativeCompressed;
+            }
+            if (Files.deleteIfExists(outputPath.resolve(relativeCompressed)))
+                removed.add(relativeCompressed);
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Check if all outputs of a manifest entry are still in the output directory
+     * @param entry Manifest entry
+     * @return True if none of its outputs is missing
+     */
+    boolean exist(BuildManifest.Entry entry) {
+        for (String output : entry.getOutputs()) {
+            if (!Files.exists(outputPath.resolve(output)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Delete the outputs of a removed manifest entry, and the directories
+     * they leave empty
+     * @param entry Manifest entry
+     * @throws IOException Error while deleting an output
+     */
+    void delete(BuildManifest.Entry entry) throws IOException {
+        for (String output : entry.getOutputs()) {
+            dependencies.remove(output);
+            removed.add(output);
+            Path outputFile = outputPath.resolve(output);
+            Files.deleteIfExists(outputFile);
+            System.out.println("File " + outputFile + " successfully deleted");
+
+            // Remove directories left empty
+            Path parent = outputFile.getParent();
+            while (parent != null && !parent.equals(outputPath) && isEmptyDirectory(parent)) {
+                Files.delete(parent);
+                parent = parent.getParent();
+            }
+        }
+    }
+
+    private static boolean isEmptyDirectory(Path dir) throws IOException {
+        if (!Files.isDirectory(dir))
+            return false;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            return !stream.iterator().hasNext();
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package ch.heigvd.app.utils.build;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Measures where the time of a build goes. Every stage of the pipeline
+ * is timed on the thread running it: wall time, CPU time and allocated
+ * bytes, as given by the {@link ThreadMXBean}, and the time the stage
+ * waited in the queue of the worker pool since the previous stage of the
+ * same file ended. The times of the stages of each page are kept to
+ * report the slowest pages.
+ *
+ * Stages run in parallel, so the wall times of the phases add up to more
+ * than the wall time of the build.
+ */
+class BuildProfiler {
+    static final String FILENAME = "build-profile.json";
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    /**
+     * Phases of a build, in the order they happen
+     */
+    enum Phase {
+        CONFIG, SEED, FINGERPRINT, DISCOVER, CHECK, READ, MARKDOWN, LAYOUT, WRITE, SEARCH, ASSET, RECORD, REMOVE, GENERATE, MANIFEST, PUBLISH;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Timings of a file going through the pipeline
+     */
+    static class Task {
+        private final String source;
+        private final long[] wallNanos = new long[Phase.values().length];
+        private long cpuNanos;
+        private long readyAt = System.nanoTime();
+
+        private Task(String source) {
+            this.source = source;
+        }
+
+        private long totalWallNanos() {
+            return Arrays.stream(wallNanos).sum();
+        }
+    }
+
+    /**
+     * Totals of a phase over all files
+     */
+    private static class PhaseStats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+        final LongAdder queueNanos = new LongAdder();
+        final AtomicLong maxQueueNanos = new AtomicLong();
+    }
+
+    /**
+     * Functional interface for the steps run by the calling thread
+     */
+    interface Step<T> {
+        T run() throws IOException;
+    }
+
+    private static final BuildProfiler DISABLED = new BuildProfiler(false, 0, 0);
+
+    private final boolean enabled;
+    private final int threads;
+    private final int slowestPages;
+    private final long start = System.nanoTime();
+    private final ThreadMXBean threadBean;
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private final Map<Phase, PhaseStats> phases = new EnumMap<>(Phase.class);
+    private final LongAdder submitWaitNanos = new LongAdder();
+    private final LongAdder files = new LongAdder();
+    // Slowest pages, fastest first
+    private final PriorityQueue<Task> slowest = new PriorityQueue<>(Comparator.comparingLong(Task::totalWallNanos));
+
+    private BuildProfiler(boolean enabled, int threads, int slowestPages) {
+        this.enabled = enabled;
+        this.threads = threads;
+        this.slowestPages = slowestPages;
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new PhaseStats());
+        }
+
+        ThreadMXBean bean = enabled ? ManagementFactory.getThreadMXBean() : null;
+        if (bean != null && bean.isThreadCpuTimeSupported()) {
+            bean.setThreadCpuTimeEnabled(true);
+            threadBean = bean;
+        } else {
+            threadBean = null;
+        }
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            allocationBean = (com.sun.management.ThreadMXBean) bean;
+            allocationBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            allocationBean = null;
+        }
+    }
+
+    /**
+     * Get a profiler recording a build
+     * @param threads Number of worker threads of the build
+     * @param slowestPages Number of slowest pages to report
+     * @return Profiler, started now
+     */
+    static BuildProfiler start(int threads, int slowestPages) {
+        return new BuildProfiler(true, threads, slowestPages);
+    }
+
+    /**
+     * Get a profiler recording nothing
+     * @return Disabled profiler
+     */
+    static BuildProfiler disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Check if the build is profiled
+     * @return True if the profiler records
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start following a file submitted to the pipeline
+     * @param source Relative path of the file
+     * @return Timings of the file, or null if the profiler is disabled
+     */
+    Task task(String source) {
+        if (!enabled)
+            return null;
+        files.increment();
+        return new Task(source);
+    }
+
+    /**
+     * Record the time the calling thread waited for a free slot in the
+     * pipeline
+     * @param nanos Waiting time
+     */
+    void submitWait(long nanos) {
+        if (enabled)
+            submitWaitNanos.add(nanos);
+    }
+
+    /**
+     * Run a stage of the pipeline for a file
+     * @param phase Phase of the stage
+     * @param task Timings of the file
+     * @param stage Stage to run
+     * @return Result of the stage
+     */
+    <T> T call(Phase phase, Task task, Supplier<T> stage) {
+        if (!enabled)
+            return stage.get();
+
+        long startCpu = cpuTime();
+        long startAllocated = allocatedBytes();
+        long startWall = System.nanoTime();
+        try {
+            return stage.get();
+        } finally {
+            long end = System.nanoTime();
+            long wall = end - startWall;
+            long cpu = cpuTime() - startCpu;
+            PhaseStats stats = phases.get(phase);
+            stats.calls.increment();
+            stats.wallNanos.add(wall);
+            stats.cpuNanos.add(cpu);
+            stats.allocatedBytes.add(allocatedBytes() - startAllocated);
+            if (task != null) {
+                long queued = startWall - task.readyAt;
+                stats.queueNanos.add(queued);
+                stats.maxQueueNanos.accumulateAndGet(queued, Math::max);
+                task.wallNanos[phase.ordinal()] += wall;
+                task.cpuNanos += cpu;
+                task.readyAt = end;
+            }
+        }
+    }
+
+    /**
+     * Run a stage of the pipeline giving no result
+     * @param phase Phase of the stage
+     * @param task Timings of the file
+     * @param stage Stage to run
+     */
+    void run(Phase phase, Task task, Runnable stage) {
+        call(phase, task, () -> {
+            stage.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run a step of the build on the calling thread
+     * @param phase Phase of the step
+     * @param step Step to run
+     * @return Result of the step
+     * @throws IOException Error thrown by the step
+     */
+    <T> T measure(Phase phase, Step<T> step) throws IOException {
+        if (!enabled)
+            return step.run();
+
+        IOException[] error = new IOException[1];
+        T result = call(phase, null, () -> {
+            try {
+                return step.run();
+            } catch (IOException e) {
+                error[0] = e;
+                return null;
+            }
+        });
+        if (error[0] != null)
+            throw error[0];
+        return result;
+    }
+
+    /**
+     * Keep the timings of a rendered page if it is one of the slowest
+     * @param task Timings of the page
+     */
+    void pageDone(Task task) {
+        if (task == null || slowestPages <= 0)
+            return;
+        synchronized (slowest) {
+            slowest.add(task);
+            if (slowest.size() > slowestPages)
+                slowest.poll();
+        }
+    }
+
+    /**
+     * Write the report as JSON
+     * @param file File to write
+     * @throws IOException Error while writing
+     */
+    void write(Path file) throws IOException {
+        Files.writeString(file, GSON.toJson(report()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the report as JSON values
+     */
+    private Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("threads", threads);
+        report.put("files", files.sum());
+        report.put("wallMillis", millis(System.nanoTime() - start));
+        report.put("cpuTimeMeasured", threadBean != null);
+        report.put("allocationMeasured", allocationBean != null);
+        report.put("submitWaitMillis", millis(submitWaitNanos.sum()));
+
+        Map<String, Object> phaseReports = new LinkedHashMap<>();
+        for (Map.Entry<Phase, PhaseStats> entry : phases.entrySet()) {
+            PhaseStats stats = entry.getValue();
+            if (stats.calls.sum() == 0)
+                continue;
+            Map<String, Object> phase = new LinkedHashMap<>();
+            phase.put("calls", stats.calls.sum());
+            phase.put("wallMillis", millis(stats.wallNanos.sum()));
+            phase.put("cpuMillis", millis(stats.cpuNanos.sum()));
+            phase.put("allocatedBytes", stats.allocatedBytes.sum());
+            phase.put("queueWaitMillis", millis(stats.queueNanos.sum()));
+            phase.put("maxQueueWaitMillis", millis(stats.maxQueueNanos.get()));
+            phaseReports.put(entry.getKey().label(), phase);
+        }
+        report.put("phases", phaseReports);
+
+        List<Map<String, Object>> pages = new ArrayList<>();
+        for (Task task : slowestFirst()) {
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("source", task.source);
+            page.put("wallMillis", millis(task.totalWallNanos()));
+            page.put("cpuMillis", millis(task.cpuNanos));
+            page.put("phases", pagePhases(task));
+            pages.add(page);
+        }
+        report.put("slowestPages", pages);
+        return report;
+    }
+
+    /**
+     * Get a human readable summary of the report
+     * @param reportFile File the JSON report was written to
+     * @return Summary, on several lines
+     */
+    String summary(Path reportFile) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Build profile: %d file(s) in %.1f ms on %d thread(s)%n",
+                files.sum(), millis(System.nanoTime() - start), threads));
+        sb.append(String.format(Locale.ROOT, "%-10s %8s %12s %12s %12s %12s %12s%n",
+                "phase", "calls", "wall ms", "cpu ms", "alloc MB", "queue ms", "max queue"));
+        for (Map.Entry<Phase, PhaseStats> entry : phases.entrySet()) {
+            PhaseStats stats = entry.getValue();
+            if (stats.calls.sum() == 0)
+                continue;
+            sb.append(String.format(Locale.ROOT, "%-10s %8d %12.1f %12.1f %12.1f %12.1f %12.1f%n",
+                    entry.getKey().label(), stats.calls.sum(), millis(stats.wallNanos.sum()),
+                    millis(stats.cpuNanos.sum()), stats.allocatedBytes.sum() / (1024.0 * 1024.0),
+                    millis(stats.queueNanos.sum()), millis(stats.maxQueueNanos.get())));
+        }
+        if (threadBean == null || allocationBean == null)
+            sb.append("CPU time or allocations are not measured by this JVM").append(System.lineSeparator());
+        sb.append(String.format(Locale.ROOT, "Discovery waited %.1f ms for the pipeline%n", millis(submitWaitNanos.sum())));
+
+        List<Task> pages = slowestFirst();
+        if (!pages.isEmpty()) {
+            sb.append("Slowest pages:").append(System.lineSeparator());
+            for (Task task : pages) {
+                StringJoiner details = new StringJoiner(", ", " (", ")");
+                pagePhases(task).forEach((phase, time) ->
+                        details.add(String.format(Locale.ROOT, "%s %.1f", phase, time)));
+                sb.append(String.format(Locale.ROOT, "%10.1f ms  %s%s%n",
+                        millis(task.totalWallNanos()), task.source, details));
+            }
+        }
+        sb.append("Profile written to ").append(reportFile);
+        return sb.toString();
+    }
+
+    private List<Task> slowestFirst() {
+        List<Task> pages;
+        synchronized (slowest) {
+            pages = new ArrayList<>(slowest);
+        }
+        pages.sort(Comparator.comparingLong(Task::totalWallNanos).reversed());
+        return pages;
+    }
+
+    private static Map<String, Double> pagePhases(Task task) {
+        Map<String, Double> times = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            long nanos = task.wallNanos[phase.ordinal()];
+            if (nanos > 0)
+                times.put(phase.label(), millis(nanos));
+        }
+        return times;
+    }
+
+    private long cpuTime() {
+        return threadBean == null ? 0 : threadBean.getCurrentThreadCpuTime();
+    }
+
+    private long allocatedBytes() {
+        return allocationBean == null ? 0 : allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
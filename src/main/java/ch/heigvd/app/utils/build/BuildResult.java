@@ -0,0 +1,58 @@
+package ch.heigvd.app.utils.build;
+
+import java.util.Set;
+
+/**
+ * Outputs touched by a build, as paths relative to the build directory
+ */
+public class BuildResult {
+    private final Set<String> writtenOutputs;
+    private final Set<String> removedOutputs;
+    private final boolean full;
+
+    /**
+     * BuildResult constructor
+     * @param writtenOutputs Outputs written or copied by the build
+     * @param removedOutputs Outputs deleted by the build
+     * @param full True if the build directory was recreated from scratch
+     */
+    BuildResult(Set<String> writtenOutputs, Set<String> removedOutputs, boolean full) {
+        this.writtenOutputs = Set.copyOf(writtenOutputs);
+        this.removedOutputs = Set.copyOf(removedOutputs);
+        this.full = full;
+    }
+
+    /**
+     * Get the outputs written or copied by the build
+     * @return Relative paths of the outputs
+     */
+    public Set<String> getWrittenOutputs() {
+        return writtenOutputs;
+    }
+
+    /**
+     * Get the outputs deleted by the build
+     * @return Relative paths of the outputs
+     */
+    public Set<String> getRemovedOutputs() {
+        return removedOutputs;
+    }
+
+    /**
+     * Check if the whole build directory was recreated, in which case
+     * any output may have changed
+     * @return True for a full build
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Check if an output was written or removed
+     * @param output Path relative to the build directory
+     * @return True if the output changed
+     */
+    public boolean hasChanged(String output) {
+        return full || writtenOutputs.contains(output) || removedOutputs.contains(output);
+    }
+}
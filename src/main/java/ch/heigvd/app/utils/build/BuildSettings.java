@@ -0,0 +1,207 @@
+package ch.heigvd.app.utils.build;
+
+/**
+ * Settings of a single build, given to {@link BuildEngine} with each call
+ * so that an engine kept between commands never carries the settings of
+ * one command over to the next. Settings are immutable: the with methods
+ * return a modified copy.
+ */
+public class BuildSettings {
+    public static final int DEFAULT_KEPT_GENERATIONS = 3;
+    public static final int DEFAULT_SLOWEST_PAGES = 10;
+
+    private final Precompressor precompressor;
+    private final int keptGenerations;
+    private final boolean linkAssets;
+    private final boolean fingerprintAssets;
+    private final boolean profiling;
+    private final int slowestPages;
+    private final long memoryBudget;
+    private final boolean rebuildGenerations;
+
+    /**
+     * BuildSettings constructor
+     * @param precompressor Compression settings, or null to disable the compression
+     * @param keptGenerations Number of builds kept on disk to roll back to, published one included
+     * @param linkAssets True to hard-link assets to their source when possible, which breaks
+     *                   rollbacks, false to copy them
+     * @param fingerprintAssets True to name stylesheets, scripts, images and fonts after their content
+     * @param profiling True to record the time spent in each phase of the build
+     * @param slowestPages Number of slowest pages listed by the profile
+     * @param memoryBudget Memory the pages being built may use together, in bytes
+     * @param rebuildGenerations True to write the rebuilds of some changed paths in a new generation too,
+     *                           false to update the published one in place
+     */
+    public BuildSettings(Precompressor precompressor, int keptGenerations, boolean linkAssets,
+                         boolean fingerprintAssets, boolean profiling, int slowestPages, long memoryBudget,
+                         boolean rebuildGenerations) {
+        if (keptGenerations < 1)
+            throw new IllegalArgumentException("At least one generation must be kept!");
+        if (slowestPages < 0)
+            throw new IllegalArgumentException("The number of slowest pages cannot be negative!");
+        if (memoryBudget < 1)
+            throw new IllegalArgumentException("The memory budget must be positive!");
+        this.precompressor = precompressor;
+        this.keptGenerations = keptGenerations;
+        this.linkAssets = linkAssets;
+        this.fingerprintAssets = fingerprintAssets;
+        this.profiling = profiling;
+        this.slowestPages = slowestPages;
+        this.memoryBudget = memoryBudget;
+        this.rebuildGenerations = rebuildGenerations;
+    }
+
+    /**
+     * Get the default settings
+     * @return Settings copying the assets, without compression,
+     *         fingerprints nor profiling, keeping
+     *         {@value #DEFAULT_KEPT_GENERATIONS} generations
+     */
+    public static BuildSettings defaults() {
+        return new BuildSettings(null, DEFAULT_KEPT_GENERATIONS, false, false, false, DEFAULT_SLOWEST_PAGES,
+                defaultMemoryBudget(), false);
+    }
+
+    /**
+     * Get the memory budget used when none is given
+     * @return A quarter of the maximum heap, in bytes
+     */
+    public static long defaultMemoryBudget() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Get a copy with other compression settings
+     * @param precompressor Compression settings, or null to disable the compression
+     * @return Modified copy
+     */
+    public BuildSettings withPrecompressor(Precompressor precompressor) {
+        return new BuildSettings(precompressor, keptGenerations, linkAssets, fingerprintAssets, profiling,
+                slowestPages, memoryBudget, rebuildGenerations);
+    }
+
+    /**
+     * Get a copy keeping another number of generations
+     * @param keptGenerations Number of builds kept on disk, published one included
+     * @return Modified copy
+     */
+    public BuildSettings withKeptGenerations(int keptGenerations) {
+        return new BuildSettings(precompressor, keptGenerations, linkAssets, fingerprintAssets, profiling,
+                slowestPages, memoryBudget, rebuildGenerations);
+    }
+
+    /**
+     * Get a copy linking or copying the assets
+     * @param linkAssets True to hard-link assets to their source when possible
+     * @return Modified copy
+     */
+    public BuildSettings withLinkAssets(boolean linkAssets) {
+        return new BuildSettings(precompressor, keptGenerations, linkAssets, fingerprintAssets, profiling,
+                slowestPages, memoryBudget, rebuildGenerations);
+    }
+
+    /**
+     * Get a copy fingerprinting the assets or not
+     * @param fingerprintAssets True to name the assets after their content
+     * @return Modified copy
+     */
+    public BuildSettings withFingerprintAssets(boolean fingerprintAssets) {
+        return new BuildSettings(precompressor, keptGenerations, linkAssets, fingerprintAssets, profiling,
+                slowestPages, memoryBudget, rebuildGenerations);
+    }
+
+    /**
+     * Get a copy with profiling enabled or not
+     * @param profiling True to record the time spent in each phase of the build
+     * @param slowestPages Number of slowest pages listed by the profile
+     * @return Modified copy
+     */
+    public BuildSettings withProfiling(boolean profiling, int slowestPages) {
+        return new BuildSettings(precompressor, keptGenerations, linkAssets, fingerprintAssets, profiling,
+                slowestPages, memoryBudget, rebuildGenerations);
+    }
+
+    /**
+     * Get a copy with another memory budget
+     * @param memoryBudget Memory the pages being built may use together, in bytes
+     * @return Modified copy
+     */
+    public BuildSettings withMemoryBudget(long memoryBudget) {
+        return new BuildSettings(precompressor, keptGenerations, linkAssets, fingerprintAssets, profiling,
+                slowestPages, memoryBudget, rebuildGenerations);
+    }
+
+    /**
+     * Get a copy writing the rebuilds in a new generation or in place
+     * @param rebuildGenerations True to write the rebuilds in a new generation
+     * @return Modified copy
+     */
+    public BuildSettings withRebuildGenerations(boolean rebuildGenerations) {
+        return new BuildSettings(precompressor, keptGenerations, linkAssets, fingerprintAssets, profiling,
+                slowestPages, memoryBudget, rebuildGenerations);
+    }
+
+    /**
+     * Get the compression settings
+     * @return Compression settings, or null if the outputs are not compressed
+     */
+    public Precompressor getPrecompressor() {
+        return precompressor;
+    }
+
+    /**
+     * Get the number of generations kept
+     * @return Number of builds kept on disk, published one included
+     */
+    public int getKeptGenerations() {
+        return keptGenerations;
+    }
+
+    /**
+     * Check if the assets are linked to their source
+     * @return True if they are hard-linked when possible, false if they are copied
+     */
+    public boolean isLinkAssets() {
+        return linkAssets;
+    }
+
+    /**
+     * Check if the assets are fingerprinted
+     * @return True if they are named after their content
+     */
+    public boolean isFingerprintAssets() {
+        return fingerprintAssets;
+    }
+
+    /**
+     * Check if the build is profiled
+     * @return True if the time spent in each phase is recorded
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Get the number of slowest pages listed by the profile
+     * @return Number of pages
+     */
+    public int getSlowestPages() {
+        return slowestPages;
+    }
+
+    /**
+     * Get the memory budget of the pages being built
+     * @return Memory in bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Check if the rebuilds are written in a new generation
+     * @return True for a new generation, false to update the published one in place
+     */
+    public boolean isRebuildGenerations() {
+        return rebuildGenerations;
+    }
+}
@@ -0,0 +1,197 @@
+package ch.heigvd.app.utils.build;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes UTF-8 text to a file channel. Each thread has its own writer,
+ * whose encoder and buffers are reused for every file it writes, so
+ * writing a page allocates nothing whatever its size.
+ *
+ * Some writers, like the markdown renderer, ignore the errors of the
+ * output they append to: once writing failed, every following call and
+ * {@link #close()} throw the same error.
+ */
+class ChannelWriter extends Writer {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final ThreadLocal<ChannelWriter> WRITERS = ThreadLocal.withInitial(ChannelWriter::new);
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE * 3);
+    private FileChannel channel;
+    private IOException error;
+
+    private ChannelWriter() {
+    }
+
+    /**
+     * Create a file and get the writer of the current thread writing to it
+     * @param file File to create, replaced if it exists
+     * @return Writer, to close once the file is written
+     * @throws IOException Error while creating the file
+     */
+    static ChannelWriter open(Path file) throws IOException {
+        ChannelWriter writer = WRITERS.get();
+        if (writer.channel != null) {
+            // Left open by a page that failed
+            try {
+                writer.channel.close();
+            } catch (IOException e) {
+                // Nothing more to do with it
+            }
+        }
+        writer.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        writer.encoder.reset();
+        writer.chars.clear();
+        writer.bytes.clear();
+        writer.error = null;
+        return writer;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        if (!chars.hasRemaining())
+            encode(false);
+        chars.put((char) c);
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            if (!chars.hasRemaining())
+                encode(false);
+            int count = Math.min(length, chars.remaining());
+            chars.put(buffer, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            if (!chars.hasRemaining())
+                encode(false);
+            int count = Math.min(length, chars.remaining());
+            chars.put(str, offset, offset + count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        if (csq == null)
+            return append("null", 0, 4);
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null)
+            return append("null", start, end);
+        // Copied without the string of the sequence
+        if (csq instanceof String) {
+            write((String) csq, start, end - start);
+            return this;
+        }
+        ensureOpen();
+        for (int i = start; i < end; i++) {
+            if (!chars.hasRemaining())
+                encode(false);
+            chars.put(csq.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        encode(false);
+        drain();
+    }
+
+    /**
+     * Write what is left and close the file. The writer can then be
+     * opened again.
+     * @throws IOException Error while writing, now or before
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null)
+            return;
+        try {
+            if (error == null) {
+                encode(true);
+                while (encoder.flush(bytes).isOverflow()) {
+                    drain();
+                }
+                drain();
+            }
+        } finally {
+            FileChannel closed = channel;
+            channel = null;
+            closed.close();
+        }
+        if (error != null)
+            throw error;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel == null)
+            throw new IOException("The writer is closed");
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Encode the buffered characters, keeping a surrogate cut in two for
+     * the next call
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        try {
+            while (true) {
+                CoderResult result = encoder.encode(chars, bytes, endOfInput);
+                if (result.isOverflow())
+                    drain();
+                else if (result.isUnderflow())
+                    break;
+                else
+                    result.throwException();
+            }
+        } catch (IOException e) {
+            error = e;
+            throw e;
+        } finally {
+            chars.compact();
+        }
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException e) {
+            error = e;
+            throw e;
+        } finally {
+            bytes.clear();
+        }
+    }
+}
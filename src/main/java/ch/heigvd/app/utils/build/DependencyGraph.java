@@ -0,0 +1,96 @@
+package ch.heigvd.app.utils.build;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Records which inputs were used to produce each output of a build, and
+ * keeps the reverse index to find the outputs affected by a change.
+ * Inputs and outputs are paths relative to the site and build
+ * directories. {@link #METADATA} is a virtual input standing for the
+ * metadata of every page, used by listing pages.
+ */
+public class DependencyGraph {
+    public static final String METADATA = "@metadata";
+
+    private final TreeMap<String, TreeSet<String>> inputsByOutput = new TreeMap<>();
+    private transient Map<String, Set<String>> outputsByInput = new HashMap<>();
+
+    /**
+     * DependencyGraph constructor, also used when the graph is read back
+     * from the manifest
+     */
+    public DependencyGraph() {
+    }
+
+    /**
+     * Replace the inputs of an output
+     * @param output Output path
+     * @param inputs Every input used to produce the output
+     */
+    public synchronized void record(String output, Collection<String> inputs) {
+        remove(output);
+        inputsByOutput.put(output, new TreeSet<>(inputs));
+        for (String input : inputs) {
+            outputsByInput.computeIfAbsent(input, k -> new HashSet<>()).add(output);
+        }
+    }
+
+    /**
+     * Forget an output
+     * @param output Output path
+     */
+    public synchronized void remove(String output) {
+        Set<String> inputs = inputsByOutput.remove(output);
+        if (inputs == null)
+            return;
+        for (String input : inputs) {
+            Set<String> outputs = outputsByInput.get(input);
+            if (outputs != null) {
+                outputs.remove(output);
+                if (outputs.isEmpty())
+                    outputsByInput.remove(input);
+            }
+        }
+    }
+
+    /**
+     * Get the outputs produced from any of the given inputs
+     * @param changedInputs Inputs that changed
+     * @return Affected outputs
+     */
+    public synchronized Set<String> affectedOutputs(Collection<String> changedInputs) {
+        Set<String> affected = new HashSet<>();
+        for (String input : changedInputs) {
+            affected.addAll(outputsByInput.getOrDefault(input, Set.of()));
+        }
+        return affected;
+    }
+
+    /**
+     * Get the inputs of an output
+     * @param output Output path
+     * @return Inputs recorded for the output, empty if unknown
+     */
+    public synchronized Set<String> inputsOf(String output) {
+        Set<String> inputs = inputsByOutput.get(output);
+        return inputs == null ? Set.of() : Set.copyOf(inputs);
+    }
+
+    /**
+     * Rebuild the reverse index, needed after the graph is deserialized
+     */
+    synchronized void reindex() {
+        outputsByInput = new HashMap<>();
+        for (Map.Entry<String, TreeSet<String>> entry : inputsByOutput.entrySet()) {
+            for (String input : entry.getValue()) {
+                outputsByInput.computeIfAbsent(input, k -> new HashSet<>()).add(entry.getKey());
+            }
+        }
+    }
+}
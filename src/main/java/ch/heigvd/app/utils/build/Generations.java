@@ -0,0 +1,243 @@
+package ch.heigvd.app.utils.build;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Successive builds of a site. Each build is written in a new generation
+ * directory, and the build directory is a symbolic link to the last
+ * complete one: publishing a generation replaces the link with a rename,
+ * which is atomic, so readers of the build directory never see a partial
+ * build. A generation starts as a copy of the previous one made of hard
+ * links, so files that did not change are neither copied nor duplicated
+ * on disk. Writers must therefore replace files, never modify them in
+ * place, see {@link #replaceable(Path)}.
+ *
+ * If the file system does not support symbolic links, the build directory
+ * is a plain directory, replaced by the new generation with two renames.
+ */
+public class Generations {
+    public static final String DIRECTORY_NAME = ".build-generations";
+    private static final String PREFIX = "gen-";
+    private static final String REPLACED_SUFFIX = "-replaced";
+    private static final Pattern NAME = Pattern.compile(PREFIX + "(\\d+)(" + REPLACED_SUFFIX + ")?");
+
+    private final Path buildPath;
+    private final Path generationsPath;
+
+    /**
+     * Generations constructor
+     * @param buildPath Build directory, as read by the users of the build
+     */
+    public Generations(Path buildPath) {
+        this.buildPath = buildPath;
+        this.generationsPath = buildPath.resolveSibling(DIRECTORY_NAME);
+    }
+
+    /**
+     * Get the directory containing the generations
+     * @return Generations directory
+     */
+    public Path getGenerationsPath() {
+        return generationsPath;
+    }
+
+    /**
+     * Create the directory of a new generation
+     * @param seed True to start from the files of the published generation
+     * @return Directory of the new generation
+     * @throws IOException Error while creating or copying the generation
+     */
+    public Path create(boolean seed) throws IOException {
+        Files.createDirectories(generationsPath);
+        int next = 1;
+        for (Path generation : list()) {
+            next = Math.max(next, number(generation) + 1);
+        }
+        Path generation = Files.createDirectory(generationsPath.resolve(PREFIX + next));
+        if (seed && Files.isDirectory(buildPath))
+            link(buildPath.toRealPath(), generation);
+        return generation;
+    }
+
+    /**
+     * Prepare a file of a generation to be written. A file seeded from the
+     * previous generation is a hard link sharing its content with that
+     * generation, and with all the older ones it came from: writing it in
+     * place would change them too. Every writer of a generation must
+     * therefore go through this method, which removes the link so that
+     * the file is written as a new one.
+     * @param file File about to be written
+     * @return The same file, which does not exist anymore
+     * @throws IOException Error while removing the file
+     */
+    public static Path replaceable(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        return file;
+    }
+
+    /**
+     * Make a generation the build directory
+     * @param generation Complete generation
+     * @throws IOException Error while replacing the build directory
+     */
+    public void publish(Path generation) throws IOException {
+        // The new link is created next to the generations, so that its
+        // creation is not seen by a watcher of the site
+        Path link = generationsPath.resolve(generation.getFileName() + ".link");
+        Files.deleteIfExists(link);
+        boolean linked;
+        try {
+            Files.createSymbolicLink(link, buildPath.getParent().relativize(generation));
+            linked = true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            linked = false;
+        }
+
+        // A plain build directory, from an older version or a file system
+        // without links, is kept as a generation
+        if (Files.isDirectory(buildPath, LinkOption.NOFOLLOW_LINKS))
+            Files.move(buildPath, generationsPath.resolve(generation.getFileName() + REPLACED_SUFFIX),
+                    StandardCopyOption.ATOMIC_MOVE);
+
+        if (linked) {
+            Files.move(link, buildPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(buildPath);
+            Files.move(generation, buildPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Delete a generation that will not be published
+     * @param generation Directory of the generation
+     * @throws IOException Error while deleting it
+     */
+    public void discard(Path generation) throws IOException {
+        FileUtils.deleteDirectory(generation.toFile());
+    }
+
+    /**
+     * Delete the oldest generations, and the ones left incomplete by an
+     * interrupted build
+     * @param keep Number of complete generations to keep, published one included
+     * @throws IOException Error while deleting a generation
+     */
+    public void prune(int keep) throws IOException {
+        Path published = published();
+        int kept = Files.isDirectory(buildPath) ? 1 : 0;
+        List<Path> generations = list();
+        for (int i = generations.size() - 1; i >= 0; i--) {
+            Path generation = generations.get(i);
+            if (generation.equals(published))
+                continue;
+            if (kept < keep && isComplete(generation))
+                kept++;
+            else
+                discard(generation);
+        }
+    }
+
+    /**
+     * Publish the generation preceding the published one
+     * @return Published generation, or null if there is none to go back to
+     * @throws IOException Error while replacing the build directory
+     */
+    public Path rollback() throws IOException {
+        Path published = published();
+        if (published == null)
+            return null;
+
+        List<Path> generations = list();
+        for (int i = generations.indexOf(published) - 1; i >= 0; i--) {
+            Path generation = generations.get(i);
+            if (isComplete(generation)) {
+                publish(generation);
+                return generation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the generation the build directory links to
+     * @return Published generation, or null if the build directory is not a link
+     */
+    private Path published() throws IOException {
+        if (!Files.isSymbolicLink(buildPath) || !Files.isDirectory(buildPath))
+            return null;
+        Path target = buildPath.toRealPath();
+        for (Path generation : list()) {
+            if (generation.toRealPath().equals(target))
+                return generation;
+        }
+        return null;
+    }
+
+    /**
+     * Get the generations, oldest first
+     */
+    private List<Path> list() throws IOException {
+        List<Path> generations = new ArrayList<>();
+        if (!Files.isDirectory(generationsPath))
+            return generations;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(generationsPath)) {
+            for (Path path : stream) {
+                if (NAME.matcher(path.getFileName().toString()).matches()
+                        && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+                    generations.add(path);
+            }
+        }
+        generations.sort(Comparator.comparingInt(Generations::number)
+                .thenComparing(path -> path.getFileName().toString().endsWith(REPLACED_SUFFIX) ? 0 : 1));
+        return generations;
+    }
+
+    /**
+     * A generation is complete once its manifest is written
+     */
+    private static boolean isComplete(Path generation) {
+        return Files.exists(generation.resolve(BuildManifest.FILENAME));
+    }
+
+    private static int number(Path generation) {
+        Matcher matcher = NAME.matcher(generation.getFileName().toString());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+
+    /**
+     * Fill a generation with hard links to the files of another one. The
+     * manifest is left out, as it is always written again.
+     */
+    private static void link(Path from, Path to) throws IOException {
+        Files.walkFileTree(from, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(to.resolve(from.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (file.getParent().equals(from) && file.getFileName().toString().equals(BuildManifest.FILENAME))
+                    return FileVisitResult.CONTINUE;
+                Path target = to.resolve(from.relativize(file));
+                try {
+                    Files.createLink(target, file);
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    // Different file system or no hard links
+                    Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
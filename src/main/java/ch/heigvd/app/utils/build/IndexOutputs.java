@@ -0,0 +1,319 @@
+package ch.heigvd.app.utils.build;
+
+import ch.heigvd.app.utils.parsers.SiteConfig;
+import com.github.jknack.handlebars.Template;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Outputs made from the {@link PageIndex} instead of a source file: the
+ * sitemap and the RSS feed, made when config.json gives the URL of the
+ * site, and the paginated pages of each tag and of each year, made when
+ * the site has a {@value #TAG_LAYOUT} or an {@value #ARCHIVE_LAYOUT}
+ * template. No page is read to make them.
+ *
+ * Each output has a signature of everything it shows, so that a build
+ * only writes the outputs whose signature changed.
+ */
+class IndexOutputs {
+    static final String SOURCE_PREFIX = "@index/";
+    static final String SITEMAP = "sitemap.xml";
+    static final String FEED = "feed.xml";
+    static final String TAG_LAYOUT = "tag";
+    static final String ARCHIVE_LAYOUT = "archive";
+    private static final String TAGS_DIRECTORY = "tags";
+    private static final String ARCHIVE_DIRECTORY = "archive";
+    private static final Pattern YEAR = Pattern.compile("(\\d{4})(-.*)?");
+    private static final Pattern NOT_SLUG = Pattern.compile("[^a-z0-9]+");
+
+    /**
+     * Writes the content of an output
+     */
+    interface Content {
+        void writeTo(Writer output) throws IOException;
+    }
+
+    /**
+     * Output to write if its signature changed
+     */
+    static class Output {
+        private final String path;
+        private final String signature;
+        private final Content content;
+
+        Output(String path, String signature, Content content) {
+            this.path = path;
+            this.signature = signature;
+            this.content = content;
+        }
+
+        /**
+         * Get the path of the output
+         * @return Path relative to the build directory
+         */
+        String getPath() {
+            return path;
+        }
+
+        String getSignature() {
+            return signature;
+        }
+
+        Content getContent() {
+            return content;
+        }
+    }
+
+    private final SiteConfig config;
+    private final Map<String, String> siteMetaData;
+    private final PageIndex index;
+    private final TemplateRegistry templates;
+    private final String settings;
+
+    /**
+     * IndexOutputs constructor
+     * @param config Config of the site
+     * @param siteMetaData Site values given to the templates
+     * @param index Index of the pages
+     * @param templates Templates of the site
+     * @param settings Signature of the config and of the build settings,
+     *                 part of the signature of every output
+     */
+    IndexOutputs(SiteConfig config, Map<String, String> siteMetaData, PageIndex index, TemplateRegistry templates,
+                 String settings) {
+        this.config = config;
+        this.siteMetaData = siteMetaData;
+        this.index = index;
+        this.templates = templates;
+        this.settings = settings;
+    }
+
+    /**
+     * List the outputs to make from the index
+     * @param sorted Pages given by {@link PageIndex#sorted()}
+     * @param layoutSignature Gives the signature of a layout and its partials
+     * @return Outputs, whether they changed or not
+     */
+    List<Output> plan(List<PageIndex.Entry> sorted, Function<String, String> layoutSignature) {
+        List<Output> outputs = new ArrayList<>();
+        if (templates.has(TAG_LAYOUT)) {
+            Set<String> slugs = new HashSet<>();
+            for (Map.Entry<String, List<PageIndex.Entry>> tag : PageIndex.byTag(sorted).entrySet()) {
+                // Tags differing only by case or punctuation get their own pages
+                String slug = slug(tag.getKey());
+                for (int i = 2; !slugs.add(slug); i++) {
+                    slug = slug(tag.getKey()) + "-" + i;
+                }
+                paginate(outputs, TAG_LAYOUT, layoutSignature.apply(TAG_LAYOUT), tag.getKey(),
+                        TAGS_DIRECTORY + "/" + slug, tag.getValue());
+            }
+        }
+        if (templates.has(ARCHIVE_LAYOUT)) {
+            String signature = layoutSignature.apply(ARCHIVE_LAYOUT);
+            for (Map.Entry<String, List<PageIndex.Entry>> year : byYear(sorted).entrySet()) {
+                paginate(outputs, ARCHIVE_LAYOUT, signature, year.getKey(),
+                        ARCHIVE_DIRECTORY + "/" + year.getKey(), year.getValue());
+            }
+        }
+
+        String url = config.getUrl();
+        if (url != null) {
+            outputs.add(feed(url));
+            outputs.add(sitemap(url, outputs));
+        }
+        return outputs;
+    }
+
+    /**
+     * Split the pages of a tag or a year into pages of the configured size
+     */
+    private void paginate(List<Output> outputs, String layout, String layoutSignature, String title, String base,
+                          List<PageIndex.Entry> pages) {
+        Template template = templates.get(layout);
+        int pageSize = config.getPageSize();
+        int count = (pages.size() + pageSize - 1) / pageSize;
+        for (int i = 0; i < count; i++) {
+            List<PageIndex.Entry> slice = pages.subList(i * pageSize, Math.min(pages.size(), (i + 1) * pageSize));
+            Map<String, Object> page = new HashMap<>();
+            page.put("title", title);
+            page.put(layout.equals(TAG_LAYOUT) ? "tag" : "year", title);
+            page.put("url", "/" + pagePath(base, i));
+            page.put("pages", slice);
+            page.put("number", i + 1);
+            page.put("count", count);
+            page.put("previous", i > 0 ? "/" + pagePath(base, i - 1) : null);
+            page.put("next", i + 1 < count ? "/" + pagePath(base, i + 1) : null);
+
+            StringBuilder signature = new StringBuilder(settings).append(layoutSignature)
+                    .append('\n').append(title).append('\n').append(i).append('/').append(count).append('\n');
+            for (PageIndex.Entry entry : slice) {
+                appendEntry(signature, entry);
+            }
+            outputs.add(new Output(pagePath(base, i), BuildManifest.hash(signature.toString()), output -> {
+                Map<String, Object> data = new HashMap<>();
+                data.put("site", siteMetaData);
+                data.put("page", page);
+                data.put(TemplateRegistry.CONTENT_KEY, "");
+                template.apply(data, output);
+            }));
+        }
+    }
+
+    private static String pagePath(String base, int index) {
+        return index == 0 ? base + ".html" : base + "-" + (index + 1) + ".html";
+    }
+
+    /**
+     * Group sorted pages by the year of their date, newest first
+     */
+    private static Map<String, List<PageIndex.Entry>> byYear(List<PageIndex.Entry> sorted) {
+        Map<String, List<PageIndex.Entry>> years = new LinkedHashMap<>();
+        for (PageIndex.Entry page : sorted) {
+            if (page.getDate() == null)
+                continue;
+            Matcher matcher = YEAR.matcher(page.getDate());
+            if (matcher.matches())
+                years.computeIfAbsent(matcher.group(1), year -> new ArrayList<>()).add(page);
+        }
+        return years;
+    }
+
+    /**
+     * RSS feed of the newest pages
+     */
+    private Output feed(String url) {
+        List<PageIndex.Entry> latest = index.latest(config.getFeedSize());
+        StringBuilder signature = new StringBuilder(settings).append('\n');
+        for (PageIndex.Entry entry : latest) {
+            appendEntry(signature, entry);
+        }
+
+        return new Output(FEED, BuildManifest.hash(signature.toString()), output -> {
+            output.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<rss version=\"2.0\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n<channel>\n");
+            element(output, "title", siteMetaData.get("title"));
+            element(output, "link", url + "/");
+            element(output, "description", siteMetaData.get("title"));
+            element(output, "language", siteMetaData.get("lang"));
+            for (PageIndex.Entry entry : latest) {
+                output.write("<item>\n");
+                element(output, "title", entry.getTitle() != null ? entry.getTitle() : entry.getUrl());
+                element(output, "link", url + entry.getUrl());
+                element(output, "guid", url + entry.getUrl());
+                LocalDate date = parseDate(entry.getDate());
+                if (date != null)
+                    element(output, "pubDate", DateTimeFormatter.RFC_1123_DATE_TIME.format(date.atStartOfDay(ZoneOffset.UTC)));
+                element(output, "dc:creator", entry.getAuthor());
+                for (String tag : entry.getTags()) {
+                    element(output, "category", tag);
+                }
+                output.write("</item>\n");
+            }
+            output.write("</channel>\n</rss>\n");
+        });
+    }
+
+    /**
+     * Sitemap of the pages and of the outputs made before it
+     */
+    private Output sitemap(String url, List<Output> generated) {
+        List<PageIndex.Entry> pages = index.getEntries();
+        List<String> generatedPaths = new ArrayList<>();
+        for (Output output : generated) {
+            if (output.getPath().endsWith(".html"))
+                generatedPaths.add(output.getPath());
+        }
+
+        StringBuilder signature = new StringBuilder(settings).append('\n');
+        for (PageIndex.Entry page : pages) {
+            signature.append(page.getUrl()).append('\0').append(page.getDate()).append('\n');
+        }
+        for (String path : generatedPaths) {
+            signature.append(path).append('\n');
+        }
+
+        return new Output(SITEMAP, BuildManifest.hash(signature.toString()), output -> {
+            output.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+            for (PageIndex.Entry page : pages) {
+                output.write("<url>\n");
+                element(output, "loc", url + page.getUrl());
+                LocalDate date = parseDate(page.getDate());
+                if (date != null)
+                    element(output, "lastmod", date.toString());
+                output.write("</url>\n");
+            }
+            for (String path : generatedPaths) {
+                output.write("<url>\n");
+                element(output, "loc", url + "/" + path);
+                output.write("</url>\n");
+            }
+            output.write("</urlset>\n");
+        });
+    }
+
+    private static void appendEntry(StringBuilder signature, PageIndex.Entry entry) {
+        signature.append(entry.getUrl()).append('\0').append(entry.getTitle()).append('\0')
+                .append(entry.getAuthor()).append('\0').append(entry.getDate()).append('\0')
+                .append(String.join("\0", entry.getTags())).append('\n');
+    }
+
+    /**
+     * Write an XML element, unless its value is missing
+     */
+    private static void element(Writer output, String name, String value) throws IOException {
+        if (value == null)
+            return;
+        output.write('<');
+        output.write(name);
+        output.write('>');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    output.write("&amp;");
+                    break;
+                case '<':
+                    output.write("&lt;");
+                    break;
+                case '>':
+                    output.write("&gt;");
+                    break;
+                default:
+                    output.write(c);
+            }
+        }
+        output.write("</");
+        output.write(name);
+        output.write(">\n");
+    }
+
+    /**
+     * Read the date of a page if it is an ISO date, as the sitemap and the
+     * feed need one
+     */
+    private static LocalDate parseDate(String date) {
+        if (date == null)
+            return null;
+        try {
+            return LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String slug(String tag) {
+        String slug = NOT_SLUG.matcher(tag.toLowerCase(Locale.ROOT)).replaceAll("-");
+        slug = slug.replaceAll("^-+|-+$", "");
+        return slug.isEmpty() ? "tag" : slug;
+    }
+}
@@ -0,0 +1,107 @@
+package ch.heigvd.app.utils.build;
+
+import ch.heigvd.app.utils.parsers.MarkdownConverter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A markdown page travelling through the build pipeline. Each stage fills
+ * the fields needed by the next one.
+ */
+class Page {
+    private final Path source;
+    private final Path output;
+    private final Map<String, Object> metaData = new HashMap<>();
+    private String layout = TemplateRegistry.DEFAULT_LAYOUT;
+    private boolean listing;
+    private BufferedReader markdown;
+    private MarkdownConverter.Document document;
+    private final Set<String> assetReferences = new HashSet<>();
+
+    /**
+     * Page constructor
+     * @param source Markdown file
+     * @param output HTML file to write
+     */
+    Page(Path source, Path output) {
+        this.source = source;
+        this.output = output;
+    }
+
+    Path getSource() {
+        return source;
+    }
+
+    Path getOutput() {
+        return output;
+    }
+
+    Map<String, Object> getMetaData() {
+        return metaData;
+    }
+
+    String getLayout() {
+        return layout;
+    }
+
+    void setLayout(String layout) {
+        this.layout = layout;
+    }
+
+    boolean isListing() {
+        return listing;
+    }
+
+    void setListing(boolean listing) {
+        this.listing = listing;
+    }
+
+    /**
+     * Get the reader of the source, positioned after the header
+     * @return Reader of the markdown, null if the source could not be read
+     */
+    BufferedReader getMarkdown() {
+        return markdown;
+    }
+
+    void setMarkdown(BufferedReader markdown) {
+        this.markdown = markdown;
+    }
+
+    /**
+     * Close the reader of the source, once rendered or if the page failed
+     * @throws IOException Error while closing the reader
+     */
+    void closeMarkdown() throws IOException {
+        if (markdown != null) {
+            markdown.close();
+            markdown = null;
+        }
+    }
+
+    /**
+     * Get the parsed markdown, rendered when the layout is applied
+     * @return Document, null if the source could not be read
+     */
+    MarkdownConverter.Document getDocument() {
+        return document;
+    }
+
+    void setDocument(MarkdownConverter.Document document) {
+        this.document = document;
+    }
+
+    /**
+     * Get the fingerprinted assets the page refers to, found while it is written
+     * @return Source paths of the assets
+     */
+    Set<String> getAssetReferences() {
+        return assetReferences;
+    }
+}
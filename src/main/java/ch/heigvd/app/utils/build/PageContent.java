@@ -0,0 +1,110 @@
+package ch.heigvd.app.utils.build;
+
+import ch.heigvd.app.utils.parsers.MarkdownConverter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * HTML of a page, given to its layout as {@code content}. It is never
+ * turned into a string when the layout uses it unescaped: the markdown is
+ * rendered straight to the output of the layout, without the whitespace
+ * around it.
+ */
+class PageContent {
+    private final MarkdownConverter.Document document;
+
+    /**
+     * PageContent constructor
+     * @param document Parsed markdown of the page
+     */
+    PageContent(MarkdownConverter.Document document) {
+        this.document = document;
+    }
+
+    /**
+     * Render the HTML, trimmed
+     * @param output Where the HTML is appended
+     * @throws IOException Error while writing to the output
+     */
+    void writeTo(Appendable output) throws IOException {
+        try {
+            document.render(new TrimmingAppendable(output));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder html = new StringBuilder();
+        try {
+            writeTo(html);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return html.toString();
+    }
+
+    /**
+     * Drops the whitespace at the start and at the end of what is
+     * appended, as {@link String#trim()} does. Whitespace is held back
+     * until something else follows it.
+     */
+    private static class TrimmingAppendable implements Appendable {
+        private final Appendable out;
+        private final StringBuilder pending = new StringBuilder();
+        private boolean started;
+
+        TrimmingAppendable(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            int first = start;
+            if (!started) {
+                while (first < end && csq.charAt(first) <= ' ') {
+                    first++;
+                }
+                if (first == end)
+                    return this;
+                started = true;
+            }
+            int last = end - 1;
+            while (last >= first && csq.charAt(last) <= ' ') {
+                last--;
+            }
+            if (last >= first) {
+                if (pending.length() > 0) {
+                    out.append(pending);
+                    pending.setLength(0);
+                }
+                out.append(csq, first, last + 1);
+            }
+            pending.append(csq, Math.max(first, last + 1), end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (c <= ' ') {
+                if (started)
+                    pending.append(c);
+                return this;
+            }
+            started = true;
+            if (pending.length() > 0) {
+                out.append(pending);
+                pending.setLength(0);
+            }
+            out.append(c);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ch.heigvd.app.utils.build;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index of the pages of a site, made of the URL and the front matter
+ * fields shown by listing pages: title, author, date and tags. It is
+ * filled from the headers read by the build and stored with the
+ * {@link BuildManifest}, so that an incremental build only updates the
+ * entries of the pages it reads again.
+ *
+ * Templates of listing pages get the index sorted by date, newest first,
+ * as {@code site.pages}, and grouped by tag as {@code site.tags}. Listing
+ * pages are indexed for the sitemap but are not listed.
+ */
+public class PageIndex {
+    public static final String PAGES_KEY = "pages";
+    public static final String TAGS_KEY = "tags";
+    private static final String TITLE_KEY = "title";
+    private static final String AUTHOR_KEY = "author";
+    private static final String DATE_KEY = "date";
+    // Newest first, pages without date at the end
+    private static final Comparator<Entry> BY_DATE = Comparator
+            .comparing(Entry::getDate, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(Entry::getUrl);
+
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     * Record the header of a page
+     * @param source Source path relative to the site directory
+     * @param url URL of the page, from the root of the site
+     * @param header Front matter of the page
+     * @param listing True if the page is a listing page
+     * @return True if the listed pages changed
+     */
+    public boolean put(String source, String url, Map<String, Object> header, boolean listing) {
+        Entry entry = new Entry(url, text(header.get(TITLE_KEY)), text(header.get(AUTHOR_KEY)),
+                text(header.get(DATE_KEY)), tags(header.get(TAGS_KEY)), listing);
+        Entry previous = entries.put(source, entry);
+        if (entry.equals(previous))
+            return false;
+        return !listing || (previous != null && !previous.isListing());
+    }
+
+    /**
+     * Forget a page
+     * @param source Source path relative to the site directory
+     * @return True if the page was listed
+     */
+    public boolean remove(String source) {
+        Entry previous = entries.remove(source);
+        return previous != null && !previous.isListing();
+    }
+
+    /**
+     * Get every indexed page, listing pages included
+     * @return Pages in the order of their source path
+     */
+    public List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Get the newest listed pages, without sorting the whole index
+     * @param count Number of pages to keep
+     * @return At most count pages, newest first
+     */
+    public List<Entry> latest(int count) {
+        // The oldest of the pages kept is at the head of the queue
+        PriorityQueue<Entry> newest = new PriorityQueue<>(count + 1, BY_DATE.reversed());
+        for (Entry entry : entries.values()) {
+            if (entry.isListing())
+                continue;
+            newest.add(entry);
+            if (newest.size() > count)
+                newest.poll();
+        }
+        List<Entry> latest = new ArrayList<>(newest);
+        latest.sort(BY_DATE);
+        return latest;
+    }
+
+    /**
+     * Get the number of indexed pages
+     * @return Number of pages
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sort the listed pages, newest first
+     * @return Sorted pages, listing pages excluded
+     */
+    public List<Entry> sorted() {
+        List<Entry> pages = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (!entry.isListing())
+                pages.add(entry);
+        }
+        pages.sort(BY_DATE);
+        return Collections.unmodifiableList(pages);
+    }
+
+    /**
+     * Group sorted pages by tag. Each tag gets its pages in the same
+     * order, so they are not sorted again.
+     * @param sorted Pages given by {@link #sorted()}
+     * @return Pages of each tag, by tag name
+     */
+    public static SortedMap<String, List<Entry>> byTag(List<Entry> sorted) {
+        SortedMap<String, List<Entry>> tags = new TreeMap<>();
+        for (Entry page : sorted) {
+            for (String tag : page.getTags()) {
+                tags.computeIfAbsent(tag, t -> new ArrayList<>()).add(page);
+            }
+        }
+        tags.replaceAll((tag, tagged) -> Collections.unmodifiableList(tagged));
+        return Collections.unmodifiableSortedMap(tags);
+    }
+
+    /**
+     * Get the collections given to the templates
+     * @param sorted Pages given by {@link #sorted()}
+     * @return Pages sorted by date under {@link #PAGES_KEY}, and the pages
+     *         of each tag, by tag name, under {@link #TAGS_KEY}
+     */
+    public static Map<String, Object> collections(List<Entry> sorted) {
+        Map<String, Object> collections = new HashMap<>();
+        collections.put(PAGES_KEY, sorted);
+        collections.put(TAGS_KEY, byTag(sorted));
+        return collections;
+    }
+
+    private static String text(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Tags are a list, or a single string
+     */
+    private static List<String> tags(Object value) {
+        if (value instanceof List) {
+            List<String> tags = new ArrayList<>();
+            for (Object tag : (List<?>) value) {
+                if (tag != null)
+                    tags.add(tag.toString());
+            }
+            return tags;
+        }
+        return value == null ? List.of() : List.of(value.toString());
+    }
+
+    /**
+     * Indexed fields of a page
+     */
+    public static class Entry {
+        private final String url;
+        private final String title;
+        private final String author;
+        private final String date;
+        private final List<String> tags;
+        private final boolean listing;
+
+        /**
+         * Entry constructor
+         * @param url URL of the page, from the root of the site
+         * @param title Title of the page, or null
+         * @param author Author of the page, or null
+         * @param date Date of the page, or null
+         * @param tags Tags of the page
+         * @param listing True if the page is a listing page
+         */
+        public Entry(String url, String title, String author, String date, List<String> tags, boolean listing) {
+            this.url = url;
+            this.title = title;
+            this.author = author;
+            this.date = date;
+            this.tags = List.copyOf(tags);
+            this.listing = listing;
+        }
+
+        /**
+         * Get page URL
+         * @return URL from the root of the site
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Get page title
+         * @return Title, or null
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Get page author
+         * @return Author, or null
+         */
+        public String getAuthor() {
+            return author;
+        }
+
+        /**
+         * Get page date
+         * @return Date as written in the header, or null
+         */
+        public String getDate() {
+            return date;
+        }
+
+        /**
+         * Get page tags
+         * @return Tags, empty if there is none
+         */
+        public List<String> getTags() {
+            return tags == null ? List.of() : tags;
+        }
+
+        /**
+         * Check if the page is a listing page
+         * @return True if the page lists the other pages
+         */
+        public boolean isListing() {
+            return listing;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Entry))
+                return false;
+            Entry entry = (Entry) o;
+            return Objects.equals(url, entry.url) && Objects.equals(title, entry.title)
+                    && Objects.equals(author, entry.author) && Objects.equals(date, entry.date)
+                    && getTags().equals(entry.getTags()) && listing == entry.listing;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, title, author, date, getTags(), listing);
+        }
+    }
+}
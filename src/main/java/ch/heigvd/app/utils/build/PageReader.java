@@ -0,0 +1,102 @@
+package ch.heigvd.app.utils.build;
+
+import ch.heigvd.app.utils.parsers.FrontMatter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read stage of the pages: opens the markdown of a page, parses its
+ * header and updates the {@link PageIndex}. Keeps track of whether the
+ * index, and the metadata the listing pages show, may have changed.
+ */
+class PageReader {
+    private static final String LAYOUT_KEY = "layout";
+    private static final String LISTING_KEY = "listing";
+
+    private final PageIndex pageIndex;
+    private final BuildOutputs outputs;
+    // Set when a page was read or removed, and the index may have changed
+    private final AtomicBoolean indexTouched = new AtomicBoolean();
+    private final AtomicBoolean metaDataChanged = new AtomicBoolean();
+
+    /**
+     * PageReader constructor
+     * @param pageIndex Index of the pages, updated as they are read
+     * @param outputs Outputs of the build, giving the URLs of the pages
+     */
+    PageReader(PageIndex pageIndex, BuildOutputs outputs) {
+        this.pageIndex = pageIndex;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Open a markdown file, parse its header into the page metadata and
+     * update the index of the pages. The markdown is left open, after the
+     * header, for the render stage.
+     * @param page Page to read
+     * @param relativeSource Path of its source, relative to the site
+     * @return The page
+     */
+    Page read(Page page, String relativeSource) {
+        try {
+            page.setMarkdown(Files.newBufferedReader(page.getSource(), StandardCharsets.UTF_8));
+            Map<String, Object> header = FrontMatter.read(page.getMarkdown());
+            indexTouched.set(true);
+            page.getMetaData().putAll(header);
+            String layout = FrontMatter.getString(header, LAYOUT_KEY);
+            if (layout != null)
+                page.setLayout(layout);
+            page.setListing(Boolean.TRUE.equals(header.get(LISTING_KEY)));
+
+            if (pageIndex.put(relativeSource, outputs.url(page.getOutput()), header, page.isListing()))
+                metaDataChanged.set(true);
+        } catch (IOException e) {
+            System.err.println("Error while reading markdown file");
+            close(page);
+        }
+        return page;
+    }
+
+    /**
+     * Remove a deleted source from the index of the pages
+     * @param source Path of the source, relative to the site
+     */
+    void remove(String source) {
+        indexTouched.set(true);
+        if (pageIndex.remove(source))
+            metaDataChanged.set(true);
+    }
+
+    /**
+     * Check if a page was read or removed
+     * @return True if the index may have changed
+     */
+    boolean isIndexTouched() {
+        return indexTouched.get();
+    }
+
+    /**
+     * Check if the indexed fields of a page changed
+     * @return True if the listing pages must be rendered again
+     */
+    boolean hasMetaDataChanged() {
+        return metaDataChanged.get();
+    }
+
+    /**
+     * Close the markdown of a page, if it is still open
+     * @param page Page read
+     */
+    static void close(Page page) {
+        try {
+            page.closeMarkdown();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ch.heigvd.app.utils.build;
+
+import ch.heigvd.app.utils.parsers.MarkdownConverter;
+import com.github.jknack.handlebars.Template;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Render stages of the pages: parses the markdown of a page once its
+ * header is read, then applies its layout while writing it to its output
+ * file. Also writes the outputs made from the index. References to
+ * fingerprinted assets are rewritten as the HTML is written.
+ */
+class PageRenderer {
+    private final MarkdownConverter converter;
+    private final TemplateRegistry templates;
+    private final Map<String, String> siteMetaData;
+    private final BuildOutputs outputs;
+    // Null when the assets are not fingerprinted
+    private final AssetFingerprints fingerprints;
+    // Site metadata with the collections of the index, once it is complete
+    private volatile Map<String, Object> listingSiteMetaData;
+
+    /**
+     * PageRenderer constructor
+     * @param converter Markdown converter of the site
+     * @param templates Compiled templates of the site
+     * @param siteMetaData Metadata of the site given to the layouts
+     * @param outputs Outputs of the build
+     * @param fingerprints Fingerprinted names of the assets, or null
+     */
+    PageRenderer(MarkdownConverter converter, TemplateRegistry templates, Map<String, String> siteMetaData,
+                 BuildOutputs outputs, AssetFingerprints fingerprints) {
+        this.converter = converter;
+        this.templates = templates;
+        this.siteMetaData = siteMetaData;
+        this.outputs = outputs;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Set the site metadata given to the listing pages
+     * @param listingSiteMetaData Site metadata with the collections of the complete index
+     */
+    void setListingSiteMetaData(Map<String, Object> listingSiteMetaData) {
+        this.listingSiteMetaData = listingSiteMetaData;
+    }
+
+    /**
+     * Parse the markdown of a page, reading it from where the header
+     * ended, and close it
+     * @param page Page read
+     * @return The page
+     */
+    Page parse(Page page) {
+        try {
+            if (page.getMarkdown() != null)
+                page.setDocument(converter.parse(page.getMarkdown()));
+        } catch (IOException e) {
+            System.err.println("Error while reading markdown file");
+        } finally {
+            PageReader.close(page);
+        }
+        return page;
+    }
+
+    /**
+     * Apply the layout to a page, writing it to its output file as it
+     * goes. The HTML of the markdown is rendered where the layout
+     * includes it.
+     * @param page Parsed page
+     * @return Output of the page, to close with {@link #write(Page, Writer)}
+     */
+    Writer applyLayout(Page page) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("site", page.isListing() ? listingSiteMetaData : siteMetaData);
+        data.put("page", page.getMetaData());
+        data.put(TemplateRegistry.CONTENT_KEY, page.getDocument() == null ? "" : new PageContent(page.getDocument()));
+
+        Template template = templates.get(page.getLayout());
+        Writer output = null;
+        try {
+            output = rewriteAssetUrls(ChannelWriter.open(Generations.replaceable(page.getOutput())),
+                    outputs.relativize(page.getOutput()), page.getAssetReferences());
+            template.apply(data, output);
+            return output;
+        } catch (IOException | RuntimeException e) {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+        }
+    }
+
+    /**
+     * Write what is left of a page and close its output file
+     * @param page Rendered page
+     * @param output Output given by {@link #applyLayout(Page)}
+     */
+    void write(Page page, Writer output) {
+        try {
+            output.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("File " + page.getOutput() + " successfully created");
+    }
+
+    /**
+     * Get every input used to render a page
+     * @param relativeSource Path of the source of the page, relative to the site
+     * @param page Rendered page
+     * @return Relative paths of the inputs
+     */
+    Set<String> inputs(String relativeSource, Page page) {
+        Set<String> inputs = new HashSet<>();
+        inputs.add(relativeSource);
+        inputs.add(BuildEngine.CONFIG_FILENAME);
+        for (String template : templates.dependencies(page.getLayout())) {
+            inputs.add(BuildEngine.templateInput(template));
+        }
+        if (page.isListing())
+            inputs.add(DependencyGraph.METADATA);
+        inputs.addAll(page.getAssetReferences());
+        return inputs;
+    }
+
+    /**
+     * Write an output made from the index
+     * @param output Planned output
+     * @return Output file
+     */
+    Path writeIndexOutput(IndexOutputs.Output output) {
+        Path file = outputs.getPath().resolve(output.getPath());
+        try {
+            Files.createDirectories(file.getParent());
+            try (Writer writer = rewriteAssetUrls(ChannelWriter.open(Generations.replaceable(file)), output.getPath(), new HashSet<>())) {
+                output.getContent().writeTo(writer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("File " + file + " successfully created");
+        return file;
+    }
+
+    /**
+     * Rewrite the references to fingerprinted assets in an HTML output
+     * @param output Writer of the output
+     * @param relativeOutput Path of the output, relative to the build directory
+     * @param references Where the source paths of the referenced assets are added
+     * @return Writer to write the output to
+     */
+    private Writer rewriteAssetUrls(Writer output, String relativeOutput, Set<String> references) {
+        if (fingerprints == null || !FilenameUtils.isExtension(relativeOutput, BuildEngine.TEMPLATE_FILE_TYPE))
+            return output;
+        return new AssetUrlWriter(output, fingerprints, AssetFingerprints.directory(relativeOutput), references);
+    }
+}
@@ -0,0 +1,84 @@
+package ch.heigvd.app.utils.build;
+
+import ch.heigvd.app.utils.parsers.FrontMatter;
+import ch.heigvd.app.utils.search.SearchIndex;
+import ch.heigvd.app.utils.search.Tokenizer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Search stage of the pages: adds the words of each rendered page to the
+ * {@link SearchIndex} of the site, and writes it at the end of the build.
+ * Does nothing when the site has no search, except removing the index of
+ * a previous build.
+ */
+class PageSearch {
+    private static final String TITLE_KEY = "title";
+
+    // Null when the site has no search
+    private final SearchIndex searchIndex;
+
+    /**
+     * PageSearch constructor
+     * @param enabled True if the site has a search index
+     * @param previousBuild Build the index is updated from, or null to start empty
+     */
+    PageSearch(boolean enabled, Path previousBuild) {
+        this.searchIndex = enabled ? SearchIndex.open(previousBuild) : null;
+    }
+
+    /**
+     * Check if the pages are indexed
+     * @return True if the site has a search index
+     */
+    boolean isEnabled() {
+        return searchIndex != null;
+    }
+
+    /**
+     * Add the words of the title and of the markdown of a page to the
+     * search index
+     * @param relativeSource Path of the source of the page, relative to the site
+     * @param url URL of the page
+     * @param page Parsed page
+     */
+    void add(String relativeSource, String url, Page page) {
+        if (searchIndex == null)
+            return;
+        Set<String> terms = new HashSet<>();
+        String title = FrontMatter.getString(page.getMetaData(), TITLE_KEY);
+        if (title != null)
+            Tokenizer.tokenize(title, terms::add);
+        if (page.getDocument() != null)
+            page.getDocument().visitText(text -> Tokenizer.tokenize(text, terms::add));
+        searchIndex.add(relativeSource, url, title, terms);
+    }
+
+    /**
+     * Remove a deleted page from the search index
+     * @param relativeSource Path of the source of the page, relative to the site
+     */
+    void remove(String relativeSource) {
+        if (searchIndex != null)
+            searchIndex.remove(relativeSource);
+    }
+
+    /**
+     * Write the search index if it changed, or delete the one of a
+     * previous build if the site has no search anymore
+     * @param outputs Outputs of the build
+     * @param incremental True if the index was updated from the one of the previous build
+     * @throws IOException Error while writing the index
+     */
+    void write(BuildOutputs outputs, boolean incremental) throws IOException {
+        Path outputPath = outputs.getPath();
+        if (searchIndex != null && (!incremental || searchIndex.hasChanges())) {
+            searchIndex.write(outputPath, outputs.getRendered(), outputs.getRemoved());
+        } else if (searchIndex == null && SearchIndex.exists(outputPath)) {
+            SearchIndex.delete(outputPath, outputs.getRemoved());
+        }
+    }
+}
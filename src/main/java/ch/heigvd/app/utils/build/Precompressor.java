@@ -0,0 +1,86 @@
+package ch.heigvd.app.utils.build;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a gzip compressed copy next to the text outputs of a build, so
+ * that they never have to be compressed when they are served
+ */
+public class Precompressor {
+    public static final String GZIP_EXTENSION = ".gz";
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of(
+            "html", "htm", "css", "js", "mjs", "json", "svg", "xml", "txt");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int level;
+    private final long minSize;
+
+    /**
+     * Precompressor constructor
+     * @param level Compression level, from 1 (fastest) to 9 (smallest)
+     * @param minSize Size in bytes under which files are not compressed
+     */
+    public Precompressor(int level, long minSize) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("The compression level must be between 1 and 9!");
+        this.level = level;
+        this.minSize = minSize;
+    }
+
+    /**
+     * Check if a file is of a type worth compressing
+     * @param fileName Name or path of the file
+     * @return True for text files
+     */
+    public static boolean isCompressible(String fileName) {
+        return COMPRESSIBLE_TYPES.contains(FilenameUtils.getExtension(fileName).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get the settings of the compression, stored in the build manifest
+     * to compress the outputs again when they change
+     * @return Level and minimum size
+     */
+    String getSettings() {
+        return "gzip-" + level + "-" + minSize;
+    }
+
+    /**
+     * Compress a file if it is a large enough text file
+     * @param file File to compress
+     * @return Compressed file, or null if the file was not compressed
+     * @throws IOException Error while reading or writing
+     */
+    public Path compress(Path file) throws IOException {
+        if (!isCompressible(file.toString()) || Files.size(file) < minSize)
+            return null;
+
+        Path compressed = file.resolveSibling(file.getFileName() + GZIP_EXTENSION);
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = new LevelGZIPOutputStream(Files.newOutputStream(Generations.replaceable(compressed)),
+                     level)) {
+            in.transferTo(out);
+        }
+        return compressed;
+    }
+
+    /**
+     * GZIPOutputStream with a chosen compression level
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package ch.heigvd.app.utils.build;
+
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Options;
+import com.github.jknack.handlebars.TagType;
+import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.cache.ConcurrentMapTemplateCache;
+import com.github.jknack.handlebars.io.FileTemplateLoader;
+import com.github.jknack.handlebars.io.TemplateLoader;
+import com.github.jknack.handlebars.io.TemplateSource;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled templates of the template directory. Every template/*.html
+ * file can be used as a layout or included in another one as a partial
+ * ({@code {{> name }}}). Templates are compiled once and kept until their
+ * file changes: a different modification time triggers a hash of the
+ * file, and the template is only recompiled if its content changed.
+ *
+ * The {@code content} of a page is written by a helper: used unescaped
+ * ({@code {{{ content }}}}), it is rendered straight to the output of the
+ * layout instead of being copied into a string first.
+ */
+public class TemplateRegistry {
+    public static final String DEFAULT_LAYOUT = "layout";
+    public static final String CONTENT_KEY = "content";
+    private static final String TEMPLATE_FILE_TYPE = "html";
+    private static final Pattern PARTIAL = Pattern.compile("\\{\\{~?\\s*>\\s*['\"]?([^\\s}'\"]+)");
+
+    private final Path templatePath;
+    private final TemplateLoader loader;
+    private final ConcurrentMapTemplateCache cache = new ConcurrentMapTemplateCache();
+    private final Handlebars handlebars;
+    private final Map<String, Entry> templates = new ConcurrentHashMap<>();
+
+    /**
+     * TemplateRegistry constructor
+     * @param templatePath Template directory of the site
+     */
+    public TemplateRegistry(Path templatePath) {
+        this.templatePath = templatePath;
+        this.loader = new FileTemplateLoader(templatePath.toString(), "." + TEMPLATE_FILE_TYPE);
+        this.handlebars = new Handlebars(loader).with(cache);
+        this.handlebars.registerHelper(CONTENT_KEY, TemplateRegistry::content);
+    }
+
+    /**
+     * Write the content of a page to the output of the template
+     * @return What to write in place of the helper
+     */
+    private static Object content(Object context, Options options) throws IOException {
+        Object content = options.get(CONTENT_KEY);
+        if (!(content instanceof PageContent))
+            return content;
+        // Escaped content is left to Handlebars
+        if (options.tagType != TagType.TRIPLE_VAR && options.tagType != TagType.AMP_VAR)
+            return content.toString();
+        Options.Buffer buffer = options.buffer();
+        ((PageContent) content).writeTo(buffer);
+        return buffer;
+    }
+
+    /**
+     * Scan the template directory, compile new or modified templates and
+     * forget removed ones. Must be called before a build, not during it.
+     * @return Names of the templates that were (re)compiled or removed
+     * @throws IOException Error while reading or compiling a template
+     */
+    public synchronized Set<String> refresh() throws IOException {
+        Set<String> changed = new HashSet<>();
+        Set<String> found = new HashSet<>();
+
+        if (Files.isDirectory(templatePath)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(templatePath, "*." + TEMPLATE_FILE_TYPE)) {
+                for (Path file : stream) {
+                    String name = FilenameUtils.removeExtension(file.getFileName().toString());
+                    found.add(name);
+                    if (refresh(name, file))
+                        changed.add(name);
+                }
+            }
+        }
+
+        for (String name : Set.copyOf(templates.keySet())) {
+            if (!found.contains(name)) {
+                cache.evict(templates.remove(name).source);
+                changed.add(name);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Check a single template file and recompile it if needed
+     * @return True if the template was compiled
+     */
+    private boolean refresh(String name, Path file) throws IOException {
+        long lastModified = Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime().toMillis();
+        Entry entry = templates.get(name);
+        if (entry != null && entry.lastModified == lastModified)
+            return false;
+
+        String hash = BuildManifest.hash(file);
+        if (entry != null && entry.hash.equals(hash)) {
+            templates.put(name, new Entry(lastModified, hash, entry.source, entry.template, entry.partials));
+            return false;
+        }
+
+        // Partials are looked up in the cache when a template is applied,
+        // so evicting the old version is enough for all users to see it
+        TemplateSource source = loader.sourceAt(name);
+        cache.evict(source);
+        Set<String> partials = new HashSet<>();
+        Matcher matcher = PARTIAL.matcher(Files.readString(file, StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            partials.add(matcher.group(1));
+        }
+        templates.put(name, new Entry(lastModified, hash, source, handlebars.compile(source), partials));
+        return true;
+    }
+
+    /**
+     * Get the names of all templates
+     * @return Names of the templates found during the last refresh
+     */
+    public Set<String> getNames() {
+        return Set.copyOf(templates.keySet());
+    }
+
+    /**
+     * Get the templates needed to apply a template: itself and the
+     * partials it includes, directly or not
+     * @param name Name of the template, without extension
+     * @return Names of the templates used
+     */
+    public Set<String> dependencies(String name) {
+        Set<String> used = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>();
+        toVisit.add(name);
+        while (!toVisit.isEmpty()) {
+            String current = toVisit.pop();
+            if (!used.add(current))
+                continue;
+            Entry entry = templates.get(current);
+            if (entry != null)
+                toVisit.addAll(entry.partials);
+        }
+        return used;
+    }
+
+    /**
+     * Check if a template exists
+     * @param name Name of the template, without extension
+     * @return True if the template was found during the last refresh
+     */
+    public boolean has(String name) {
+        return templates.containsKey(name);
+    }
+
+    /**
+     * Get a compiled template
+     * @param name Name of the template, without extension
+     * @return Compiled template
+     * @throws IllegalArgumentException If the template does not exist
+     */
+    public Template get(String name) {
+        Entry entry = templates.get(name);
+        if (entry == null)
+            throw new IllegalArgumentException("Template " + name + " not found in " + templatePath);
+        return entry.template;
+    }
+
+    /**
+     * A compiled template with the state of its file
+     */
+    private static class Entry {
+        private final long lastModified;
+        private final String hash;
+        private final TemplateSource source;
+        private final Template template;
+        private final Set<String> partials;
+
+        Entry(long lastModified, String hash, TemplateSource source, Template template, Set<String> partials) {
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.source = source;
+            this.template = template;
+            this.partials = partials;
+        }
+    }
+}
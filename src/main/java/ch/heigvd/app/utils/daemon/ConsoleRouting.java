@@ -0,0 +1,109 @@
+package ch.heigvd.app.utils.daemon;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+
+/**
+ * Sends what a thread prints on System.out and System.err to the client
+ * it works for. The daemon runs the commands of several clients at once,
+ * and they all print on the same console: once installed, the console
+ * streams write to the streams given to the current thread, and to the
+ * real console otherwise. Threads created by a command inherit its
+ * streams; tasks given to a shared pool must be wrapped with
+ * {@link #propagate(Runnable)}.
+ */
+public final class ConsoleRouting {
+    private static final InheritableThreadLocal<PrintStream[]> STREAMS = new InheritableThreadLocal<>();
+    private static volatile boolean installed;
+
+    private ConsoleRouting() {
+    }
+
+    /**
+     * Replace System.out and System.err with streams writing to the
+     * streams of the current thread
+     */
+    public static synchronized void install() {
+        if (installed)
+            return;
+        System.setOut(new PrintStream(new Router(System.out, 0), true));
+        System.setErr(new PrintStream(new Router(System.err, 1), true));
+        installed = true;
+    }
+
+    /**
+     * Run a task printing on the given streams
+     * @param out Stream receiving System.out
+     * @param err Stream receiving System.err
+     * @param task Task to run
+     * @return Result of the task
+     * @throws Exception Error thrown by the task
+     */
+    public static <T> T with(PrintStream out, PrintStream err, Callable<T> task) throws Exception {
+        PrintStream[] previous = STREAMS.get();
+        STREAMS.set(new PrintStream[]{out, err});
+        try {
+            return task.call();
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            STREAMS.set(previous);
+        }
+    }
+
+    /**
+     * Make a task print on the streams of the thread submitting it,
+     * whichever thread runs it
+     * @param task Task to submit
+     * @return Wrapped task, or the task itself if the routing is not installed
+     */
+    public static Runnable propagate(Runnable task) {
+        if (!installed)
+            return task;
+        PrintStream[] streams = STREAMS.get();
+        return () -> {
+            PrintStream[] previous = STREAMS.get();
+            STREAMS.set(streams);
+            try {
+                task.run();
+            } finally {
+                STREAMS.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Console stream writing to the stream of the current thread
+     */
+    private static class Router extends OutputStream {
+        private final PrintStream console;
+        private final int index;
+
+        Router(PrintStream console, int index) {
+            this.console = console;
+            this.index = index;
+        }
+
+        private PrintStream target() {
+            PrintStream[] streams = STREAMS.get();
+            return streams == null ? console : streams[index];
+        }
+
+        @Override
+        public void write(int b) {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package ch.heigvd.app.utils.daemon;
+
+import picocli.CommandLine;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+
+/**
+ * Sends a command to the daemon, if one is running, and prints what it
+ * answers as if the command ran in this process
+ */
+public class DaemonClient {
+    /**
+     * Commands run by the daemon when it is there
+     */
+    public static final Set<String> FORWARDED_COMMANDS = Set.of("build", "clean", "serve");
+    /**
+     * Environment variable disabling the forwarding when set
+     */
+    public static final String DISABLE_VARIABLE = "STATIC_NO_DAEMON";
+    private static final int CONNECT_TIMEOUT = 500;
+
+    private final Path stateFile;
+
+    /**
+     * DaemonClient constructor
+     * @param stateFile File telling where the daemon listens
+     */
+    public DaemonClient(Path stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Run a command in the daemon if it is one of the forwarded commands
+     * and a daemon is running. Relative paths given as parameters are made
+     * absolute, since the daemon runs in another directory.
+     * @param commandLine Command line of the application, to parse the arguments
+     * @param args Arguments of the command
+     * @return Exit code of the command, or null if it must run in this process
+     */
+    public Integer forward(CommandLine commandLine, String[] args) {
+        if (args.length == 0 || !FORWARDED_COMMANDS.contains(args[0]) || System.getenv(DISABLE_VARIABLE) != null)
+            return null;
+
+        String[] forwarded;
+        try {
+            forwarded = absolutePaths(commandLine.parseArgs(args), args);
+        } catch (CommandLine.ParameterException e) {
+            // Reported by the command itself
+            return null;
+        }
+        return send(forwarded);
+    }
+
+    /**
+     * Send a command to the daemon, whatever it is
+     * @param args Arguments of the command
+     * @return Exit code of the command, or null if no daemon is running
+     */
+    public Integer send(String[] args) {
+        DaemonState state = DaemonState.read(stateFile);
+        if (state == null)
+            return null;
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), state.getPort()), CONNECT_TIMEOUT);
+        } catch (IOException e) {
+            // The daemon is gone and left its state file
+            closeQuietly(socket);
+            return null;
+        }
+
+        try (socket) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(state.getToken());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] buffer = new byte[8192];
+            while (true) {
+                int type = in.readUnsignedByte();
+                if (type == DaemonServer.FRAME_EXIT)
+                    return in.readInt();
+
+                int length = in.readInt();
+                PrintStream target = type == DaemonServer.FRAME_ERR ? System.err : System.out;
+                while (length > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, length));
+                    if (read == -1)
+                        throw new EOFException();
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+                target.flush();
+            }
+        } catch (IOException e) {
+            // The command may have run already, so it is not run again here
+            System.err.println("Lost the connection to the daemon: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Replace the positional parameters of the subcommand with absolute paths
+     */
+    private static String[] absolutePaths(CommandLine.ParseResult result, String[] args) {
+        String[] forwarded = args.clone();
+        CommandLine.ParseResult command = result.subcommand();
+        if (command == null)
+            return forwarded;
+        for (CommandLine.Model.PositionalParamSpec positional : command.matchedPositionals()) {
+            for (String value : positional.originalStringValues()) {
+                for (int i = forwarded.length - 1; i > 0; i--) {
+                    if (forwarded[i].equals(value)) {
+                        forwarded[i] = Paths.get(value).toAbsolutePath().normalize().toString();
+                        break;
+                    }
+                }
+            }
+        }
+        return forwarded;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+}
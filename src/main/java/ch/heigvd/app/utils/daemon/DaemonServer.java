@@ -0,0 +1,249 @@
+package ch.heigvd.app.utils.daemon;
+
+import ch.heigvd.app.utils.build.BuildEngine;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs the commands of the clients in a single long-lived JVM, so that
+ * they don't pay for its startup, class loading and warm-up. The daemon
+ * listens on the loopback address; each connection sends the token of
+ * the state file and the arguments of a command, and receives what the
+ * command prints followed by its exit code. Build engines are kept
+ * between commands, with their compiled templates and markdown parser.
+ *
+ * A command stops when its client disconnects, which lets a client end
+ * a watching command with Ctrl-C.
+ */
+public class DaemonServer {
+    static final int FRAME_OUT = 'O';
+    static final int FRAME_ERR = 'E';
+    static final int FRAME_EXIT = 'X';
+    static final String COMMAND_NAME = "daemon";
+    static final String STOP_OPTION = "--stop";
+    static final String STATUS_OPTION = "--status";
+    static final int MAX_ARGUMENTS = 1024;
+    private static final int HANDSHAKE_TIMEOUT = 5000;
+    private static final int ACCEPT_TIMEOUT = 1000;
+    // Set on the thread running the command of a client
+    private static final ThreadLocal<Boolean> CLIENT_COMMAND = ThreadLocal.withInitial(() -> false);
+
+    private final Path stateFile;
+    private final Duration idleTimeout;
+    private final Function<String[], Integer> executor;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong lastActivity = new AtomicLong(System.nanoTime());
+    private final AtomicLong requests = new AtomicLong();
+    private final long start = System.nanoTime();
+    private volatile boolean stopped;
+    private byte[] token;
+
+    /**
+     * DaemonServer constructor
+     * @param stateFile File telling the clients where the daemon listens
+     * @param idleTimeout Time without command after which the daemon
+     *                    stops, or zero to never stop
+     * @param executor Runs a command from its arguments and gives its exit code
+     */
+    public DaemonServer(Path stateFile, Duration idleTimeout, Function<String[], Integer> executor) {
+        this.stateFile = stateFile;
+        this.idleTimeout = idleTimeout;
+        this.executor = executor;
+    }
+
+    /**
+     * Accept commands until the daemon is stopped or idle for too long
+     * @throws IOException Error while opening the socket or writing the state file
+     */
+    public void run() throws IOException {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        String hexToken = String.format("%064x", new BigInteger(1, secret));
+        token = hexToken.getBytes(StandardCharsets.UTF_8);
+
+        ConsoleRouting.install();
+        BuildEngine.keepEngines();
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(ACCEPT_TIMEOUT);
+            DaemonState state = new DaemonState(server.getLocalPort(), hexToken, ProcessHandle.current().pid());
+            state.write(stateFile);
+            System.out.println("Daemon listening on port " + server.getLocalPort() + ", state in " + stateFile);
+
+            while (!stopped) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    if (isIdle())
+                        break;
+                    continue;
+                }
+                Thread thread = new Thread(() -> handle(socket), "daemon-client");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } finally {
+            // Another daemon may have replaced the file
+            DaemonState current = DaemonState.read(stateFile);
+            if (current != null && current.getToken().equals(hexToken))
+                Files.deleteIfExists(stateFile);
+            BuildEngine.closeEngines();
+        }
+        System.out.println("Daemon stopped");
+    }
+
+    /**
+     * Check if the current thread runs the command of a client. Such a
+     * command must release what it started before it returns, as the JVM
+     * does not stop with it.
+     * @return True in a command run by the daemon
+     */
+    public static boolean isClientCommand() {
+        return CLIENT_COMMAND.get();
+    }
+
+    private boolean isIdle() {
+        return !idleTimeout.isZero() && running.get() == 0
+                && System.nanoTime() - lastActivity.get() > idleTimeout.toNanos();
+    }
+
+    /**
+     * Run the command of a client
+     */
+    private void handle(Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            byte[] received = in.readUTF().getBytes(StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(received, token))
+                return;
+            int count = in.readInt();
+            if (count < 0 || count > MAX_ARGUMENTS)
+                return;
+            String[] args = new String[count];
+            for (int i = 0; i < count; i++) {
+                args[i] = in.readUTF();
+            }
+            socket.setSoTimeout(0);
+
+            running.incrementAndGet();
+            requests.incrementAndGet();
+            try {
+                int exitCode = execute(args, in, out);
+                synchronized (out) {
+                    out.writeByte(FRAME_EXIT);
+                    out.writeInt(exitCode);
+                    out.flush();
+                }
+            } finally {
+                running.decrementAndGet();
+                lastActivity.set(System.nanoTime());
+            }
+        } catch (IOException e) {
+            // The client left
+        }
+    }
+
+    private int execute(String[] args, DataInputStream in, DataOutputStream out) {
+        PrintStream clientOut = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, FRAME_OUT)), true);
+        PrintStream clientErr = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, FRAME_ERR)), true);
+
+        if (args.length == 2 && args[0].equals(COMMAND_NAME)) {
+            if (args[1].equals(STOP_OPTION)) {
+                stopped = true;
+                clientOut.println("Daemon stopping");
+                clientOut.flush();
+                return 0;
+            }
+            if (args[1].equals(STATUS_OPTION)) {
+                clientOut.println("Daemon " + ProcessHandle.current().pid() + " running for "
+                        + Duration.ofNanos(System.nanoTime() - start).toSeconds() + " s, "
+                        + requests.get() + " command(s), " + (running.get() - 1) + " other running");
+                clientOut.flush();
+                return 0;
+            }
+        }
+
+        // Stop the command if the client disconnects
+        Thread worker = Thread.currentThread();
+        Object lock = new Object();
+        boolean[] done = new boolean[1];
+        Thread monitor = new Thread(() -> {
+            try {
+                while (in.read() != -1) {
+                    // Clients send nothing once the command is started
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+            synchronized (lock) {
+                if (!done[0])
+                    worker.interrupt();
+            }
+        }, "daemon-client-monitor");
+        monitor.setDaemon(true);
+        monitor.start();
+
+        CLIENT_COMMAND.set(true);
+        try {
+            return ConsoleRouting.with(clientOut, clientErr, () -> executor.apply(args));
+        } catch (Exception e) {
+            clientErr.println("The daemon could not run the command: " + e.getMessage());
+            return 1;
+        } finally {
+            CLIENT_COMMAND.remove();
+            synchronized (lock) {
+                done[0] = true;
+                Thread.interrupted();
+            }
+            clientOut.flush();
+            clientErr.flush();
+        }
+    }
+
+    /**
+     * Sends the bytes written to it as frames of a given type
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final int type;
+
+        FrameOutputStream(DataOutputStream out, int type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ch.heigvd.app.utils.daemon;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * File telling the clients where the daemon listens. It holds the port
+ * and a random token that clients must send first, and is only readable
+ * by its owner, so that other users of the machine can't use the daemon.
+ */
+public class DaemonState {
+    private static final Gson GSON = new Gson();
+
+    private final int port;
+    private final String token;
+    private final long pid;
+
+    /**
+     * DaemonState constructor
+     * @param port Port of the daemon, on the loopback address
+     * @param token Secret expected from the clients
+     * @param pid Process of the daemon
+     */
+    public DaemonState(int port, String token, long pid) {
+        this.port = port;
+        this.token = token;
+        this.pid = pid;
+    }
+
+    /**
+     * Get the state file used when none is given, in the home directory
+     * @return Path of ~/.static/daemon.json
+     */
+    public static Path defaultPath() {
+        return Paths.get(System.getProperty("user.home"), ".static", "daemon.json");
+    }
+
+    /**
+     * Get the port of the daemon
+     * @return Port on the loopback address
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the secret expected from the clients
+     * @return Token
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Get the process of the daemon
+     * @return Process id
+     */
+    public long getPid() {
+        return pid;
+    }
+
+    /**
+     * Read a state file
+     * @param file State file
+     * @return State, or null if there is no daemon or the file is invalid
+     */
+    public static DaemonState read(Path file) {
+        try {
+            DaemonState state = GSON.fromJson(Files.readString(file, StandardCharsets.UTF_8), DaemonState.class);
+            return state == null || state.token == null ? null : state;
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the state file, readable by its owner only
+     * @param file State file
+     * @throws IOException Error while writing
+     */
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        try {
+            Files.createFile(temporary, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(temporary);
+        }
+        Files.writeString(temporary, GSON.toJson(this), StandardCharsets.UTF_8);
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,401 @@
+package ch.heigvd.app.utils.generate;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Generates a site of any size from a seed, to test and measure the
+ * commands on large inputs. The same seed and settings always give the
+ * same files, byte for byte. Each file has its own random generator
+ * derived from the seed and its number, so files can be compared between
+ * sites generated with different settings.
+ *
+ * Pages are spread over a tree of directories of a given depth and
+ * fan-out. Their content is a mix of markdown blocks drawn with the
+ * given weights, and they link to each other and to the generated assets.
+ */
+public class SiteGenerator {
+    public static final String ASSET_DIRECTORY_NAME = "assets";
+    private static final String PAGE_PREFIX = "page-";
+    private static final String DIRECTORY_PREFIX = "section-";
+    private static final String[] WORDS = {
+            "le", "la", "les", "un", "une", "des", "site", "page", "contenu", "article", "statique",
+            "projet", "build", "serveur", "fichier", "markdown", "template", "rapide", "simple", "avec",
+            "pour", "dans", "sur", "est", "sont", "chaque", "nouveau", "ancien", "grand", "petit",
+            "texte", "image", "lien", "titre", "section", "exemple", "donnée", "liste", "code", "table"};
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    /**
+     * Markdown blocks a page is made of
+     */
+    public enum Feature {
+        PARAGRAPH, LONG_PARAGRAPH, TABLE, CODE, IMAGE, LIST;
+
+        /**
+         * Get a feature from its name in the command line
+         * @param name Name of the feature, as "long-paragraph"
+         * @return Feature
+         */
+        public static Feature fromName(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown markdown feature \"" + name + "\"!");
+            }
+        }
+    }
+
+    private final long seed;
+    private int pages = 100;
+    private int depth = 2;
+    private int fanOut = 4;
+    private int sections = 5;
+    private final Map<Feature, Integer> features = new EnumMap<>(Feature.class);
+    private int extraFields = 0;
+    private int assets = 10;
+    private long assetMinSize = 1024;
+    private long assetMaxSize = 64 * 1024;
+
+    /**
+     * SiteGenerator constructor
+     * @param seed Seed of the random content
+     */
+    public SiteGenerator(long seed) {
+        this.seed = seed;
+        features.put(Feature.PARAGRAPH, 4);
+        features.put(Feature.LONG_PARAGRAPH, 1);
+        features.put(Feature.TABLE, 1);
+        features.put(Feature.CODE, 1);
+        features.put(Feature.IMAGE, 1);
+        features.put(Feature.LIST, 2);
+    }
+
+    /**
+     * Set the number of pages, index page excluded
+     * @param pages Number of pages
+     */
+    public void setPages(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("The number of pages can't be negative!");
+        this.pages = pages;
+    }
+
+    /**
+     * Set the shape of the directory tree holding the pages
+     * @param depth Number of directory levels under the site root
+     * @param fanOut Number of sub-directories of each directory
+     */
+    public void setTree(int depth, int fanOut) {
+        if (depth < 0 || fanOut < 1)
+            throw new IllegalArgumentException("The depth can't be negative and the fan-out must be at least 1!");
+        this.depth = depth;
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * Set the number of blocks of each page, heading included
+     * @param sections Number of blocks
+     */
+    public void setSections(int sections) {
+        if (sections < 1)
+            throw new IllegalArgumentException("A page must have at least one section!");
+        this.sections = sections;
+    }
+
+    /**
+     * Set the weight of a markdown feature in the pages. A weight of 0
+     * removes the feature.
+     * @param feature Markdown feature
+     * @param weight Relative weight
+     */
+    public void setFeatureWeight(Feature feature, int weight) {
+        if (weight < 0)
+            throw new IllegalArgumentException("A feature weight can't be negative!");
+        features.put(feature, weight);
+    }
+
+    /**
+     * Set the number of fields added to the title, author and date of the
+     * page headers
+     * @param extraFields Number of additional fields
+     */
+    public void setExtraFields(int extraFields) {
+        if (extraFields < 0)
+            throw new IllegalArgumentException("The number of extra fields can't be negative!");
+        this.extraFields = extraFields;
+    }
+
+    /**
+     * Set the number and sizes of the generated assets
+     * @param assets Number of assets
+     * @param minSize Minimum size in bytes
+     * @param maxSize Maximum size in bytes
+     */
+    public void setAssets(int assets, long minSize, long maxSize) {
+        if (assets < 0 || minSize < 0 || maxSize < minSize)
+            throw new IllegalArgumentException("Invalid asset count or sizes!");
+        this.assets = assets;
+        this.assetMinSize = minSize;
+        this.assetMaxSize = maxSize;
+    }
+
+    /**
+     * Write the site in a directory
+     * @param root Directory of the site, created if needed
+     * @throws IOException Error while writing a file
+     */
+    public void generate(Path root) throws IOException {
+        if (features.values().stream().mapToInt(Integer::intValue).sum() == 0)
+            throw new IllegalArgumentException("At least one markdown feature must have a positive weight!");
+
+        List<String> directories = directories();
+        for (String directory : directories) {
+            Files.createDirectories(root.resolve(directory));
+        }
+
+        writeConfig(root);
+        writeTemplates(root);
+        writeAssets(root);
+        writeIndex(root, directories);
+        for (int i = 0; i < pages; i++) {
+            Files.writeString(root.resolve(pagePath(directories, i)), page(directories, i), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Get the directories of the tree, breadth first, root included as ""
+     */
+    private List<String> directories() {
+        List<String> directories = new ArrayList<>();
+        directories.add("");
+        int levelStart = 0;
+        for (int level = 0; level < depth; level++) {
+            int levelEnd = directories.size();
+            for (int d = levelStart; d < levelEnd; d++) {
+                for (int child = 0; child < fanOut; child++) {
+                    directories.add(directories.get(d) + DIRECTORY_PREFIX + child + "/");
+                }
+            }
+            levelStart = levelEnd;
+        }
+        return directories;
+    }
+
+    /**
+     * Get the path of a page, relative to the site. Pages are dealt to
+     * the directories in turn.
+     */
+    private String pagePath(List<String> directories, int page) {
+        return directories.get(page % directories.size()) + PAGE_PREFIX + page + ".md";
+    }
+
+    private String pageUrl(List<String> directories, int page) {
+        return "/" + directories.get(page % directories.size()) + PAGE_PREFIX + page + ".html";
+    }
+
+    private String assetUrl(int asset) {
+        return "/" + ASSET_DIRECTORY_NAME + "/image-" + asset + ".png";
+    }
+
+    private void writeConfig(Path root) throws IOException {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("title", "Site généré");
+        config.put("lang", "fr");
+        config.put("charset", "utf-8");
+        config.put("markdownExtensions", List.of("tables", "tasklists", "strikethrough", "autolink"));
+        Files.writeString(root.resolve("config.json"), GSON.toJson(config), StandardCharsets.UTF_8);
+    }
+
+    private void writeTemplates(Path root) throws IOException {
+        Path template = Files.createDirectories(root.resolve("template"));
+        Files.writeString(template.resolve("layout.html"), "<html lang=\"{{ site.lang }}\">\n"
+                + "<head>\n"
+                + "<meta charset=\"{{ site.charset }}\">\n"
+                + "<title>{{ site.title }} | {{ page.title }}</title>\n"
+                + "<link rel=\"stylesheet\" href=\"/" + ASSET_DIRECTORY_NAME + "/style.css\">\n"
+                + "</head>\n"
+                + "<body>\n"
+                + "{{> menu }}\n"
+                + "<main>\n{{{ content }}}\n</main>\n"
+                + "<footer>{{ page.author }} - {{ page.date }}</footer>\n"
+                + "</body>\n"
+                + "</html>\n", StandardCharsets.UTF_8);
+        Files.writeString(template.resolve("menu.html"),
+                "<nav><a href=\"/index.html\">{{ site.title }}</a></nav>\n", StandardCharsets.UTF_8);
+    }
+
+    private void writeAssets(Path root) throws IOException {
+        Path assetPath = Files.createDirectories(root.resolve(ASSET_DIRECTORY_NAME));
+        Files.writeString(assetPath.resolve("style.css"), "body { font-family: sans-serif; margin: 0 auto; max-width: 50em; }\n"
+                + "nav, footer { padding: 1em 0; color: #555; }\n"
+                + "table { border-collapse: collapse; }\n"
+                + "td, th { border: 1px solid #ccc; padding: 0.25em 0.5em; }\n", StandardCharsets.UTF_8);
+
+        byte[] buffer = new byte[64 * 1024];
+        for (int i = 0; i < assets; i++) {
+            Random random = random(-1 - i);
+            long size = assetMinSize + (long) (random.nextDouble() * (assetMaxSize - assetMinSize + 1));
+            try (OutputStream out = Files.newOutputStream(root.resolve(assetUrl(i).substring(1)))) {
+                for (long written = 0; written < size; written += buffer.length) {
+                    random.nextBytes(buffer);
+                    out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+                }
+            }
+        }
+    }
+
+    private void writeIndex(Path root, List<String> directories) throws IOException {
+        StringBuilder index = new StringBuilder(header(random(Long.MAX_VALUE), "Accueil"));
+        index.append("# Site généré\n\n")
+                .append(pages).append(" pages dans ").append(directories.size()).append(" répertoires.\n\n");
+        for (int i = 0; i < Math.min(pages, 100); i++) {
+            index.append("- [Page ").append(i).append("](").append(pageUrl(directories, i)).append(")\n");
+        }
+        try (Writer writer = Files.newBufferedWriter(root.resolve("index.md"), StandardCharsets.UTF_8)) {
+            writer.write(index.toString());
+        }
+    }
+
+    /**
+     * Get the content of a page, header included
+     */
+    private String page(List<String> directories, int page) {
+        Random random = random(page);
+        StringBuilder sb = new StringBuilder(header(random, "Page " + page));
+        sb.append("# ").append(sentence(random, 3, 6)).append("\n\n");
+
+        for (int s = 1; s < sections; s++) {
+            switch (pick(random)) {
+                case PARAGRAPH:
+                    sb.append(paragraph(random, directories, 2, 4)).append("\n\n");
+                    break;
+                case LONG_PARAGRAPH:
+                    sb.append("## ").append(sentence(random, 2, 5)).append("\n\n")
+                            .append(paragraph(random, directories, 15, 30)).append("\n\n");
+                    break;
+                case TABLE:
+                    int columns = 2 + random.nextInt(4);
+                    for (int c = 0; c < columns; c++) {
+                        sb.append("| ").append(word(random)).append(' ');
+                    }
+                    sb.append("|\n").append("|-----".repeat(columns)).append("|\n");
+                    for (int row = 3 + random.nextInt(8); row > 0; row--) {
+                        for (int c = 0; c < columns; c++) {
+                            sb.append("| ").append(random.nextInt(10000)).append(' ');
+                        }
+                        sb.append("|\n");
+                    }
+                    sb.append('\n');
+                    break;
+                case CODE:
+                    sb.append("```java\n");
+                    for (int line = 2 + random.nextInt(10); line > 0; line--) {
+                        sb.append("int ").append(word(random)).append(line).append(" = ")
+                                .append(random.nextInt(1000)).append(";\n");
+                    }
+                    sb.append("```\n\n");
+                    break;
+                case IMAGE:
+                    if (assets > 0)
+                        sb.append("![").append(sentence(random, 1, 3)).append("](")
+                                .append(assetUrl(random.nextInt(assets))).append(")\n\n");
+                    break;
+                case LIST:
+                    for (int item = 2 + random.nextInt(5); item > 0; item--) {
+                        sb.append(random.nextInt(4) == 0 ? "- [x] " : "- ").append(sentence(random, 2, 8)).append('\n');
+                    }
+                    sb.append('\n');
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the JSON header of a page followed by its separator
+     */
+    private String header(Random random, String title) {
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("title", title);
+        header.put("author", capitalize(word(random)) + " " + capitalize(word(random)));
+        header.put("date", String.format("20%02d-%02d-%02d",
+                10 + random.nextInt(13), 1 + random.nextInt(12), 1 + random.nextInt(28)));
+        for (int i = 0; i < extraFields; i++) {
+            header.put("field" + i, sentence(random, 1, 4));
+        }
+        return GSON.toJson(header) + "\n---\n";
+    }
+
+    private String paragraph(Random random, List<String> directories, int minSentences, int maxSentences) {
+        StringBuilder sb = new StringBuilder();
+        int count = minSentences + random.nextInt(maxSentences - minSentences + 1);
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(' ');
+            String sentence = capitalize(sentence(random, 6, 16));
+            switch (random.nextInt(8)) {
+                case 0:
+                    sb.append(sentence).append(" **").append(word(random)).append("**.");
+                    break;
+                case 1:
+                    sb.append(sentence).append(" *").append(word(random)).append("*.");
+                    break;
+                case 2:
+                    if (pages > 0) {
+                        sb.append(sentence).append(" [").append(word(random)).append("](")
+                                .append(pageUrl(directories, random.nextInt(pages))).append(").");
+                        break;
+                    }
+                    // No page to link to
+                default:
+                    sb.append(sentence).append('.');
+            }
+        }
+        return sb.toString();
+    }
+
+    private String sentence(Random random, int minWords, int maxWords) {
+        StringBuilder sb = new StringBuilder(word(random));
+        for (int count = minWords + random.nextInt(maxWords - minWords + 1); count > 1; count--) {
+            sb.append(' ').append(word(random));
+        }
+        return sb.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    /**
+     * Draw a feature according to the weights
+     */
+    private Feature pick(Random random) {
+        int total = features.values().stream().mapToInt(Integer::intValue).sum();
+        int draw = random.nextInt(total);
+        for (Map.Entry<Feature, Integer> entry : features.entrySet()) {
+            draw -= entry.getValue();
+            if (draw < 0)
+                return entry.getKey();
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Get the random generator of a file, independent of the other files
+     */
+    private Random random(long file) {
+        return new Random(seed * 0x9E3779B97F4A7C15L + file);
+    }
+}
@@ -0,0 +1,197 @@
+package ch.heigvd.app.utils.parsers;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the JSON header of a page, ended by a line containing only
+ * {@code ---}. The header is parsed straight from the file, without being
+ * copied first, and the reader is left at the start of the markdown so
+ * that it can be handed to the renderer. Every key of the header is kept,
+ * with its JSON type: objects become maps, arrays lists, and integral
+ * numbers longs.
+ */
+public final class FrontMatter {
+    public static final String DELIMITER = "---";
+
+    private FrontMatter() {
+    }
+
+    /**
+     * Read the header of a page. A page that does not start with a JSON
+     * object has no header, unless it starts with the delimiter.
+     * @param reader Reader of the page, left after the delimiter
+     * @return Keys and values of the header, empty if there is none
+     * @throws IOException Error while reading the page
+     * @throws JsonSyntaxException The header is not a valid JSON object
+     */
+    public static Map<String, Object> read(BufferedReader reader) throws IOException {
+        reader.mark(1);
+        int first = reader.read();
+        while (first != -1 && Character.isWhitespace(first)) {
+            reader.mark(1);
+            first = reader.read();
+        }
+        reader.reset();
+
+        if (first != '{') {
+            // An empty header is only made of the delimiter
+            if (first == '-')
+                HeaderReader.skipDelimiter(reader);
+            return new LinkedHashMap<>();
+        }
+
+        HeaderReader header = new HeaderReader(reader);
+        try {
+            JsonReader json = new JsonReader(header);
+            // As lenient as Gson#fromJson, used for the headers before
+            json.setLenient(true);
+            Object value = readValue(json);
+            if (json.peek() != JsonToken.END_DOCUMENT)
+                throw new JsonSyntaxException("Unexpected content after the page header");
+            if (!(value instanceof Map))
+                throw new JsonSyntaxException("The page header must be a JSON object");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> metaData = (Map<String, Object>) value;
+            return metaData;
+        } catch (MalformedJsonException | EOFException | IllegalStateException e) {
+            throw new JsonSyntaxException("Invalid page header: " + e.getMessage(), e);
+        } finally {
+            header.skipToDelimiter();
+        }
+    }
+
+    /**
+     * Get a header value as a string
+     * @param metaData Header of a page
+     * @param key Key of the value
+     * @return Value, or null if it is missing or not a string
+     */
+    public static String getString(Map<String, Object> metaData, String key) {
+        Object value = metaData.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Reader ending at the delimiter line, which it consumes
+     */
+    private static class HeaderReader extends Reader {
+        private final BufferedReader in;
+        private boolean lineStart = true;
+        private boolean ended;
+
+        HeaderReader(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            int count = 0;
+            while (count < length && !ended) {
+                if (lineStart && skipDelimiter(in)) {
+                    ended = true;
+                    break;
+                }
+                int c = in.read();
+                if (c == -1) {
+                    ended = true;
+                    break;
+                }
+                buffer[offset + count++] = (char) c;
+                lineStart = c == '\n';
+            }
+            return count == 0 && ended ? -1 : count;
+        }
+
+        /**
+         * Read what is left of the header, so that the page reader is
+         * after the delimiter
+         */
+        void skipToDelimiter() throws IOException {
+            char[] buffer = new char[256];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // Only whitespace is expected here
+            }
+        }
+
+        /**
+         * Consume the delimiter line if the reader is at its start
+         * @return True if the delimiter was consumed
+         */
+        static boolean skipDelimiter(BufferedReader in) throws IOException {
+            in.mark(DELIMITER.length() + 2);
+            for (int i = 0; i < DELIMITER.length(); i++) {
+                if (in.read() != DELIMITER.charAt(i)) {
+                    in.reset();
+                    return false;
+                }
+            }
+            int c = in.read();
+            if (c == '\r')
+                c = in.read();
+            if (c == '\n' || c == -1)
+                return true;
+            in.reset();
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The page reader is closed by its owner
+        }
+    }
+
+    /**
+     * Read any JSON value into plain Java objects, keeping integral
+     * numbers as longs
+     */
+    private static Object readValue(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case BEGIN_OBJECT:
+                Map<String, Object> map = new LinkedHashMap<>();
+                in.beginObject();
+                while (in.hasNext()) {
+                    map.put(in.nextName(), readValue(in));
+                }
+                in.endObject();
+                return map;
+            case BEGIN_ARRAY:
+                List<Object> list = new ArrayList<>();
+                in.beginArray();
+                while (in.hasNext()) {
+                    list.add(readValue(in));
+                }
+                in.endArray();
+                return list;
+            case STRING:
+                return in.nextString();
+            case NUMBER:
+                String number = in.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            case BOOLEAN:
+                return in.nextBoolean();
+            case NULL:
+                in.nextNull();
+                return null;
+            default:
+                throw new JsonSyntaxException("Unexpected " + in.peek() + " in the page header");
+        }
+    }
+}
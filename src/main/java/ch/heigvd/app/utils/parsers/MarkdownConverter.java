@@ -1,14 +1,87 @@
 package ch.heigvd.app.utils.parsers;
 
+import com.vladsch.flexmark.ext.autolink.AutolinkExtension;
+import com.vladsch.flexmark.ext.gfm.strikethrough.StrikethroughExtension;
+import com.vladsch.flexmark.ext.gfm.tasklist.TaskListExtension;
+import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.ast.IndentedCodeBlock;
+import com.vladsch.flexmark.ast.Text;
 import com.vladsch.flexmark.util.ast.Node;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.misc.Extension;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
- * MarkdownConverter class
+ * MarkdownConverter class. An instance holds a configured parser and
+ * renderer that are built once and can be shared between threads.
  */
 public class MarkdownConverter {
+    /**
+     * Extensions enabled when the site config does not list any
+     */
+    public static final List<String> DEFAULT_EXTENSIONS = List.of("tables", "tasklists", "strikethrough", "autolink");
+
+    private static final Map<String, Supplier<Extension>> EXTENSIONS = Map.of(
+            "tables", TablesExtension::create,
+            "tasklists", TaskListExtension::create,
+            "strikethrough", StrikethroughExtension::create,
+            "autolink", AutolinkExtension::create
+    );
+
+    private static final MarkdownConverter DEFAULT = new MarkdownConverter(DEFAULT_EXTENSIONS);
+
+    private final List<String> extensions;
+    private final Parser parser;
+    private final HtmlRenderer renderer;
+
+    /**
+     * MarkdownConverter constructor
+     * @param extensions Names of the extensions to enable (tables,
+     *                   tasklists, strikethrough, autolink)
+     */
+    public MarkdownConverter(Collection<String> extensions) {
+        List<Extension> enabled = new ArrayList<>();
+        for (String name : extensions) {
+            Supplier<Extension> extension = EXTENSIONS.get(name);
+            if (extension == null)
+                throw new IllegalArgumentException("Unknown markdown extension: " + name);
+            enabled.add(extension.get());
+        }
+        this.extensions = List.copyOf(extensions);
+
+        // Used to add options
+        MutableDataSet options = new MutableDataSet();
+        options.set(Parser.EXTENSIONS, enabled);
+
+        this.parser = Parser.builder(options).build();
+        this.renderer = HtmlRenderer.builder(options).build();
+    }
+
+    /**
+     * Get the converter used by default, with the default extensions
+     * @return Shared converter
+     */
+    public static MarkdownConverter getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the extensions enabled in this converter
+     * @return Names of the extensions
+     */
+    public List<String> getExtensions() {
+        return extensions;
+    }
 
     /**
      * Converts a markdown file to html
@@ -17,14 +90,71 @@ public class MarkdownConverter {
      * @see <a href="https://github.com/vsch/flexmark-java">FlexMark</a>
      */
     public static String convert(String input) {
+        return DEFAULT.render(input);
+    }
 
-        // Used to add options
-        MutableDataSet options = new MutableDataSet();
-
-        Parser parser = Parser.builder(options).build();
-        HtmlRenderer renderer = HtmlRenderer.builder(options).build();
+    /**
+     * Converts a whole markdown document to html
+     * @param input input markdown text
+     * @return input text converted to html
+     */
+    public String render(String input) {
         Node document = parser.parse(input);
 
         return renderer.render(document);
     }
-}
\ No newline at end of file
+
+    /**
+     * Converts a whole markdown document to html without building
+     * intermediate strings
+     * @param input Reader of the markdown text
+     * @param output Where the html is appended
+     * @throws IOException Error while reading the markdown
+     */
+    public void render(Reader input, Appendable output) throws IOException {
+        parse(input).render(output);
+    }
+
+    /**
+     * Parse a whole markdown document, to render it later
+     * @param input Reader of the markdown text
+     * @return Parsed document
+     * @throws IOException Error while reading the markdown
+     */
+    public Document parse(Reader input) throws IOException {
+        return new Document(parser.parseReader(input));
+    }
+
+    /**
+     * A parsed markdown document, rendered by the converter that parsed it
+     */
+    public class Document {
+        private final Node root;
+
+        private Document(Node root) {
+            this.root = root;
+        }
+
+        /**
+         * Render the document as html
+         * @param output Where the html is appended
+         */
+        public void render(Appendable output) {
+            renderer.render(root, output);
+        }
+
+        /**
+         * Give the text of the document without its markup, piece by piece,
+         * without copying it
+         * @param visitor Called with each text of the document, in order
+         */
+        public void visitText(Consumer<CharSequence> visitor) {
+            for (Node node : root.getDescendants()) {
+                if (node instanceof Text)
+                    visitor.accept(node.getChars());
+                else if (node instanceof IndentedCodeBlock)
+                    visitor.accept(((IndentedCodeBlock) node).getContentChars());
+            }
+        }
+    }
+}
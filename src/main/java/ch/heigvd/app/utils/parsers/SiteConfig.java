@@ -1,13 +1,24 @@
 package ch.heigvd.app.utils.parsers;
 
+import java.util.List;
+
 /**
  * Mimics the config.json structure in order map its data
  * into a java object.
  */
 public class SiteConfig {
+    public static final int DEFAULT_FEED_SIZE = 20;
+    public static final int DEFAULT_PAGE_SIZE = 10;
+
     private final String title;
     private final String lang;
     private final String charset;
+    private final List<String> markdownExtensions;
+    private final List<String> watchIgnore;
+    private final String url;
+    private final Integer feedSize;
+    private final Integer pageSize;
+    private final Boolean search;
 
     /**
      * Constructor for test purpose
@@ -20,6 +31,12 @@ public class SiteConfig {
         this.title = title;
         this.lang = lang;
         this.charset = charset;
+        this.markdownExtensions = null;
+        this.watchIgnore = null;
+        this.url = null;
+        this.feedSize = null;
+        this.pageSize = null;
+        this.search = null;
     }
 
     /**
@@ -45,4 +62,55 @@ public class SiteConfig {
     public String getCharset() {
         return charset;
     }
-}
\ No newline at end of file
+
+    /**
+     * Get the markdown extensions to enable
+     * @return Config markdown extensions, or the default ones if none are given
+     */
+    public List<String> getMarkdownExtensions() {
+        return markdownExtensions != null ? markdownExtensions : MarkdownConverter.DEFAULT_EXTENSIONS;
+    }
+
+    /**
+     * Get the globs of the paths that watch mode must ignore
+     * @return Config watch ignore globs, relative to the site directory
+     */
+    public List<String> getWatchIgnore() {
+        return watchIgnore != null ? watchIgnore : List.of();
+    }
+
+    /**
+     * Get the URL where the site is published, needed by the sitemap and
+     * the feed
+     * @return Config URL without the trailing slash, or null if none is given
+     */
+    public String getUrl() {
+        if (url == null || url.isBlank())
+            return null;
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * Get the number of pages in the feed
+     * @return Config feed size, or the default one if none is given
+     */
+    public int getFeedSize() {
+        return feedSize != null && feedSize > 0 ? feedSize : DEFAULT_FEED_SIZE;
+    }
+
+    /**
+     * Get the number of pages listed by each tag and archive page
+     * @return Config page size, or the default one if none is given
+     */
+    public int getPageSize() {
+        return pageSize != null && pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Check if the build must make the search index of the site
+     * @return Config search, false if none is given
+     */
+    public boolean isSearch() {
+        return search != null && search;
+    }
+}
@@ -0,0 +1,465 @@
+package ch.heigvd.app.utils.search;
+
+import ch.heigvd.app.utils.build.Generations;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Inverted index of the words of the pages, for the search of the site.
+ * A build adds the pages it renders and removes the deleted ones, from
+ * any worker thread, then {@link #write(Path, Collection, Collection)}
+ * merges them with the index of the previous build. Unchanged pages are
+ * never tokenized again: the previous index is read as a stream, already
+ * sorted, and only the postings of the changed pages are dropped from it.
+ *
+ * The index is written twice in the build directory. The binary file
+ * {@value #FILENAME} is mapped by the server to answer queries, see
+ * {@link SearchIndexReader}, and is read back by the next build. Browsers
+ * get JSON files under {@value #DIRECTORY}: one per shard of terms, named
+ * by {@link Tokenizer#shard(String)}, giving the page ids of each term,
+ * and docs-N.json giving the URL and title of the pages of ids N*1000 to
+ * N*1000+999. Only the JSON files that changed are written again.
+ */
+public class SearchIndex {
+    public static final String FILENAME = ".search-index";
+    public static final String DIRECTORY = "search";
+    public static final int DOCS_PER_CHUNK = 1000;
+    static final int MAGIC = 0x53524348;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final String DOCS_PREFIX = "docs-";
+    private static final String JSON_EXTENSION = ".json";
+    private static final int STRIPES = 64;
+
+    private final SearchIndexReader previous;
+    private final int previousDocCount;
+    // Guarded by this
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<Doc> docs = new ArrayList<>();
+    private final BitSet stale = new BitSet();
+    private final BitSet changedDocs = new BitSet();
+    // Postings of the pages added by this build, locked by stripe
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private SearchIndex(SearchIndexReader previous) {
+        this.previous = previous;
+        this.previousDocCount = previous == null ? 0 : previous.getDocCount();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        for (int id = 0; id < previousDocCount; id++) {
+            if (previous.isHole(id)) {
+                docs.add(null);
+            } else {
+                Doc doc = new Doc(previous.source(id), previous.url(id), previous.title(id));
+                docs.add(doc);
+                ids.put(doc.source, id);
+            }
+        }
+    }
+
+    /**
+     * Start an index from the one of a previous build
+     * @param directory Build directory holding the previous index, or null
+     *                  to start from an empty index
+     * @return Index to update
+     */
+    public static SearchIndex open(Path directory) {
+        return new SearchIndex(directory == null ? null : SearchIndexReader.open(directory.resolve(FILENAME)));
+    }
+
+    /**
+     * Check if a build directory has a search index
+     * @param directory Build directory
+     * @return True if the index file exists
+     */
+    public static boolean exists(Path directory) {
+        return Files.isRegularFile(directory.resolve(FILENAME));
+    }
+
+    /**
+     * Add a page, or replace it if it was already indexed
+     * @param source Source path relative to the site directory
+     * @param url URL of the page, from the root of the site
+     * @param title Title of the page, or null
+     * @param terms Terms of the page, see {@link Tokenizer}
+     */
+    public void add(String source, String url, String title, Set<String> terms) {
+        int id;
+        synchronized (this) {
+            Integer existing = ids.get(source);
+            if (existing == null) {
+                id = docs.size();
+                docs.add(null);
+                ids.put(source, id);
+            } else {
+                id = existing;
+                stale.set(id);
+            }
+            docs.set(id, new Doc(source, url, title));
+            changedDocs.set(id);
+        }
+        for (String term : terms) {
+            Stripe stripe = stripes[term.hashCode() & (STRIPES - 1)];
+            synchronized (stripe) {
+                stripe.postings.computeIfAbsent(term, t -> new IntList()).add(id);
+            }
+        }
+    }
+
+    /**
+     * Remove a page, if it was indexed
+     * @param source Source path relative to the site directory
+     */
+    public synchronized void remove(String source) {
+        Integer id = ids.remove(source);
+        if (id == null)
+            return;
+        docs.set(id, null);
+        stale.set(id);
+        changedDocs.set(id);
+    }
+
+    /**
+     * Check if pages were added or removed since the index was opened
+     * @return True if the index must be written
+     */
+    public synchronized boolean hasChanges() {
+        return !changedDocs.isEmpty();
+    }
+
+    /**
+     * Merge the pages added and removed with the previous index, and write
+     * the index files that changed. Called once the pages are indexed.
+     * @param directory Build directory
+     * @param written Where the paths of the written JSON files are added
+     * @param removed Where the paths of the deleted JSON files are added
+     * @throws IOException Error while writing the index
+     */
+    public synchronized void write(Path directory, Collection<String> written, Collection<String> removed) throws IOException {
+        Path shardDirectory = directory.resolve(DIRECTORY);
+        Files.createDirectories(shardDirectory);
+
+        // Ids of removed pages are given back once they are half of the ids
+        int holes = 0;
+        for (Doc doc : docs) {
+            if (doc == null)
+                holes++;
+        }
+        int[] remap = null;
+        int docCount = docs.size();
+        if (holes > DOCS_PER_CHUNK && holes * 2 > docs.size()) {
+            remap = new int[docs.size()];
+            docCount = 0;
+            for (int id = 0; id < docs.size(); id++) {
+                remap[id] = docs.get(id) == null ? -1 : docCount++;
+            }
+        }
+        boolean rewriteAll = remap != null || previous == null;
+
+        Path temporary = directory.resolve(FILENAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            out.write(new byte[HEADER_SIZE]);
+
+            int[] docPositions = new int[docCount];
+            for (int id = 0; id < docs.size(); id++) {
+                Doc doc = docs.get(id);
+                if (doc == null)
+                    continue;
+                docPositions[remap == null ? id : remap[id]] = position(out);
+                writeString(out, doc.source);
+                writeString(out, doc.url);
+                writeString(out, doc.title);
+            }
+
+            IntList termPositions = new IntList();
+            mergeTerms(out, termPositions, remap, rewriteAll, shardDirectory, written, removed);
+
+            int docTable = position(out);
+            for (int docPosition : docPositions) {
+                out.writeInt(docPosition);
+            }
+            int termTable = position(out);
+            for (int i = 0; i < termPositions.size; i++) {
+                out.writeInt(termPositions.values[i]);
+            }
+            position(out);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(docCount).putInt(termPositions.size)
+                    .putInt(docTable).putInt(termTable).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+        // Replaced, not rewritten, as the previous build may share the file
+        Files.move(temporary, directory.resolve(FILENAME), StandardCopyOption.REPLACE_EXISTING);
+
+        writeDocChunks(shardDirectory, remap, docCount, rewriteAll, written, removed);
+    }
+
+    /**
+     * Merge the sorted terms of the previous index with the new ones,
+     * writing the binary records and the shards that changed
+     */
+    private void mergeTerms(DataOutputStream out, IntList termPositions, int[] remap, boolean rewriteAll,
+                            Path shardDirectory, Collection<String> written, Collection<String> removed) throws IOException {
+        Map<String, IntList> fresh = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            fresh.putAll(stripe.postings);
+        }
+        String[] freshTerms = fresh.keySet().toArray(new String[0]);
+        Arrays.sort(freshTerms);
+        int previousCount = previous == null ? 0 : previous.getTermCount();
+
+        Shard shard = null;
+        int i = 0;
+        int j = 0;
+        while (i < previousCount || j < freshTerms.length) {
+            String previousTerm = i < previousCount ? previous.term(i) : null;
+            int comparison = previousTerm == null ? 1
+                    : j == freshTerms.length ? -1 : previousTerm.compareTo(freshTerms[j]);
+            String term = comparison <= 0 ? previousTerm : freshTerms[j];
+            int[] old = comparison <= 0 ? previous.postings(i++) : new int[0];
+            int[] added = comparison >= 0 ? fresh.get(freshTerms[j++]).sortedUnique() : new int[0];
+
+            String name = Tokenizer.shard(term);
+            if (shard == null || !shard.name.equals(name)) {
+                if (shard != null)
+                    shard.write(shardDirectory, rewriteAll, written, removed);
+                shard = new Shard(name);
+            }
+
+            int[] kept = keep(old, true, remap);
+            int[] merged = union(kept, keep(added, false, remap));
+            if (old.length > 0)
+                shard.existed = true;
+            // Pages indexed again with the same words leave their shard as is
+            if (!Arrays.equals(old, merged))
+                shard.changed = true;
+            if (merged.length == 0)
+                continue;
+
+            termPositions.add(position(out));
+            writeString(out, term);
+            out.writeInt(merged.length);
+            for (int id : merged) {
+                out.writeInt(id);
+            }
+            shard.terms.add(term);
+            shard.postings.add(merged);
+        }
+        if (shard != null)
+            shard.write(shardDirectory, rewriteAll, written, removed);
+    }
+
+    /**
+     * Drop the ids of the pages removed, and of the pages indexed again if
+     * the ids come from the previous index, then give the others their new id
+     */
+    private int[] keep(int[] ids, boolean previousIds, int[] remap) {
+        int[] kept = new int[ids.length];
+        int count = 0;
+        for (int id : ids) {
+            if ((previousIds && stale.get(id)) || docs.get(id) == null)
+                continue;
+            kept[count++] = remap == null ? id : remap[id];
+        }
+        return count == ids.length ? kept : Arrays.copyOf(kept, count);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        if (b.length == 0)
+            return a;
+        if (a.length == 0)
+            return b;
+        int[] result = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            int next = j == b.length || (i < a.length && a[i] <= b[j]) ? a[i] : b[j];
+            if (i < a.length && a[i] == next)
+                i++;
+            if (j < b.length && b[j] == next)
+                j++;
+            result[count++] = next;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Write the URL and title of the pages, by chunks of ids
+     */
+    private void writeDocChunks(Path shardDirectory, int[] remap, int docCount, boolean rewriteAll,
+                                Collection<String> written, Collection<String> removed) throws IOException {
+        Doc[] byId = new Doc[docCount];
+        for (int id = 0; id < docs.size(); id++) {
+            if (docs.get(id) != null)
+                byId[remap == null ? id : remap[id]] = docs.get(id);
+        }
+
+        int chunks = (docCount + DOCS_PER_CHUNK - 1) / DOCS_PER_CHUNK;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int start = chunk * DOCS_PER_CHUNK;
+            int end = Math.min(docCount, start + DOCS_PER_CHUNK);
+            int nextChanged = changedDocs.nextSetBit(start);
+            if (!rewriteAll && (nextChanged < 0 || nextChanged >= end))
+                continue;
+
+            String name = DOCS_PREFIX + chunk + JSON_EXTENSION;
+            try (JsonWriter json = openJson(shardDirectory.resolve(name))) {
+                json.beginArray();
+                for (int id = start; id < end; id++) {
+                    if (byId[id] == null) {
+                        json.nullValue();
+                    } else {
+                        json.beginArray().value(byId[id].url).value(byId[id].title).endArray();
+                    }
+                }
+                json.endArray();
+            }
+            written.add(DIRECTORY + "/" + name);
+        }
+
+        int previousChunks = (previousDocCount + DOCS_PER_CHUNK - 1) / DOCS_PER_CHUNK;
+        for (int chunk = chunks; chunk < previousChunks; chunk++) {
+            String name = DOCS_PREFIX + chunk + JSON_EXTENSION;
+            if (Files.deleteIfExists(shardDirectory.resolve(name)))
+                removed.add(DIRECTORY + "/" + name);
+        }
+    }
+
+    /**
+     * Remove the index of a build directory
+     * @param directory Build directory
+     * @param removed Where the paths of the deleted JSON files are added
+     * @throws IOException Error while deleting the files
+     */
+    public static void delete(Path directory, Collection<String> removed) throws IOException {
+        Files.deleteIfExists(directory.resolve(FILENAME));
+        Path shardDirectory = directory.resolve(DIRECTORY);
+        if (!Files.isDirectory(shardDirectory))
+            return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(shardDirectory)) {
+            for (Path file : files) {
+                Files.delete(file);
+                removed.add(DIRECTORY + "/" + file.getFileName());
+            }
+        }
+        Files.delete(shardDirectory);
+    }
+
+    private static JsonWriter openJson(Path file) throws IOException {
+        return new JsonWriter(Files.newBufferedWriter(Generations.replaceable(file), StandardCharsets.UTF_8));
+    }
+
+    private static int position(DataOutputStream out) throws IOException {
+        if (out.size() == Integer.MAX_VALUE)
+            throw new IOException("The search index is larger than 2 GB");
+        return out.size();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Indexed page
+     */
+    private static class Doc {
+        private final String source;
+        private final String url;
+        private final String title;
+
+        Doc(String source, String url, String title) {
+            this.source = source;
+            this.url = url;
+            this.title = title;
+        }
+    }
+
+    private static class Stripe {
+        private final Map<String, IntList> postings = new HashMap<>();
+    }
+
+    /**
+     * Terms of a shard, written only if one of them changed
+     */
+    private static class Shard {
+        private final String name;
+        private final List<String> terms = new ArrayList<>();
+        private final List<int[]> postings = new ArrayList<>();
+        private boolean existed;
+        private boolean changed;
+
+        Shard(String name) {
+            this.name = name;
+        }
+
+        void write(Path shardDirectory, boolean rewriteAll, Collection<String> written, Collection<String> removed) throws IOException {
+            String path = DIRECTORY + "/" + name + JSON_EXTENSION;
+            if (terms.isEmpty()) {
+                if (existed && Files.deleteIfExists(shardDirectory.resolve(name + JSON_EXTENSION)))
+                    removed.add(path);
+                return;
+            }
+            if (!changed && !rewriteAll)
+                return;
+
+            try (JsonWriter json = openJson(shardDirectory.resolve(name + JSON_EXTENSION))) {
+                json.beginObject();
+                for (int i = 0; i < terms.size(); i++) {
+                    json.name(terms.get(i)).beginArray();
+                    for (int id : postings.get(i)) {
+                        json.value(id);
+                    }
+                    json.endArray();
+                }
+                json.endObject();
+            }
+            written.add(path);
+        }
+    }
+
+    /**
+     * Growable array of ints
+     */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] sortedUnique() {
+            int[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int count = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1])
+                    sorted[count++] = sorted[i];
+            }
+            return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package ch.heigvd.app.utils.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads a search index file written by {@link SearchIndex}, mapped in
+ * memory: nothing is loaded but the header, and a lookup only touches the
+ * terms met by its binary search and the postings of the term found.
+ * The mapping stays valid when a new build replaces the file.
+ */
+public class SearchIndexReader {
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final int termCount;
+    private final int docTable;
+    private final int termTable;
+
+    private SearchIndexReader(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < SearchIndex.HEADER_SIZE || buffer.getInt(0) != SearchIndex.MAGIC
+                || buffer.getInt(4) != SearchIndex.VERSION)
+            throw new IOException("Not a search index");
+        docCount = buffer.getInt(8);
+        termCount = buffer.getInt(12);
+        docTable = buffer.getInt(16);
+        termTable = buffer.getInt(20);
+    }
+
+    /**
+     * Map a search index file
+     * @param file Index file
+     * @return The reader, or null if there is no index or it cannot be read
+     */
+    public static SearchIndexReader open(Path file) {
+        if (!Files.isRegularFile(file))
+            return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SearchIndexReader(buffer);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Search index could not be read: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Find the pages containing every term of a query
+     * @param query Text of the query
+     * @param limit Maximum number of pages to give
+     * @return Matching pages, in the order of the index
+     */
+    public Result search(String query, int limit) {
+        Set<String> terms = new LinkedHashSet<>();
+        Tokenizer.tokenize(query, terms::add);
+        if (terms.isEmpty())
+            return new Result(0, List.of());
+
+        List<int[]> postings = new ArrayList<>();
+        for (String term : terms) {
+            int index = find(term);
+            if (index < 0)
+                return new Result(0, List.of());
+            postings.add(postings(index));
+        }
+        // Intersect from the rarest term, so that the result only shrinks
+        postings.sort(Comparator.comparingInt(list -> list.length));
+        int[] matches = postings.get(0);
+        for (int i = 1; i < postings.size() && matches.length > 0; i++) {
+            matches = intersect(matches, postings.get(i));
+        }
+
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, matches.length); i++) {
+            pages.add(new Page(url(matches[i]), title(matches[i])));
+        }
+        return new Result(matches.length, pages);
+    }
+
+    /**
+     * Get the number of document ids, holes included
+     */
+    int getDocCount() {
+        return docCount;
+    }
+
+    int getTermCount() {
+        return termCount;
+    }
+
+    /**
+     * Check if a document id is a removed page
+     */
+    boolean isHole(int doc) {
+        return docPosition(doc) == 0;
+    }
+
+    String source(int doc) {
+        return string(docPosition(doc));
+    }
+
+    String url(int doc) {
+        int position = docPosition(doc);
+        return string(skipString(position));
+    }
+
+    String title(int doc) {
+        int position = docPosition(doc);
+        return string(skipString(skipString(position)));
+    }
+
+    /**
+     * Get a term by its index, terms being sorted
+     */
+    String term(int index) {
+        return string(termPosition(index));
+    }
+
+    /**
+     * Get the sorted document ids of a term by its index
+     */
+    int[] postings(int index) {
+        int position = skipString(termPosition(index));
+        int[] postings = new int[buffer.getInt(position)];
+        for (int i = 0; i < postings.length; i++) {
+            postings[i] = buffer.getInt(position + 4 + i * 4);
+        }
+        return postings;
+    }
+
+    /**
+     * Binary search of a term
+     * @return Index of the term, or a negative value if it is missing
+     */
+    int find(String term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = term(middle).compareTo(term);
+            if (comparison < 0)
+                low = middle + 1;
+            else if (comparison > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    private int docPosition(int doc) {
+        return buffer.getInt(docTable + doc * 4);
+    }
+
+    private int termPosition(int index) {
+        return buffer.getInt(termTable + index * 4);
+    }
+
+    private String string(int position) {
+        int length = buffer.getInt(position);
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int skipString(int position) {
+        return position + 4 + Math.max(0, buffer.getInt(position));
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Pages found by a query
+     */
+    public static class Result {
+        private final int total;
+        private final List<Page> pages;
+
+        Result(int total, List<Page> pages) {
+            this.total = total;
+            this.pages = pages;
+        }
+
+        /**
+         * Get the number of matching pages
+         * @return Number of pages, some of them may not be given
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Get the matching pages, up to the limit of the query
+         * @return Pages
+         */
+        public List<Page> getPages() {
+            return pages;
+        }
+    }
+
+    /**
+     * Page found by a query
+     */
+    public static class Page {
+        private final String url;
+        private final String title;
+
+        Page(String url, String title) {
+            this.url = url;
+            this.title = title;
+        }
+
+        /**
+         * Get page URL
+         * @return URL from the root of the site
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Get page title
+         * @return Title, or null
+         */
+        public String getTitle() {
+            return title;
+        }
+    }
+}
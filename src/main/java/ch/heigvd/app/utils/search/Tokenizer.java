@@ -0,0 +1,79 @@
+package ch.heigvd.app.utils.search;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Splits text into the terms of the search index. A term is a run of
+ * letters and digits, in lower case and without accents, so that "Été"
+ * and "ete" are the same term. Queries go through the same tokenizer.
+ */
+public final class Tokenizer {
+    public static final int MIN_LENGTH = 2;
+    public static final int MAX_LENGTH = 40;
+    /**
+     * Number of characters of a term naming its shard
+     */
+    public static final int SHARD_PREFIX_LENGTH = 2;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Split a text into terms
+     * @param text Text to split
+     * @param terms Called with each term, as many times as it appears
+     */
+    public static void tokenize(CharSequence text, Consumer<String> terms) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                int length = i - start;
+                if (length >= MIN_LENGTH && length <= MAX_LENGTH)
+                    terms.accept(normalize(text, start, i));
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Get the shard of a term: its first characters, those that are not
+     * ASCII letters or digits written as _ and their hexadecimal code
+     * @param term Term of the index
+     * @return Name of the shard holding the term
+     */
+    public static String shard(String term) {
+        StringBuilder shard = new StringBuilder();
+        for (int i = 0; i < Math.min(SHARD_PREFIX_LENGTH, term.length()); i++) {
+            char c = term.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9'))
+                shard.append(c);
+            else
+                shard.append('_').append(String.format("%04x", (int) c));
+        }
+        return shard.toString();
+    }
+
+    private static String normalize(CharSequence text, int start, int end) {
+        boolean ascii = true;
+        for (int i = start; i < end && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            char[] term = new char[end - start];
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                term[i - start] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+            }
+            return new String(term);
+        }
+        String decomposed = Normalizer.normalize(text.subSequence(start, end), Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+}
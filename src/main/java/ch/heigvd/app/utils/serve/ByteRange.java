@@ -0,0 +1,89 @@
+package ch.heigvd.app.utils.serve;
+
+import java.util.Locale;
+
+/**
+ * Range of bytes asked by the Range header of a request. Only a single
+ * range is supported: a request for several ranges gets the whole file,
+ * as HTTP allows.
+ */
+public class ByteRange {
+    private static final String UNIT = "bytes=";
+
+    private final long start;
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parse a Range header
+     * @param header Range header of the request, or null
+     * @param size Size of the file
+     * @return Range to send, which may not be satisfiable, or null to send
+     *         the whole file
+     */
+    public static ByteRange parse(String header, long size) {
+        if (header == null || !header.toLowerCase(Locale.ROOT).startsWith(UNIT))
+            return null;
+        String spec = header.substring(UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0)
+            return null;
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the last bytes of the file
+                long suffix = Long.parseLong(last);
+                if (suffix < 0)
+                    return null;
+                return new ByteRange(Math.max(0, size - suffix), size - 1);
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start)
+                return null;
+            // Starting after the end of the file, the range is not satisfiable
+            return new ByteRange(start, Math.min(end, size - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if the range overlaps the file, otherwise a 416 is sent
+     * @return True if there are bytes to send
+     */
+    public boolean isSatisfiable() {
+        return start <= end;
+    }
+
+    /**
+     * Get the first byte
+     * @return Offset of the first byte
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Get the number of bytes
+     * @return Length of the range
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Get the Content-Range header of the response
+     * @param size Size of the file
+     * @return Header value
+     */
+    public String toContentRange(long size) {
+        return isSatisfiable() ? "bytes " + start + "-" + end + "/" + size : "bytes */" + size;
+    }
+}
@@ -0,0 +1,306 @@
+package ch.heigvd.app.utils.serve;
+
+import ch.heigvd.app.utils.build.BuildResult;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * In-memory cache of the files of a build directory, bounded by a number
+ * of bytes. The least recently used files are evicted first. Files larger
+ * than a quarter of the budget are read on every request instead of
+ * evicting most of the cache. Files larger than the stream threshold are
+ * never read in memory: they are sent from disk, as they are, so the
+ * transformer does not apply to them.
+ *
+ * Entries are only read from disk on a miss: after a rebuild,
+ * {@link #invalidate(BuildResult)} must be called to drop the outputs the
+ * build changed.
+ */
+public class FileCache {
+    public static final long DEFAULT_STREAM_THRESHOLD = 1024 * 1024;
+    private static final int MAX_ENTRY_FRACTION = 4;
+
+    /**
+     * Modifies the content of the files when they are read from disk
+     */
+    public interface Transformer {
+        /**
+         * Transform the content of a file
+         * @param relativePath Path of the file, relative to the root
+         * @param content Content read from disk
+         * @return New content, or the same array to keep the file as it is
+         */
+        byte[] transform(String relativePath, byte[] content);
+    }
+
+    private final Path root;
+    private final long maxBytes;
+    private final Transformer transformer;
+    private final long streamThreshold;
+    private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes = 0;
+    // Incremented on each invalidation, so that a file read before it is not cached after it
+    private long generation = 0;
+
+    /**
+     * FileCache constructor
+     * @param root Directory of the served files
+     * @param maxBytes Maximum number of bytes kept in memory
+     */
+    public FileCache(Path root, long maxBytes) {
+        this(root, maxBytes, null);
+    }
+
+    /**
+     * FileCache constructor
+     * @param root Directory of the served files
+     * @param maxBytes Maximum number of bytes kept in memory
+     * @param transformer Transformation applied to the files read from disk, or null
+     */
+    public FileCache(Path root, long maxBytes, Transformer transformer) {
+        this(root, maxBytes, transformer, DEFAULT_STREAM_THRESHOLD);
+    }
+
+    /**
+     * FileCache constructor
+     * @param root Directory of the served files
+     * @param maxBytes Maximum number of bytes kept in memory
+     * @param transformer Transformation applied to the files read from disk, or null
+     * @param streamThreshold Size above which files are streamed from disk
+     */
+    public FileCache(Path root, long maxBytes, Transformer transformer, long streamThreshold) {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.transformer = transformer;
+        this.streamThreshold = streamThreshold;
+    }
+
+    /**
+     * Get a file, reading it from disk if it is not cached
+     * @param relativePath Path relative to the root, with '/' separators
+     * @return File, or null if it does not exist or is outside the root
+     * @throws IOException Error while reading the file
+     */
+    public CachedFile get(String relativePath) throws IOException {
+        long readGeneration;
+        synchronized (this) {
+            CachedFile cached = entries.get(relativePath);
+            if (cached != null)
+                return cached;
+            readGeneration = generation;
+        }
+
+        CachedFile file = load(relativePath);
+        if (file == null || file.isStreamed() || file.getContent().length > maxBytes / MAX_ENTRY_FRACTION)
+            return file;
+
+        synchronized (this) {
+            if (readGeneration != generation)
+                return file;
+            CachedFile previous = entries.put(relativePath, file);
+            if (previous != null)
+                usedBytes -= previous.getContent().length;
+            usedBytes += file.getContent().length;
+
+            Iterator<CachedFile> eldest = entries.values().iterator();
+            while (usedBytes > maxBytes && eldest.hasNext()) {
+                usedBytes -= eldest.next().getContent().length;
+                eldest.remove();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Drop the files changed by a build
+     * @param result Result of the build
+     */
+    public synchronized void invalidate(BuildResult result) {
+        generation++;
+        if (result.isFull()) {
+            entries.clear();
+            usedBytes = 0;
+            return;
+        }
+        for (String output : result.getWrittenOutputs()) {
+            remove(output);
+        }
+        for (String output : result.getRemovedOutputs()) {
+            remove(output);
+        }
+    }
+
+    /**
+     * Get the number of bytes kept in memory
+     * @return Size of the cached files
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Get the number of cached files
+     * @return Number of files kept in memory
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(String relativePath) {
+        CachedFile removed = entries.remove(relativePath);
+        if (removed != null)
+            usedBytes -= removed.getContent().length;
+    }
+
+    /**
+     * Read a file from disk, or only its attributes if it must be streamed
+     * @return File, or null if it is not a regular file under the root
+     */
+    private CachedFile load(String relativePath) throws IOException {
+        Path file = root.resolve(relativePath).normalize();
+        if (!file.startsWith(root))
+            return null;
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attrs.isRegularFile())
+                return null;
+            if (attrs.size() > streamThreshold) {
+                // Strong enough, as outputs are replaced and never modified in place
+                String etag = "\"" + Long.toHexString(attrs.size()) + "-"
+                        + Long.toHexString(attrs.lastModifiedTime().toMillis()) + "\"";
+                return new CachedFile(file, attrs.size(), MimeTypes.get(relativePath), etag,
+                        attrs.lastModifiedTime().toMillis());
+            }
+            byte[] read = Files.readAllBytes(file);
+            byte[] content = transformer == null ? read : transformer.transform(relativePath, read);
+            return new CachedFile(content, MimeTypes.get(relativePath), etag(content),
+                    attrs.lastModifiedTime().toMillis(), content != read);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compute a strong ETag from the content of a file
+     */
+    private static String etag(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder("\"");
+            // 128 bits are plenty to tell two versions of a file apart
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * A file with the metadata needed to answer a request
+     */
+    public static class CachedFile {
+        private final byte[] content;
+        private final Path path;
+        private final long size;
+        private final String contentType;
+        private final String etag;
+        private final long lastModified;
+        private final boolean transformed;
+
+        CachedFile(byte[] content, String contentType, String etag, long lastModified, boolean transformed) {
+            this.content = content;
+            this.path = null;
+            this.size = content.length;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.transformed = transformed;
+        }
+
+        CachedFile(Path path, long size, String contentType, String etag, long lastModified) {
+            this.content = null;
+            this.path = path;
+            this.size = size;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.transformed = false;
+        }
+
+        /**
+         * Get the content of the file, which must not be modified
+         * @return Bytes of the file, or null if it is streamed
+         */
+        public byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * Check if the file is too large to be read in memory
+         * @return True if the file must be sent from {@link #getPath()}
+         */
+        public boolean isStreamed() {
+            return content == null;
+        }
+
+        /**
+         * Get the file to stream
+         * @return Path of the file, or null if it is in memory
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Get the size of the content sent
+         * @return Number of bytes of the content, or of the file if it is streamed
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Get the content type of the file
+         * @return MIME type matching the extension of the file
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Get the entity tag of the file
+         * @return Quoted ETag, from the content, or from the size and date of a streamed file
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Get the date the file was last modified
+         * @return Milliseconds since the epoch
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Check if the content differs from the file on disk, in which
+         * case its precompressed copy must not be used
+         * @return True if the content was transformed
+         */
+        public boolean isTransformed() {
+            return transformed;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ch.heigvd.app.utils.serve;
+
+import ch.heigvd.app.utils.build.BuildResult;
+import ch.heigvd.app.utils.build.Precompressor;
+import com.google.gson.Gson;
+import io.javalin.http.sse.SseClient;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pushes the URLs changed by each rebuild to the open pages, through a
+ * Server-Sent Events endpoint. A small script injected in the served HTML
+ * listens to it: a page reloads only if its own URL or one of the files
+ * it uses changed, and changed stylesheets are swapped without reloading.
+ */
+public class LiveReload {
+    public static final String ENDPOINT = "/__livereload";
+    private static final String EVENT_NAME = "change";
+    // Sent instead of the URLs when any file may have changed
+    private static final String ALL_URLS = "*";
+    private static final String INDEX_FILENAME = "index.html";
+    private static final Pattern BODY_END = Pattern.compile("</body\\s*>", Pattern.CASE_INSENSITIVE);
+    private static final Gson GSON = new Gson();
+
+    private static final String SCRIPT = "<script>(function () {\n"
+            + "  var source = new EventSource('" + ENDPOINT + "');\n"
+            + "  function path(url) { return new URL(url, location.href).pathname; }\n"
+            + "  source.addEventListener('" + EVENT_NAME + "', function (event) {\n"
+            + "    var urls = JSON.parse(event.data);\n"
+            + "    if (urls.indexOf('" + ALL_URLS + "') >= 0) { location.reload(); return; }\n"
+            + "    var here = location.pathname;\n"
+            + "    var used = [here];\n"
+            + "    document.querySelectorAll('script[src], img[src], source[src], video[src], audio[src], link[href]:not([rel=stylesheet])')\n"
+            + "      .forEach(function (el) { used.push(path(el.getAttribute('src') || el.getAttribute('href'))); });\n"
+            + "    if (urls.some(function (url) { return used.indexOf(url) >= 0; })) { location.reload(); return; }\n"
+            + "    document.querySelectorAll('link[rel=stylesheet][href]').forEach(function (link) {\n"
+            + "      var href = link.getAttribute('href').replace(/[?&]livereload=\\d+/, '');\n"
+            + "      if (urls.indexOf(path(href)) >= 0)\n"
+            + "        link.setAttribute('href', href + (href.indexOf('?') >= 0 ? '&' : '?') + 'livereload=' + Date.now());\n"
+            + "    });\n"
+            + "  });\n"
+            + "})();</script>\n";
+
+    private final Set<SseClient> clients = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Get the handler of the endpoint, to register with Javalin#sse
+     * @return Handler keeping the connected clients
+     */
+    public Consumer<SseClient> getHandler() {
+        return client -> {
+            clients.add(client);
+            client.onClose(() -> clients.remove(client));
+        };
+    }
+
+    /**
+     * Get the number of connected pages
+     * @return Number of open connections
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Send the URLs changed by a build to every connected page
+     * @param result Result of the build
+     */
+    public void notify(BuildResult result) {
+        Set<String> urls = changedUrls(result);
+        if (urls.isEmpty() || clients.isEmpty())
+            return;
+
+        String data = GSON.toJson(urls);
+        for (SseClient client : clients) {
+            client.sendEvent(EVENT_NAME, data);
+        }
+    }
+
+    /**
+     * Get the URLs of the outputs changed by a build. A directory index is
+     * reachable with and without its file name.
+     * @param result Result of the build
+     * @return Paths of the changed URLs, or "*" after a full build
+     */
+    public static Set<String> changedUrls(BuildResult result) {
+        Set<String> urls = new TreeSet<>();
+        if (result.isFull()) {
+            urls.add(ALL_URLS);
+            return urls;
+        }
+
+        Set<String> outputs = new TreeSet<>(result.getWrittenOutputs());
+        outputs.addAll(result.getRemovedOutputs());
+        for (String output : outputs) {
+            // Compressed copies have the same URL as their output
+            if (output.endsWith(Precompressor.GZIP_EXTENSION))
+                continue;
+            String url = toUrl(output);
+            urls.add(url);
+            if (url.endsWith("/" + INDEX_FILENAME))
+                urls.add(url.substring(0, url.length() - INDEX_FILENAME.length()));
+        }
+        return urls;
+    }
+
+    /**
+     * Get the URL of an output, percent-encoded as in location.pathname
+     */
+    private static String toUrl(String output) {
+        try {
+            return new URI(null, null, "/" + output, null).getRawPath();
+        } catch (URISyntaxException e) {
+            return "/" + output;
+        }
+    }
+
+    /**
+     * Add the client script to a served HTML file, before the end of its
+     * body if it has one. Other files are left as they are.
+     * @param relativePath Path of the file in the build directory
+     * @param content Content of the file
+     * @return Content with the script if the file is an HTML file
+     */
+    public static byte[] inject(String relativePath, byte[] content) {
+        if (!relativePath.endsWith(".html") && !relativePath.endsWith(".htm"))
+            return content;
+
+        String html = new String(content, StandardCharsets.UTF_8);
+        int position = html.length();
+        Matcher matcher = BODY_END.matcher(html);
+        while (matcher.find()) {
+            position = matcher.start();
+        }
+        return (html.substring(0, position) + SCRIPT + html.substring(position)).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,41 @@
+package ch.heigvd.app.utils.serve;
+
+import ch.heigvd.app.utils.search.SearchIndex;
+import ch.heigvd.app.utils.search.SearchIndexReader;
+
+import java.nio.file.Path;
+
+/**
+ * Search index of a build directory, mapped in memory. It is mapped again
+ * after each build, queries in progress keep the one they started with.
+ */
+public class MappedSearchIndex {
+    private final Path indexFile;
+    private volatile SearchIndexReader reader;
+
+    /**
+     * MappedSearchIndex constructor
+     * @param buildPath Build directory
+     */
+    public MappedSearchIndex(Path buildPath) {
+        this.indexFile = buildPath.resolve(SearchIndex.FILENAME);
+    }
+
+    /**
+     * Map the index written by the last build
+     */
+    public void reload() {
+        reader = SearchIndexReader.open(indexFile);
+    }
+
+    /**
+     * Find the pages containing every term of a query
+     * @param query Text of the query
+     * @param limit Maximum number of pages to give
+     * @return Matching pages, or null if the site has no search index
+     */
+    public SearchIndexReader.Result search(String query, int limit) {
+        SearchIndexReader current = reader;
+        return current == null ? null : current.search(query, limit);
+    }
+}
@@ -0,0 +1,59 @@
+package ch.heigvd.app.utils.serve;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.net.URLConnection;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Content types of the files of a site, found from their extension
+ */
+public final class MimeTypes {
+    private static final String DEFAULT_TYPE = "application/octet-stream";
+    private static final Map<String, String> TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("htm", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("mjs", "text/javascript; charset=utf-8"),
+            Map.entry("json", "application/json"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("txt", "text/plain; charset=utf-8"),
+            Map.entry("md", "text/markdown; charset=utf-8"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("avif", "image/avif"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("ttf", "font/ttf"),
+            Map.entry("otf", "font/otf"),
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("zip", "application/zip"),
+            Map.entry("gz", "application/gzip"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("webm", "video/webm"),
+            Map.entry("mp3", "audio/mpeg"),
+            Map.entry("wasm", "application/wasm")
+    );
+
+    private MimeTypes() {
+    }
+
+    /**
+     * Get the content type of a file
+     * @param fileName Name or path of the file
+     * @return Content type, application/octet-stream if unknown
+     */
+    public static String get(String fileName) {
+        String type = TYPES.get(FilenameUtils.getExtension(fileName).toLowerCase(Locale.ROOT));
+        if (type == null)
+            type = URLConnection.guessContentTypeFromName(fileName);
+        return type == null ? DEFAULT_TYPE : type;
+    }
+}
@@ -0,0 +1,72 @@
+package ch.heigvd.app.utils.serve;
+
+import ch.heigvd.app.utils.search.SearchIndexReader;
+import com.google.gson.Gson;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers the queries of {@value #ENDPOINT}?q=words&amp;limit=20 from the
+ * search index of the build directory. The answer is JSON: the query, the
+ * number of matching pages and the URL and title of the first ones.
+ */
+public class SearchHandler implements Handler {
+    public static final String ENDPOINT = "/search";
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 100;
+    private static final Gson GSON = new Gson();
+
+    private final MappedSearchIndex index;
+
+    /**
+     * SearchHandler constructor
+     * @param index Search index of the build directory
+     */
+    public SearchHandler(MappedSearchIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public void handle(@NotNull Context ctx) {
+        String query = ctx.queryParam("q");
+        if (query == null)
+            query = "";
+        int limit = DEFAULT_LIMIT;
+        try {
+            String limitParam = ctx.queryParam("limit");
+            if (limitParam != null)
+                limit = Math.max(0, Math.min(MAX_LIMIT, Integer.parseInt(limitParam)));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+
+        SearchIndexReader.Result result = index.search(query, limit);
+        if (result == null) {
+            ctx.status(404);
+            return;
+        }
+
+        List<Map<String, String>> results = new ArrayList<>();
+        for (SearchIndexReader.Page page : result.getPages()) {
+            Map<String, String> item = new LinkedHashMap<>();
+            item.put("url", page.getUrl());
+            item.put("title", page.getTitle());
+            results.add(item);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("query", query);
+        body.put("total", result.getTotal());
+        body.put("results", results);
+
+        ctx.header("Cache-Control", "no-cache");
+        ctx.contentType("application/json");
+        ctx.result(GSON.toJson(body));
+    }
+}
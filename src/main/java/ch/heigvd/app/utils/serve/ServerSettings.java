@@ -0,0 +1,137 @@
+package ch.heigvd.app.utils.serve;
+
+/**
+ * Port and concurrency settings of the {@link SiteServer}. Connections are
+ * accepted by the acceptor threads, and their requests handled by a pool
+ * of workers. Requests waiting for a free worker are queued, and refused
+ * once the queue is full. Jetty takes its acceptor, selector and reserved
+ * threads from the workers: their numbers are chosen here as Jetty would,
+ * and given to it, so that too few workers are refused before the server
+ * starts.
+ */
+public class ServerSettings {
+    public static final int DEFAULT_PORT = 7070;
+    public static final int DEFAULT_WORKERS = 200;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    // Let Jetty choose from the number of cores
+    public static final int DEFAULT_ACCEPTORS = -1;
+    // No limit
+    public static final int DEFAULT_QUEUE_SIZE = 0;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private final int port;
+    private final int acceptors;
+    private final int workers;
+    private final long idleTimeout;
+    private final int queueSize;
+
+    /**
+     * ServerSettings constructor
+     * @param port Port to listen on, 0 for any free port
+     * @param acceptors Number of threads accepting connections, -1 to let Jetty choose
+     * @param workers Maximum number of threads handling requests
+     * @param idleTimeout Milliseconds after which an idle connection is closed
+     * @param queueSize Number of requests waiting for a worker, 0 for no limit
+     */
+    public ServerSettings(int port, int acceptors, int workers, long idleTimeout, int queueSize) {
+        if (port < 0 || port > 65535)
+            throw new IllegalArgumentException("Port must be between 0 and 65535!");
+        if (acceptors == 0 || acceptors < DEFAULT_ACCEPTORS)
+            throw new IllegalArgumentException("At least one acceptor is needed!");
+        if (workers < 1)
+            throw new IllegalArgumentException("At least one worker is needed!");
+        if (idleTimeout < 1)
+            throw new IllegalArgumentException("Idle timeout must be positive!");
+        if (queueSize < 0)
+            throw new IllegalArgumentException("Queue size cannot be negative!");
+        this.port = port;
+        this.acceptors = acceptors;
+        this.workers = workers;
+        this.idleTimeout = idleTimeout;
+        this.queueSize = queueSize;
+        if (workers < getRequiredWorkers())
+            throw new IllegalArgumentException("At least " + getRequiredWorkers() + " workers are needed for "
+                    + getAcceptorThreads() + " acceptor(s), " + getSelectorThreads() + " selector(s) and "
+                    + getReservedThreads() + " reserved thread(s)!");
+    }
+
+    /**
+     * Get the default settings
+     * @return Settings of Jetty, on port {@value #DEFAULT_PORT}
+     */
+    public static ServerSettings defaults() {
+        return new ServerSettings(DEFAULT_PORT, DEFAULT_ACCEPTORS, DEFAULT_WORKERS, DEFAULT_IDLE_TIMEOUT, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Get the port to listen on
+     * @return Port, 0 for any free port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the number of acceptors asked for
+     * @return Number of threads accepting connections, -1 to let Jetty choose
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * Get the maximum number of workers
+     * @return Maximum number of threads handling requests
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Get the idle timeout of the connections
+     * @return Milliseconds after which an idle connection is closed
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Get the size of the queue of requests
+     * @return Number of requests waiting for a worker, 0 for no limit
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Get the number of acceptor threads, chosen as Jetty does when none is asked for
+     * @return Number of threads accepting connections
+     */
+    public int getAcceptorThreads() {
+        return acceptors > 0 ? acceptors : Math.max(1, Math.min(4, CORES / 8));
+    }
+
+    /**
+     * Get the number of selector threads, chosen as Jetty does
+     * @return Number of threads reading and writing the connections
+     */
+    public int getSelectorThreads() {
+        return Math.max(1, Math.min(CORES / 2, workers / 16));
+    }
+
+    /**
+     * Get the number of threads Jetty keeps ready to run tasks, chosen as Jetty does
+     * @return Number of reserved threads
+     */
+    public int getReservedThreads() {
+        return Math.max(1, Math.min(CORES, workers / 10));
+    }
+
+    /**
+     * Get the minimum number of workers
+     * @return Threads taken by Jetty, plus one to handle the requests
+     */
+    public int getRequiredWorkers() {
+        return getAcceptorThreads() + getSelectorThreads() + getReservedThreads() + 1;
+    }
+}
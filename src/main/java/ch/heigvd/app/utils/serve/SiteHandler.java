@@ -0,0 +1,327 @@
+package ch.heigvd.app.utils.serve;
+
+import ch.heigvd.app.utils.build.BuildEngine;
+import ch.heigvd.app.utils.build.Precompressor;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import org.eclipse.jetty.server.HttpOutput;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Serves the files of a build directory through a {@link FileCache}.
+ * Directories are served by their index.html, and files or directories
+ * whose name starts with a dot are never served. Responses carry an ETag
+ * and a Last-Modified date, and conditional requests get a 304 when the
+ * file did not change. Text files are sent as their precompressed .gz
+ * copy, if the build wrote one and the client accepts gzip.
+ *
+ * A single range of bytes can be asked with the Range header, and HEAD
+ * requests get the headers only. Files too large to be cached are mapped
+ * in memory and written to the connection from the mapping, so that
+ * seeking in a video or resuming a download never reads the whole file.
+ *
+ * The fingerprinted assets listed in the asset manifest of the build
+ * never change, and are cached by the clients for a year. Pages are
+ * cached for a minute, unless they are live reloaded, and the other
+ * files are revalidated with their ETag.
+ */
+public class SiteHandler implements Handler {
+    private static final String INDEX_FILENAME = "index.html";
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+    // Large files are mapped by chunks, a mapping being limited to 2 GB
+    private static final long MAPPED_CHUNK = 64 * 1024 * 1024;
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String PAGE_CACHE = "public, max-age=60";
+    private static final String REVALIDATE = "no-cache";
+    private static final String PAGE_EXTENSION = ".html";
+
+    private final FileCache cache;
+    private final boolean liveReload;
+    // Paths of the fingerprinted assets, read again when the manifest changes
+    private volatile AssetManifest assetManifest = new AssetManifest(null, Set.of());
+
+    /**
+     * SiteHandler constructor
+     * @param cache Cache of the build directory
+     * @param liveReload True if the pages are live reloaded, and must always be revalidated
+     */
+    public SiteHandler(FileCache cache, boolean liveReload) {
+        this.cache = cache;
+        this.liveReload = liveReload;
+    }
+
+    @Override
+    public void handle(@NotNull Context ctx) throws Exception {
+        String path = toRelativePath(ctx.path());
+        if (path == null) {
+            ctx.status(404);
+            return;
+        }
+
+        FileCache.CachedFile file = cache.get(path);
+        if (file == null && !path.isEmpty() && !path.endsWith("/")
+                && cache.get(path + "/" + INDEX_FILENAME) != null) {
+            // Relative links of the index must be resolved inside the directory
+            ctx.redirect(ctx.path() + "/", 301);
+            return;
+        }
+        if (file == null) {
+            ctx.status(404);
+            return;
+        }
+
+        String contentType = file.getContentType();
+        if (Precompressor.isCompressible(path) && !file.isTransformed()) {
+            ctx.header("Vary", "Accept-Encoding");
+            FileCache.CachedFile compressed = acceptsGzip(ctx.header("Accept-Encoding"))
+                    ? cache.get(path + Precompressor.GZIP_EXTENSION)
+                    : null;
+            if (compressed != null) {
+                ctx.header("Content-Encoding", "gzip");
+                file = compressed;
+            }
+        }
+
+        ctx.header("ETag", file.getEtag());
+        ctx.header("Last-Modified", formatDate(file.getLastModified()));
+        ctx.header("Cache-Control", cacheControl(path));
+        ctx.header("Accept-Ranges", "bytes");
+        if (isNotModified(ctx, file)) {
+            ctx.status(304);
+            return;
+        }
+        ctx.contentType(contentType);
+
+        long size = file.getSize();
+        ByteRange range = isRangeValid(ctx, file) ? ByteRange.parse(ctx.header("Range"), size) : null;
+        if (range != null && !range.isSatisfiable()) {
+            ctx.header("Content-Range", range.toContentRange(size));
+            ctx.status(416);
+            return;
+        }
+        long start = range == null ? 0 : range.getStart();
+        long length = range == null ? size : range.getLength();
+        if (range != null) {
+            ctx.status(206);
+            ctx.header("Content-Range", range.toContentRange(size));
+        }
+        ctx.header("Content-Length", Long.toString(length));
+        if (ctx.method().equals("HEAD"))
+            return;
+
+        if (file.isStreamed())
+            stream(ctx, file.getPath(), start, length);
+        else if (range == null)
+            ctx.result(file.getContent());
+        else
+            ctx.result(new ByteArrayInputStream(file.getContent(), (int) start, (int) length));
+    }
+
+    /**
+     * Get the Cache-Control header of a file
+     * @param path Path of the file, relative to the build directory
+     */
+    private String cacheControl(String path) throws IOException {
+        // Pages are never fingerprinted
+        if (path.endsWith(PAGE_EXTENSION))
+            return liveReload ? REVALIDATE : PAGE_CACHE;
+        return fingerprintedPaths().contains(path) ? IMMUTABLE : REVALIDATE;
+    }
+
+    /**
+     * Get the paths of the fingerprinted assets of the build directory
+     * @return Paths relative to the build directory, empty if the build has no asset manifest
+     */
+    private Set<String> fingerprintedPaths() throws IOException {
+        FileCache.CachedFile file = cache.get(BuildEngine.ASSET_MANIFEST_FILENAME);
+        String etag = file == null ? null : file.getEtag();
+        AssetManifest current = assetManifest;
+        if (Objects.equals(etag, current.etag))
+            return current.paths;
+
+        Set<String> paths = new HashSet<>();
+        if (file != null) {
+            String json = file.isStreamed()
+                    ? Files.readString(file.getPath(), StandardCharsets.UTF_8)
+                    : new String(file.getContent(), StandardCharsets.UTF_8);
+            try {
+                for (Map.Entry<String, JsonElement> asset : JsonParser.parseString(json).getAsJsonObject().entrySet()) {
+                    paths.add(asset.getValue().getAsString());
+                }
+            } catch (JsonParseException | IllegalStateException e) {
+                System.err.println("Invalid asset manifest: " + e.getMessage());
+            }
+        }
+        assetManifest = new AssetManifest(etag, paths);
+        return paths;
+    }
+
+    /**
+     * Asset manifest of the build directory, with the paths it lists
+     */
+    private static class AssetManifest {
+        private final String etag;
+        private final Set<String> paths;
+
+        AssetManifest(String etag, Set<String> paths) {
+            this.etag = etag;
+            this.paths = paths;
+        }
+    }
+
+    /**
+     * Write part of a file from its mapping, without copying it to the heap
+     */
+    private static void stream(Context ctx, Path path, long start, long length) throws IOException {
+        OutputStream output = ctx.res.getOutputStream();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The file was replaced since its size was read
+            if (channel.size() < start + length)
+                throw new IOException("File " + path + " changed while being served");
+            for (long position = start; position < start + length; position += MAPPED_CHUNK) {
+                ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAPPED_CHUNK, start + length - position));
+                if (output instanceof HttpOutput) {
+                    ((HttpOutput) output).write(chunk);
+                } else {
+                    Channels.newChannel(output).write(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Convert the path of a request to a path relative to the build directory
+     * @param requestPath Raw path of the request
+     * @return Relative path, or null if it must not be served
+     */
+    static String toRelativePath(String requestPath) {
+        String decoded;
+        try {
+            decoded = URLDecoder.decode(requestPath.replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        String path = decoded.startsWith("/") ? decoded.substring(1) : decoded;
+        for (String segment : path.split("/")) {
+            if (segment.startsWith(".") || segment.contains("\\"))
+                return null;
+        }
+        if (path.isEmpty() || path.endsWith("/"))
+            path += INDEX_FILENAME;
+        return path;
+    }
+
+    /**
+     * Check if gzip is one of the encodings accepted by a client
+     * @param acceptEncoding Accept-Encoding header of the request
+     * @return True if gzip has a quality above 0
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+
+        Boolean gzip = null;
+        Boolean any = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip"))
+                gzip = accepted;
+            else if (name.equals("*"))
+                any = accepted;
+        }
+        if (gzip != null)
+            return gzip;
+        return any != null && any;
+    }
+
+    /**
+     * Check the If-Range header of a request: a range is only sent if
+     * the client has the same version of the file
+     */
+    private static boolean isRangeValid(Context ctx, FileCache.CachedFile file) {
+        String ifRange = ctx.header("If-Range");
+        if (ifRange == null)
+            return true;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+            return ifRange.equals(file.getEtag());
+        try {
+            long date = ZonedDateTime.parse(ifRange, HTTP_DATE).toInstant().toEpochMilli();
+            return file.getLastModified() / 1000 == date / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check the conditional headers of a request, If-None-Match taking
+     * precedence over If-Modified-Since
+     */
+    private static boolean isNotModified(Context ctx, FileCache.CachedFile file) {
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                String trimmed = tag.trim();
+                if (trimmed.startsWith("W/"))
+                    trimmed = trimmed.substring(2);
+                if (trimmed.equals("*") || trimmed.equals(file.getEtag()))
+                    return true;
+            }
+            return false;
+        }
+
+        String ifModifiedSince = ctx.header("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toInstant().toEpochMilli();
+                // HTTP dates have no milliseconds
+                return file.getLastModified() / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static String formatDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+}
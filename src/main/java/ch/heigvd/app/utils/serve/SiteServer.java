@@ -0,0 +1,77 @@
+package ch.heigvd.app.utils.serve;
+
+import io.javalin.Javalin;
+import io.javalin.core.compression.CompressionStrategy;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * HTTP server of a build directory. It is the only class of the serve
+ * command using Javalin and Jetty, so that the other commands never load
+ * them. The Jetty server is made here, sized by the {@link ServerSettings}.
+ */
+public class SiteServer {
+    private static final int MIN_WORKERS = 8;
+    private static final int WORKER_IDLE_TIMEOUT = 60000;
+
+    private final Javalin app;
+    private final ServerConnector connector;
+
+    /**
+     * SiteServer constructor
+     * @param cache Cache of the build directory
+     * @param liveReload Live reload of the pages, or null to disable it
+     * @param searchIndex Search index of the build directory
+     * @param settings Port and concurrency of the server
+     */
+    public SiteServer(FileCache cache, LiveReload liveReload, MappedSearchIndex searchIndex, ServerSettings settings) {
+        // Requests beyond the queue are refused instead of waiting
+        QueuedThreadPool workers = settings.getQueueSize() > 0
+                ? new QueuedThreadPool(settings.getWorkers(), Math.min(MIN_WORKERS, settings.getWorkers()),
+                WORKER_IDLE_TIMEOUT, new BlockingArrayQueue<>(settings.getQueueSize()))
+                : new QueuedThreadPool(settings.getWorkers(), Math.min(MIN_WORKERS, settings.getWorkers()));
+        workers.setName("serve");
+        workers.setReservedThreads(settings.getReservedThreads());
+        Server server = new Server(workers);
+        connector = new ServerConnector(server, settings.getAcceptorThreads(), settings.getSelectorThreads());
+        connector.setPort(settings.getPort());
+        connector.setIdleTimeout(settings.getIdleTimeout());
+        server.addConnector(connector);
+
+        app = Javalin.create(config -> {
+            config.server(() -> server);
+            // Outputs are compressed at build time, never on the fly
+            config.compressionStrategy(CompressionStrategy.NONE);
+        });
+        if (liveReload != null)
+            app.sse(LiveReload.ENDPOINT, liveReload.getHandler());
+        app.get(SearchHandler.ENDPOINT, new SearchHandler(searchIndex));
+        SiteHandler files = new SiteHandler(cache, liveReload != null);
+        app.get("/*", files);
+        app.head("/*", files);
+    }
+
+    /**
+     * Start serving
+     */
+    public void start() {
+        app.start();
+    }
+
+    /**
+     * Get the port the server listens on, once started
+     * @return Port, chosen by the system if the settings gave 0
+     */
+    public int getPort() {
+        return connector.getLocalPort();
+    }
+
+    /**
+     * Stop serving
+     */
+    public void stop() {
+        app.stop();
+    }
+}
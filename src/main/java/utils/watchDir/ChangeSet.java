@@ -0,0 +1,79 @@
+package utils.watchDir;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Paths changed during a debounce window of a {@link WatchDir}
+ */
+public class ChangeSet {
+    private final Set<Path> paths;
+    private final boolean fullRescan;
+    private final boolean last;
+
+    /**
+     * ChangeSet constructor
+     * @param paths Created, modified or deleted paths
+     * @param fullRescan True if events were lost and everything must be checked
+     */
+    public ChangeSet(Collection<Path> paths, boolean fullRescan) {
+        this(paths, fullRescan, false);
+    }
+
+    /**
+     * ChangeSet constructor
+     * @param paths Created, modified or deleted paths
+     * @param fullRescan True if events were lost and everything must be checked
+     * @param last True if the watcher stopped and no change will follow
+     */
+    ChangeSet(Collection<Path> paths, boolean fullRescan, boolean last) {
+        this.paths = Set.copyOf(paths);
+        this.fullRescan = fullRescan;
+        this.last = last;
+    }
+
+    /**
+     * Get the changed paths
+     * @return Changed paths
+     */
+    public Set<Path> getPaths() {
+        return paths;
+    }
+
+    /**
+     * Check if the whole tree must be scanned again
+     * @return True if events were lost
+     */
+    public boolean isFullRescan() {
+        return fullRescan;
+    }
+
+    /**
+     * Check if these are the last changes, sent when the watcher stopped
+     * @return True if no change will follow
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    /**
+     * Check if there is anything to build
+     * @return True if paths changed or everything must be checked
+     */
+    public boolean hasChanges() {
+        return fullRescan || !paths.isEmpty();
+    }
+
+    /**
+     * Merge two change sets
+     * @param other Change set received after this one
+     * @return Change set with the paths of both
+     */
+    public ChangeSet merge(ChangeSet other) {
+        Set<Path> merged = new HashSet<>(paths);
+        merged.addAll(other.paths);
+        return new ChangeSet(merged, fullRescan || other.fullRescan, last || other.last);
+    }
+}
@@ -1,49 +1,48 @@
 package utils.watchDir;
 
-import ch.heigvd.app.Main;
-import ch.heigvd.app.commands.Build;
-import picocli.CommandLine;
-
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Duration;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.StandardWatchEventKinds.*;
 
 /**
- * Example to watch a directory (or tree) for changes to files.
+ * Watch a directory tree for changes to files. Events are coalesced:
+ * once no new event arrived for the debounce window, the set of changed
+ * paths is pushed to the listener in one {@link ChangeSet}. Ignored
+ * directories and globs never produce events. When the watcher stops,
+ * because it was interrupted or the tree cannot be watched anymore, the
+ * listener receives a last change set, so that nobody waits for changes
+ * that will never come.
  */
+public class WatchDir implements Runnable {
 
-public class WatchDir implements Runnable{
+    /**
+     * Receives the coalesced changes
+     */
+    public interface Listener {
+        /**
+         * Called from the watcher thread after each debounce window
+         * @param changes Changed paths
+         */
+        void onChange(ChangeSet changes);
+    }
 
     private final WatchService watcher;
     private final Map<WatchKey, Path> keys;
-    private final boolean recursive;
+    private final Path root;
+    private final Set<Path> ignoredDirectories;
+    private final List<PathMatcher> ignoredGlobs;
+    private final long debounceNanos;
+    private final Listener listener;
     private boolean trace = false;
 
-    private boolean rebuild = true;
-    private boolean reserve = false;
-
-    public boolean isRebuild() {
-        return rebuild;
-    }
-
-    public void setRebuild(boolean rebuild) {
-        this.rebuild = rebuild;
-    }
-
-    public boolean isReserve() {
-        return reserve;
-    }
-
-    public void setReserve(boolean reserve) {
-        this.reserve = reserve;
-    }
+    private final Set<Path> pending = new HashSet<>();
+    private boolean overflow = false;
 
     @SuppressWarnings("unchecked")
     static <T> WatchEvent<T> cast(WatchEvent<?> event) {
@@ -70,103 +69,206 @@ public class WatchDir implements Runnable{
 
     /**
      * Register the given directory, and all its sub-directories, with the
-     * WatchService.
+     * WatchService. Files found in the directories are added to the
+     * pending changes when {@code reportFiles} is true, as they may have
+     * been created before the directory was registered.
      */
-    private void registerAll(final Path start) throws IOException {
+    private void registerAll(final Path start, boolean reportFiles) throws IOException {
         // register directory and sub-directories
         Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                     throws IOException {
+                if (isIgnored(dir))
+                    return FileVisitResult.SKIP_SUBTREE;
                 register(dir);
                 return FileVisitResult.CONTINUE;
             }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (reportFiles && !isIgnored(file))
+                    pending.add(file);
+                return FileVisitResult.CONTINUE;
+            }
         });
     }
 
     /**
-     * Creates a WatchService and registers the given directory
+     * Creates a WatchService and registers the given directory tree
+     * @param dir Root of the tree to watch
+     * @param debounce Time without event to wait before notifying the listener
+     * @param ignoredDirectories Directories whose content is never watched
+     * @param ignoredGlobs Globs of paths, relative to the root, to ignore
+     * @param listener Listener of the changes
+     * @throws IOException Error while registering the directories
      */
-    public WatchDir(Path dir, boolean recursive) throws IOException {
+    public WatchDir(Path dir, Duration debounce, Collection<Path> ignoredDirectories,
+                    Collection<String> ignoredGlobs, Listener listener) throws IOException {
         this.watcher = FileSystems.getDefault().newWatchService();
         this.keys = new HashMap<WatchKey, Path>();
-        this.recursive = recursive;
-
-        if (recursive) {
-            System.out.format("Scanning %s ...\n", dir);
-            registerAll(dir);
-            System.out.println("Done.");
-        } else {
-            register(dir);
+        this.root = dir.toAbsolutePath().normalize();
+        this.ignoredDirectories = new HashSet<>();
+        for (Path ignored : ignoredDirectories) {
+            this.ignoredDirectories.add(ignored.toAbsolutePath().normalize());
         }
+        this.ignoredGlobs = new ArrayList<>();
+        for (String glob : ignoredGlobs) {
+            this.ignoredGlobs.add(root.getFileSystem().getPathMatcher("glob:" + glob));
+        }
+        this.debounceNanos = debounce.toNanos();
+        this.listener = listener;
+
+        System.out.format("Scanning %s ...\n", root);
+        registerAll(root, false);
+        System.out.println("Done.");
 
         // enable trace after initial registration
         this.trace = true;
     }
 
     /**
-     * Process all events for keys queued to the watcher
+     * Check if a path must not produce events
+     * @param path Absolute path
+     * @return True if the path is ignored
+     */
+    private boolean isIgnored(Path path) {
+        for (Path ignored : ignoredDirectories) {
+            if (path.startsWith(ignored))
+                return true;
+        }
+        if (path.startsWith(root) && !path.equals(root)) {
+            Path relative = root.relativize(path);
+            for (PathMatcher matcher : ignoredGlobs) {
+                if (matcher.matches(relative))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Process all events for keys queued to the watcher, until the thread
+     * is interrupted
      */
     public void run() {
-        for (; ; ) {
+        try {
+            long deadline = 0;
+            for (; ; ) {
+                // wait for key to be signalled, or for the debounce window
+                // to end when changes are pending
+                WatchKey key;
+                if (pending.isEmpty() && !overflow) {
+                    key = watcher.take();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    key = remaining > 0 ? watcher.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (key == null) {
+                        flush();
+                        continue;
+                    }
+                }
 
-            // wait for key to be signalled
-            WatchKey key;
+                if (processEvents(key))
+                    deadline = System.nanoTime() + debounceNanos;
+
+                if (keys.isEmpty()) {
+                    // all directories are inaccessible
+                    flush();
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException x) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            System.err.println("Error while watching " + root + ": " + e.getMessage());
+        } finally {
             try {
-                key = watcher.take();
-            } catch (InterruptedException x) {
-               return;
+                watcher.close();
+            } catch (IOException e) {
+                System.err.println("Error while closing the watcher: " + e.getMessage());
             }
+            ChangeSet changes = new ChangeSet(pending, overflow, true);
+            pending.clear();
+            listener.onChange(changes);
+        }
+    }
+
+    /**
+     * Record the events of a key
+     * @return True if a change was recorded
+     */
+    private boolean processEvents(WatchKey key) {
+        Path dir = keys.get(key);
+        if (dir == null) {
+            System.err.println("WatchKey not recognized!!");
+            key.reset();
+            return false;
+        }
+
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind kind = event.kind();
 
-            Path dir = keys.get(key);
-            if (dir == null) {
-                System.err.println("WatchKey not recognized!!");
+            // Events were lost: the listener has to rescan everything
+            if (kind == OVERFLOW) {
+                overflow = true;
+                changed = true;
                 continue;
             }
 
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind kind = event.kind();
+            // Context for directory entry event is the file name of entry
+            WatchEvent<Path> ev = cast(event);
+            Path name = ev.context();
+            Path child = dir.resolve(name);
+            if (isIgnored(child))
+                continue;
 
-                // TBD - provide example of how OVERFLOW event is handled
-                if (kind == OVERFLOW) {
-                    continue;
-                }
+            // print out event
+            System.out.format("%s: %s\n", event.kind().name(), child);
+            pending.add(child);
+            changed = true;
 
-                // Context for directory entry event is the file name of entry
-                WatchEvent<Path> ev = cast(event);
-                Path name = ev.context();
-                Path child = dir.resolve(name);
-
-                // print out event
-                System.out.format("%s: %s\n", event.kind().name(), child);
-                rebuild = true;
-                reserve = true;
-
-                // if directory is created, and watching recursively, then
-                // register it and its sub-directories
-                if (recursive && (kind == ENTRY_CREATE)) {
-                    try {
-                        if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
-                            registerAll(child);
-                        }
-                    } catch (IOException x) {
-                        // ignore to keep sample readbale
+            // if directory is created, register it and its sub-directories
+            if (kind == ENTRY_CREATE) {
+                try {
+                    if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
+                        registerAll(child, true);
                     }
+                } catch (IOException x) {
+                    // the directory may already be gone, its deletion will be reported
+                    System.err.println("Could not watch " + child + ": " + x.getMessage());
                 }
-
             }
+        }
 
+        // reset key and remove from set if directory no longer accessible
+        boolean valid = key.reset();
+        if (!valid) {
+            keys.remove(key);
+        }
+        return changed;
+    }
 
-            // reset key and remove from set if directory no longer accessible
-            boolean valid = key.reset();
-            if (!valid) {
-                keys.remove(key);
+    /**
+     * Push the pending changes to the listener
+     */
+    private void flush() {
+        if (pending.isEmpty() && !overflow)
+            return;
 
-                // all directories are inaccessible
-                if (keys.isEmpty()) {
-                    break;
-                }
+        if (overflow) {
+            // Some directories may have been created without being seen
+            try {
+                registerAll(root, false);
+            } catch (IOException e) {
+                System.err.println("Error while registering directories again: " + e.getMessage());
             }
         }
+
+        ChangeSet changes = new ChangeSet(pending, overflow);
+        pending.clear();
+        overflow = false;
+        listener.onChange(changes);
     }
 }
@@ -1,6 +1,16 @@
 package ch.heigvd.app;
 
 import ch.heigvd.app.utils.TestDirectoryManager;
+import ch.heigvd.app.utils.build.BuildEngine;
+import ch.heigvd.app.utils.build.BuildManifest;
+import ch.heigvd.app.utils.build.BuildResult;
+import ch.heigvd.app.utils.build.BuildSettings;
+import ch.heigvd.app.utils.build.Generations;
+import ch.heigvd.app.utils.parsers.MarkdownConverter;
+import ch.heigvd.app.utils.search.SearchIndex;
+import ch.heigvd.app.utils.search.SearchIndexReader;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -12,13 +22,18 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
 
 public class BuildTest {
+    private static final FileTime OLD_TIME = FileTime.fromMillis(1000000000000L);
 
     private final Path dirPath = Paths.get("montest");
     private final Path basicWebsitePath = dirPath.resolve("sitetest");
@@ -49,8 +64,8 @@ public class BuildTest {
 
         String indexHTMLContent = "<h1>Mon premier article</h1>\n" +
                 "<h2>Mon sous-titre</h2>\n" +
-                "<p>Le contenu de mon article.</p>\n" +
-                "<p><img src=\"./image.png\" alt=\"Une image\" /></p>\n";
+                "<p>Le contenu de mon article.\n" +
+                "<img src=\"./image.png\" alt=\"Une image\" /></p>\n";
 
         Main app = new Main();
         StringWriter sw = new StringWriter();
@@ -104,8 +119,8 @@ public class BuildTest {
                 "</ul>\n" +
                 "<h1>Mon titre</h1>\n" +
                 "<h2>Mon sous-titre</h2>\n" +
-                "<p>Le contenu de mon article.</p>\n" +
-                "<p><img src=\"./image.png\" alt=\"Une image\" /></p>\n" +
+                "<p>Le contenu de mon article.\n" +
+                "<img src=\"./image.png\" alt=\"Une image\" /></p>\n" +
                 "</body>\n" +
                 "</html>\n";
 
@@ -121,8 +136,8 @@ public class BuildTest {
                 "</ul>\n" +
                 "<h1>Mon premier article</h1>\n" +
                 "<h2>Mon sous-titre</h2>\n" +
-                "<p>Le contenu de mon article.</p>\n" +
-                "<p><img src=\"./image.png\" alt=\"Une image\" /></p>\n" +
+                "<p>Le contenu de mon article.\n" +
+                "<img src=\"./image.png\" alt=\"Une image\" /></p>\n" +
                 "</body>\n" +
                 "</html>\n";
 
@@ -164,6 +179,540 @@ public class BuildTest {
         );
     }
 
+    @Test
+    public void parallelBuildShouldMatchSerialBuild() throws IOException {
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        Path buildPath = templateWebsitePath.resolve("build");
+
+        assertEquals(0, cmd.execute("build", "--threads", "1", templateWebsitePath.toString()));
+        String serialIndex = Files.readString(buildPath.resolve("index.html"), StandardCharsets.UTF_8);
+        String serialPage = Files.readString(buildPath.resolve("dossier").resolve("page.html"), StandardCharsets.UTF_8);
+
+        assertEquals(0, cmd.execute("build", "--full", "--threads", "4", templateWebsitePath.toString()));
+        assertEquals(serialIndex, Files.readString(buildPath.resolve("index.html"), StandardCharsets.UTF_8));
+        assertEquals(serialPage, Files.readString(buildPath.resolve("dossier").resolve("page.html"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void statiqueBuildShouldUseLayoutFromFrontMatter() throws IOException {
+        Files.writeString(templateWebsitePath.resolve("template").resolve("article.html"),
+                "<article>{{ page.title }}</article>", StandardCharsets.UTF_8);
+        Files.writeString(templateWebsitePath.resolve("index.md"),
+                "{\n\"title\": \"Mon article\",\n\"layout\": \"article\"\n}\n---\n# Titre\n",
+                StandardCharsets.UTF_8);
+
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+
+        assertEquals("<article>Mon article</article>",
+                Files.readString(templateWebsitePath.resolve("build").resolve("index.html"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void incrementalBuildShouldSkipUnchangedSources() throws IOException {
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        Path buildPath = templateWebsitePath.resolve("build");
+        Path indexPath = buildPath.resolve("index.html");
+        Path pagePath = buildPath.resolve("dossier").resolve("page.html");
+
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        markAsOld(indexPath, pagePath);
+
+        Files.writeString(templateWebsitePath.resolve("index.md"), "{}\n---\n# Nouveau titre\n", StandardCharsets.UTF_8);
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        assertNotEquals(OLD_TIME, Files.getLastModifiedTime(indexPath));
+        assertEquals(OLD_TIME, Files.getLastModifiedTime(pagePath));
+        assertTrue(Files.readString(indexPath, StandardCharsets.UTF_8).contains("Nouveau titre"));
+    }
+
+    @Test
+    public void incrementalBuildShouldRemoveOutputsOfDeletedSources() throws IOException {
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        Path buildPath = templateWebsitePath.resolve("build");
+
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        assertTrue(Files.exists(buildPath.resolve("dossier").resolve("page.html")));
+
+        Files.delete(templateWebsitePath.resolve("dossier").resolve("page.md"));
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        assertFalse(Files.exists(buildPath.resolve("dossier").resolve("page.html")));
+        assertTrue(Files.exists(buildPath.resolve("dossier").resolve("image.png")));
+        assertTrue(Files.exists(buildPath.resolve("index.html")));
+    }
+
+    @Test
+    public void fullBuildShouldRewriteEveryOutput() throws IOException {
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        Path buildPath = templateWebsitePath.resolve("build");
+        Path indexPath = buildPath.resolve("index.html");
+        Path pagePath = buildPath.resolve("dossier").resolve("page.html");
+
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        markAsOld(indexPath, pagePath);
+
+        assertEquals(0, cmd.execute("build", "--full", templateWebsitePath.toString()));
+        assertNotEquals(OLD_TIME, Files.getLastModifiedTime(indexPath));
+        assertNotEquals(OLD_TIME, Files.getLastModifiedTime(pagePath));
+    }
+
+    @Test
+    public void corruptOrMissingManifestShouldRebuildEveryOutput() throws IOException {
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        Path buildPath = templateWebsitePath.resolve("build");
+        Path indexPath = buildPath.resolve("index.html");
+        Path pagePath = buildPath.resolve("dossier").resolve("page.html");
+        Path manifestPath = buildPath.resolve(BuildManifest.FILENAME);
+
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        markAsOld(indexPath, pagePath);
+        // The manifest may be a link to the one of another generation
+        Files.delete(manifestPath);
+        Files.writeString(manifestPath, "{ pas du json", StandardCharsets.UTF_8);
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        assertNotEquals(OLD_TIME, Files.getLastModifiedTime(indexPath));
+        assertNotEquals(OLD_TIME, Files.getLastModifiedTime(pagePath));
+
+        markAsOld(indexPath, pagePath);
+        Files.delete(manifestPath);
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        assertNotEquals(OLD_TIME, Files.getLastModifiedTime(indexPath));
+        assertNotEquals(OLD_TIME, Files.getLastModifiedTime(pagePath));
+        assertTrue(Files.exists(manifestPath));
+    }
+
+    /**
+     * Give outputs a modification time that a rewrite cannot keep
+     */
+    private static void markAsOld(Path... outputs) throws IOException {
+        for (Path output : outputs) {
+            Files.setLastModifiedTime(output, OLD_TIME);
+        }
+    }
+
+    @Test
+    public void rebuildShouldReportOnlyAffectedOutputs() throws IOException {
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            assertTrue(engine.build(false).isFull());
+
+            Path pagePath = templateWebsitePath.resolve("dossier").resolve("page.md");
+            Files.writeString(pagePath, "{\n\"title\": \"Autre page\"\n}\n---\n# Autre\n",
+                    StandardCharsets.UTF_8);
+            BuildResult result = engine.rebuild(List.of(pagePath));
+
+            assertFalse(result.isFull());
+            assertEquals(Set.of("dossier/page.html"), result.getWrittenOutputs());
+            assertTrue(result.hasChanged("dossier/page.html"));
+            assertFalse(result.hasChanged("index.html"));
+        }
+    }
+
+    @Test
+    public void rebuildShouldUpdateThePublishedGenerationUnlessAskedOtherwise() throws IOException {
+        Path buildPath = templateWebsitePath.resolve("build");
+        Path pagePath = templateWebsitePath.resolve("dossier").resolve("page.md");
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            engine.build(false);
+            Path published = buildPath.toRealPath();
+            Path page = buildPath.resolve("dossier").resolve("page.html").toRealPath();
+
+            Files.writeString(pagePath, "{}\n---\n# Sur place\n", StandardCharsets.UTF_8);
+            engine.rebuild(List.of(pagePath));
+            assertEquals(published, buildPath.toRealPath());
+            assertTrue(Files.readString(page, StandardCharsets.UTF_8).contains("Sur place"));
+
+            // The previous generation keeps its own files
+            engine.build(false);
+            Path previous = buildPath.toRealPath();
+            Files.writeString(pagePath, "{}\n---\n# Nouvelle génération\n", StandardCharsets.UTF_8);
+            engine.rebuild(List.of(pagePath), BuildSettings.defaults().withRebuildGenerations(true));
+            assertNotEquals(previous, buildPath.toRealPath());
+            assertTrue(Files.readString(buildPath.resolve("dossier").resolve("page.html"), StandardCharsets.UTF_8)
+                    .contains("Nouvelle génération"));
+            assertTrue(Files.readString(previous.resolve("dossier").resolve("page.html"), StandardCharsets.UTF_8)
+                    .contains("Sur place"));
+        }
+    }
+
+    @Test
+    public void gzipBuildShouldWriteCompressedCopiesOfTextOutputs() throws IOException {
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        Path buildPath = templateWebsitePath.resolve("build");
+
+        assertEquals(0, cmd.execute("build", "--gzip", "--gzip-min-size", "0", templateWebsitePath.toString()));
+        Path compressed = buildPath.resolve("index.html.gz");
+        assertTrue("Compressed copy should be written", Files.exists(compressed));
+        assertFalse("Images should not be compressed", Files.exists(buildPath.resolve("dossier").resolve("image.png.gz")));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed))) {
+            assertArrayEquals(Files.readAllBytes(buildPath.resolve("index.html")), in.readAllBytes());
+        }
+
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        assertFalse("Compressed copy should be removed", Files.exists(compressed));
+    }
+
+    @Test
+    public void failedBuildShouldKeepThePublishedBuild() throws IOException {
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        Path buildPath = templateWebsitePath.resolve("build");
+        Path indexPath = buildPath.resolve("index.html");
+
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        String firstIndex = Files.readString(indexPath, StandardCharsets.UTF_8);
+
+        Files.writeString(templateWebsitePath.resolve("index.md"), "{}\n---\n# Nouveau titre\n", StandardCharsets.UTF_8);
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        assertNotEquals(firstIndex, Files.readString(indexPath, StandardCharsets.UTF_8));
+
+        // Without layout the build fails and the previous one stays published
+        Path layoutPath = templateWebsitePath.resolve("template").resolve("layout.html");
+        String layout = Files.readString(layoutPath, StandardCharsets.UTF_8);
+        Files.delete(layoutPath);
+        Files.writeString(templateWebsitePath.resolve("index.md"), "{}\n---\n# Autre\n", StandardCharsets.UTF_8);
+        cmd.execute("build", templateWebsitePath.toString());
+        assertTrue(Files.readString(indexPath, StandardCharsets.UTF_8).contains("Nouveau titre"));
+
+        Files.writeString(layoutPath, layout, StandardCharsets.UTF_8);
+        assertEquals(0, cmd.execute("build", "--rollback", templateWebsitePath.toString()));
+        assertEquals(firstIndex, Files.readString(indexPath, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void assetsShouldBeCopiedUnlessLinksAreRequested() throws IOException {
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        Path image = templateWebsitePath.resolve("dossier").resolve("image.png");
+        Path builtImage = templateWebsitePath.resolve("build").resolve("dossier").resolve("image.png");
+
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        assertFalse(Files.isSameFile(image, builtImage));
+        assertArrayEquals(Files.readAllBytes(image), Files.readAllBytes(builtImage));
+
+        // Changing the mode is enough for the unchanged assets to follow it
+        assertEquals(0, cmd.execute("build", "--link-assets", templateWebsitePath.toString()));
+        assertTrue(Files.isSameFile(image, builtImage));
+
+        assertEquals(0, cmd.execute("build", templateWebsitePath.toString()));
+        assertFalse(Files.isSameFile(image, builtImage));
+    }
+
+    @Test
+    public void profileShouldReportPhasesAndSlowestPages() throws IOException {
+        CommandLine cmd = new CommandLine(new Main());
+        cmd.setOut(new PrintWriter(new StringWriter()));
+        assertEquals(0, cmd.execute("build", "--profile", "--profile-pages", "1", templateWebsitePath.toString()));
+
+        Path report = templateWebsitePath.resolve(Generations.DIRECTORY_NAME).resolve("build-profile.json");
+        assertTrue("Profile was not written", Files.exists(report));
+        JsonObject profile = JsonParser.parseString(Files.readString(report, StandardCharsets.UTF_8)).getAsJsonObject();
+        JsonObject phases = profile.getAsJsonObject("phases");
+        for (String phase : List.of("config", "discover", "read", "markdown", "layout", "write", "publish"))
+            assertTrue("Missing phase " + phase, phases.has(phase));
+        assertEquals(2, phases.getAsJsonObject("markdown").get("calls").getAsInt());
+        assertEquals(1, profile.getAsJsonArray("slowestPages").size());
+        assertFalse(Files.exists(templateWebsitePath.resolve("build").resolve("build-profile.json")));
+    }
+
+    @Test
+    public void headerKeysShouldBeAvailableToTemplates() throws IOException {
+        Path layoutPath = templateWebsitePath.resolve("template").resolve("summary.html");
+        Files.writeString(layoutPath, "<p>{{ page.summary }}</p>{{#each page.tags}}<i>{{ this }}</i>{{/each}}{{{ content }}}",
+                StandardCharsets.UTF_8);
+        Files.writeString(templateWebsitePath.resolve("index.md"), "{\"title\": \"Accueil\", \"layout\": \"summary\",\n"
+                + "\"summary\": \"Un résumé\", \"tags\": [\"a\", \"b\"]}\n---\n# Titre\n", StandardCharsets.UTF_8);
+
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            engine.build(false);
+        }
+
+        String index = Files.readString(templateWebsitePath.resolve("build").resolve("index.html"), StandardCharsets.UTF_8);
+        assertEquals("<p>Un résumé</p><i>a</i><i>b</i><h1>Titre</h1>", index);
+    }
+
+    @Test
+    public void listingPagesShouldSeeTheIndexOfThePages() throws IOException {
+        Files.writeString(templateWebsitePath.resolve("template").resolve("list.html"),
+                "{{#each site.pages}}<a href=\"{{ url }}\">{{ title }}</a>{{/each}}"
+                        + "{{#each site.tags}}<h2>{{ @key }}</h2>{{#each this}}{{ title }};{{/each}}{{/each}}",
+                StandardCharsets.UTF_8);
+        Files.writeString(templateWebsitePath.resolve("index.md"),
+                "{\"title\": \"Accueil\", \"layout\": \"list\", \"listing\": true}\n---\n", StandardCharsets.UTF_8);
+        Path aPath = templateWebsitePath.resolve("dossier").resolve("a.md");
+        Files.writeString(aPath, "{\"title\": \"A\", \"date\": \"2022-01-05\", \"tags\": [\"java\", \"web\"]}\n---\n# A\n",
+                StandardCharsets.UTF_8);
+        Path bPath = templateWebsitePath.resolve("dossier").resolve("b.md");
+        Files.writeString(bPath, "{\"title\": \"B\", \"date\": \"2020-07-01\", \"tags\": \"java\"}\n---\n# B\n",
+                StandardCharsets.UTF_8);
+        Path indexPath = templateWebsitePath.resolve("build").resolve("index.html");
+
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            engine.build(false);
+            assertEquals("<a href=\"/dossier/a.html\">A</a><a href=\"/dossier/page.html\">Ma premiere page</a>"
+                            + "<a href=\"/dossier/b.html\">B</a><h2>java</h2>A;B;<h2>web</h2>A;",
+                    Files.readString(indexPath, StandardCharsets.UTF_8));
+
+            // Only the indexed fields of a page affect the listing pages
+            Files.writeString(aPath, "{\"title\": \"A\", \"date\": \"2022-01-05\", \"tags\": [\"java\", \"web\"]}\n---\n# A2\n",
+                    StandardCharsets.UTF_8);
+            assertEquals(Set.of("dossier/a.html"), engine.rebuild(List.of(aPath)).getWrittenOutputs());
+        }
+
+        // The index is read back from the previous build
+        Files.writeString(bPath, "{\"title\": \"B2\", \"date\": \"2023-01-01\"}\n---\n# B\n", StandardCharsets.UTF_8);
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            BuildResult result = engine.rebuild(List.of(bPath));
+            assertEquals(Set.of("dossier/b.html", "index.html"), result.getWrittenOutputs());
+            assertEquals("<a href=\"/dossier/b.html\">B2</a><a href=\"/dossier/a.html\">A</a>"
+                            + "<a href=\"/dossier/page.html\">Ma premiere page</a><h2>java</h2>A;<h2>web</h2>A;",
+                    Files.readString(indexPath, StandardCharsets.UTF_8));
+
+            Files.delete(aPath);
+            engine.build(false);
+            assertEquals("<a href=\"/dossier/b.html\">B2</a><a href=\"/dossier/page.html\">Ma premiere page</a>",
+                    Files.readString(indexPath, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void indexOutputsShouldOnlyBeWrittenWhenTheirPagesChange() throws IOException {
+        Files.writeString(templateWebsitePath.resolve("config.json"), "{\"title\": \"Mon site\", \"lang\": \"fr\",\n"
+                + "\"charset\": \"utf-8\", \"url\": \"https://exemple.ch/\", \"feedSize\": 2, \"pageSize\": 1}",
+                StandardCharsets.UTF_8);
+        Path templatePath = templateWebsitePath.resolve("template");
+        Files.writeString(templatePath.resolve("tag.html"),
+                "{{ page.tag }} {{ page.number }}/{{ page.count }}:{{#each page.pages}}{{ title }}{{/each}}"
+                        + "{{#if page.next}} {{ page.next }}{{/if}}", StandardCharsets.UTF_8);
+        Files.writeString(templatePath.resolve("archive.html"),
+                "{{ page.year }}:{{#each page.pages}}{{ title }}{{/each}}", StandardCharsets.UTF_8);
+        Path aPath = templateWebsitePath.resolve("dossier").resolve("a.md");
+        Files.writeString(aPath, "{\"title\": \"A\", \"date\": \"2022-01-05\", \"tags\": [\"Java\"]}\n---\n# A\n",
+                StandardCharsets.UTF_8);
+        Path bPath = templateWebsitePath.resolve("dossier").resolve("b.md");
+        Files.writeString(bPath, "{\"title\": \"B & C\", \"date\": \"2022-07-01\", \"tags\": [\"Java\", \"web\"]}\n---\n# B\n",
+                StandardCharsets.UTF_8);
+        Path buildPath = templateWebsitePath.resolve("build");
+
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            engine.build(false);
+
+            assertEquals("Java 1/2:B &amp; C /tags/java-2.html",
+                    Files.readString(buildPath.resolve("tags").resolve("java.html"), StandardCharsets.UTF_8));
+            assertEquals("Java 2/2:A", Files.readString(buildPath.resolve("tags").resolve("java-2.html"), StandardCharsets.UTF_8));
+            assertEquals("2021:Ma premiere page",
+                    Files.readString(buildPath.resolve("archive").resolve("2021.html"), StandardCharsets.UTF_8));
+            String feed = Files.readString(buildPath.resolve("feed.xml"), StandardCharsets.UTF_8);
+            assertTrue(feed.contains("<title>B &amp; C</title>\n<link>https://exemple.ch/dossier/b.html</link>"));
+            assertTrue(feed.contains("<pubDate>Fri, 1 Jul 2022 00:00:00 GMT</pubDate>"));
+            assertTrue(feed.indexOf("/dossier/b.html") < feed.indexOf("/dossier/a.html"));
+            assertFalse("Only the newest pages are in the feed", feed.contains("/dossier/page.html"));
+            String sitemap = Files.readString(buildPath.resolve("sitemap.xml"), StandardCharsets.UTF_8);
+            assertTrue(sitemap.contains("<loc>https://exemple.ch/index.html</loc>"));
+            assertTrue(sitemap.contains("<loc>https://exemple.ch/dossier/a.html</loc>\n<lastmod>2022-01-05</lastmod>"));
+            assertTrue(sitemap.contains("<loc>https://exemple.ch/tags/web.html</loc>"));
+
+            // A new body changes none of them, a new title only what shows it
+            Files.writeString(aPath, "{\"title\": \"A\", \"date\": \"2022-01-05\", \"tags\": [\"Java\"]}\n---\n# A2\n",
+                    StandardCharsets.UTF_8);
+            assertEquals(Set.of("dossier/a.html"), engine.rebuild(List.of(aPath)).getWrittenOutputs());
+            Files.writeString(aPath, "{\"title\": \"A2\", \"date\": \"2022-01-05\", \"tags\": [\"Java\"]}\n---\n# A2\n",
+                    StandardCharsets.UTF_8);
+            assertEquals(Set.of("dossier/a.html", "tags/java-2.html", "archive/2022-2.html", "feed.xml"),
+                    engine.rebuild(List.of(aPath)).getWrittenOutputs());
+
+            Files.delete(bPath);
+            BuildResult result = engine.rebuild(List.of(bPath));
+            assertTrue(result.getRemovedOutputs().containsAll(List.of("tags/web.html", "tags/java-2.html")));
+            assertEquals("Java 1/1:A2", Files.readString(buildPath.resolve("tags").resolve("java.html"), StandardCharsets.UTF_8));
+            assertFalse(Files.readString(buildPath.resolve("sitemap.xml"), StandardCharsets.UTF_8).contains("b.html"));
+        }
+    }
+
+    @Test
+    public void searchIndexShouldOnlyRewriteTheShardsOfChangedPages() throws IOException {
+        Path configPath = templateWebsitePath.resolve("config.json");
+        Files.writeString(configPath, "{\"title\": \"Mon site\", \"lang\": \"fr\",\n"
+                + "\"charset\": \"utf-8\", \"search\": true}", StandardCharsets.UTF_8);
+        Path aPath = templateWebsitePath.resolve("dossier").resolve("a.md");
+        Files.writeString(aPath, "{\"title\": \"Été\"}\n---\nLe *zèbre* mange.\n\n    code\n", StandardCharsets.UTF_8);
+        Path bPath = templateWebsitePath.resolve("dossier").resolve("b.md");
+        Files.writeString(bPath, "{\"title\": \"B\"}\n---\nLe chat dort.\n", StandardCharsets.UTF_8);
+        Path buildPath = templateWebsitePath.resolve("build");
+        Path indexPath = buildPath.resolve(SearchIndex.FILENAME);
+
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            engine.build(false);
+
+            SearchIndexReader first = SearchIndexReader.open(indexPath);
+            SearchIndexReader.Result result = first.search("ZEBRE ete", 10);
+            assertEquals(1, result.getTotal());
+            assertEquals("/dossier/a.html", result.getPages().get(0).getUrl());
+            assertEquals("Été", result.getPages().get(0).getTitle());
+            assertEquals(1, first.search("code", 10).getTotal());
+            assertEquals(4, first.search("le", 10).getTotal());
+            JsonObject shard = JsonParser.parseString(Files.readString(buildPath.resolve("search").resolve("ze.json"),
+                    StandardCharsets.UTF_8)).getAsJsonObject();
+            assertEquals(Set.of("zebre"), shard.keySet());
+
+            Files.writeString(aPath, "{\"title\": \"Été\"}\n---\nLe lion mange.\n\n    code\n", StandardCharsets.UTF_8);
+            BuildResult result2 = engine.rebuild(List.of(aPath));
+            assertEquals(Set.of("dossier/a.html", "search/li.json", "search/docs-0.json"), result2.getWrittenOutputs());
+            assertTrue(result2.getRemovedOutputs().contains("search/ze.json"));
+
+            Files.delete(bPath);
+            engine.rebuild(List.of(bPath));
+            SearchIndexReader second = SearchIndexReader.open(indexPath);
+            assertEquals(0, second.search("chat", 10).getTotal());
+            assertEquals(1, second.search("lion", 10).getTotal());
+            assertEquals(1, first.search("chat", 10).getTotal());
+
+            Files.writeString(configPath, "{\"title\": \"Mon site\", \"lang\": \"fr\", \"charset\": \"utf-8\"}",
+                    StandardCharsets.UTF_8);
+            engine.build(false);
+            assertFalse(Files.exists(indexPath));
+            assertFalse(Files.exists(buildPath.resolve("search")));
+        }
+    }
+
+    @Test
+    public void fingerprintedAssetsShouldBeRenamedWithTheirReferences() throws IOException {
+        Files.writeString(templateWebsitePath.resolve("template").resolve("layout.html"),
+                "<html><head><link rel=\"stylesheet\" href=\"/css/style.css\"></head>\n"
+                        + "<body>{{{ content }}}<a href=\"https://example.com/style.css\">x</a></body></html>\n",
+                StandardCharsets.UTF_8);
+        Path cssPath = templateWebsitePath.resolve("css");
+        Files.createDirectories(cssPath);
+        Files.writeString(cssPath.resolve("style.css"), "body { background: url(\"../dossier/image.png\"); }",
+                StandardCharsets.UTF_8);
+        Path imagePath = templateWebsitePath.resolve("dossier").resolve("image.png");
+        Path buildPath = templateWebsitePath.resolve("build");
+
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            BuildSettings fingerprinting = BuildSettings.defaults().withFingerprintAssets(true);
+            engine.build(false, fingerprinting);
+
+            JsonObject manifest = JsonParser.parseString(Files.readString(buildPath.resolve("asset-manifest.json"),
+                    StandardCharsets.UTF_8)).getAsJsonObject();
+            String image = manifest.get("dossier/image.png").getAsString();
+            String css = manifest.get("css/style.css").getAsString();
+            assertTrue(image.matches("dossier/image\\.[0-9a-f]{8}\\.png"));
+            assertTrue(css.matches("css/style\\.[0-9a-f]{8}\\.css"));
+            assertTrue(Files.exists(buildPath.resolve(image)));
+            assertFalse(Files.exists(buildPath.resolve("dossier").resolve("image.png")));
+
+            String page = Files.readString(buildPath.resolve("dossier").resolve("page.html"), StandardCharsets.UTF_8);
+            assertTrue(page.contains("href=\"/" + css + "\""));
+            assertTrue(page.contains("src=\"./" + image.substring("dossier/".length()) + "\""));
+            assertTrue(page.contains("href=\"https://example.com/style.css\""));
+            assertTrue(Files.readString(buildPath.resolve(css), StandardCharsets.UTF_8)
+                    .contains("url(\"../" + image + "\")"));
+
+            // The stylesheet is renamed with the image it uses
+            Files.writeString(imagePath, "png", StandardCharsets.UTF_8);
+            BuildResult result = engine.rebuild(List.of(imagePath), fingerprinting);
+            JsonObject changed = JsonParser.parseString(Files.readString(buildPath.resolve("asset-manifest.json"),
+                    StandardCharsets.UTF_8)).getAsJsonObject();
+            String newImage = changed.get("dossier/image.png").getAsString();
+            String newCss = changed.get("css/style.css").getAsString();
+            assertNotEquals(css, newCss);
+            assertEquals(Set.of(newImage, newCss, "asset-manifest.json", "dossier/page.html", "index.html"),
+                    result.getWrittenOutputs());
+            assertEquals(Set.of(image, css), result.getRemovedOutputs());
+
+            // Settings are not kept from one build to the next
+            engine.build(false);
+            assertTrue(Files.exists(buildPath.resolve("css").resolve("style.css")));
+            assertFalse(Files.exists(buildPath.resolve("asset-manifest.json")));
+        }
+    }
+
+    @Test
+    public void fingerprintsShouldMixChangedAndUnchangedAssets() throws IOException {
+        Path imagesPath = Files.createDirectories(templateWebsitePath.resolve("images"));
+        for (int i = 0; i < 50; i++)
+            Files.writeString(imagesPath.resolve("image-" + i + ".png"), "image " + i, StandardCharsets.UTF_8);
+        Path buildPath = templateWebsitePath.resolve("build");
+        BuildSettings fingerprinting = BuildSettings.defaults().withFingerprintAssets(true);
+
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 4)) {
+            engine.build(false, fingerprinting);
+            JsonObject before = JsonParser.parseString(Files.readString(buildPath.resolve("asset-manifest.json"),
+                    StandardCharsets.UTF_8)).getAsJsonObject();
+
+            // Half of the assets are hashed by the workers, the others reuse the manifest
+            for (int i = 0; i < 50; i += 2)
+                Files.writeString(imagesPath.resolve("image-" + i + ".png"), "nouvelle image " + i,
+                        StandardCharsets.UTF_8);
+            engine.build(false, fingerprinting);
+            JsonObject after = JsonParser.parseString(Files.readString(buildPath.resolve("asset-manifest.json"),
+                    StandardCharsets.UTF_8)).getAsJsonObject();
+
+            assertEquals(before.keySet(), after.keySet());
+            for (int i = 0; i < 50; i++) {
+                String source = "images/image-" + i + ".png";
+                String name = after.get(source).getAsString();
+                assertTrue(name.matches("images/image-" + i + "\\.[0-9a-f]{8}\\.png"));
+                assertTrue(Files.exists(buildPath.resolve(name)));
+                assertEquals(i % 2 == 1, before.get(source).getAsString().equals(name));
+            }
+        }
+    }
+
+    @Test
+    public void fingerprintsShouldOnlyRewriteTagsAndStyles() throws IOException {
+        Files.writeString(templateWebsitePath.resolve("template").resolve("layout.html"),
+                "<html><head><style>body { background: url(/dossier/image.png); }</style>"
+                        + "<script>var image = \"/dossier/image.png\";</script></head>"
+                        + "<body>{{{ content }}}</body></html>\n", StandardCharsets.UTF_8);
+        Files.writeString(templateWebsitePath.resolve("index.md"), "{}\n---\n"
+                + "Le fond se met avec `url(/dossier/image.png)` et une image avec src=\"/dossier/image.png\".\n\n"
+                + "    background: url(\"/dossier/image.png\");\n\n"
+                + "<!-- <img src=\"/dossier/image.png\"> -->\n", StandardCharsets.UTF_8);
+        Path buildPath = templateWebsitePath.resolve("build");
+
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            engine.build(false, BuildSettings.defaults().withFingerprintAssets(true));
+        }
+
+        JsonObject manifest = JsonParser.parseString(Files.readString(buildPath.resolve("asset-manifest.json"),
+                StandardCharsets.UTF_8)).getAsJsonObject();
+        String image = manifest.get("dossier/image.png").getAsString();
+        String index = Files.readString(buildPath.resolve("index.html"), StandardCharsets.UTF_8);
+        assertTrue(index, index.contains("<style>body { background: url(/" + image + "); }</style>"));
+        assertTrue(index, index.contains("var image = \"/dossier/image.png\";"));
+        assertTrue(index, index.contains("<code>url(/dossier/image.png)</code>"));
+        assertTrue(index, index.contains("src=&quot;/dossier/image.png&quot;."));
+        assertTrue(index, index.contains("background: url(&quot;/dossier/image.png&quot;);"));
+        assertTrue(index, index.contains("<!-- <img src=\"/dossier/image.png\"> -->"));
+    }
+
+    @Test
+    public void largePagesShouldBeStreamedWithinTheMemoryBudget() throws IOException {
+        Path layoutPath = templateWebsitePath.resolve("template").resolve("stream.html");
+        Files.writeString(layoutPath, "<main>{{{ content }}}</main><p>{{ content }}</p>", StandardCharsets.UTF_8);
+        // Longer than the buffers of the writer, with characters of every UTF-8 length
+        StringBuilder markdown = new StringBuilder("{\"layout\": \"stream\"}\n---\n\n");
+        for (int i = 0; i < 1000; i++)
+            markdown.append("Paragraphe ").append(i).append(" : été, \u20ac, \uD83D\uDE00 <b>\n\n");
+        Files.writeString(templateWebsitePath.resolve("index.md"), markdown, StandardCharsets.UTF_8);
+
+        try (BuildEngine engine = new BuildEngine(templateWebsitePath, 2)) {
+            engine.build(false, BuildSettings.defaults().withMemoryBudget(1024));
+        }
+
+        String html = MarkdownConverter.convert(markdown.substring(markdown.indexOf("---") + 3)).trim();
+        String escaped = html.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\"", "&quot;").replace("'", "&#x27;").replace("`", "&#x60;").replace("=", "&#x3D;");
+        String index = Files.readString(templateWebsitePath.resolve("build").resolve("index.html"), StandardCharsets.UTF_8);
+        assertEquals("<main>" + html + "</main><p>" + escaped + "</p>", index);
+    }
+
     @After()
     public void deleteTestDirectory() {
         System.out.println("Delete test directory if exists");
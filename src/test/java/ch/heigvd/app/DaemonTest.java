@@ -0,0 +1,147 @@
+package ch.heigvd.app;
+
+import ch.heigvd.app.utils.TestDirectoryManager;
+import ch.heigvd.app.utils.daemon.DaemonClient;
+import ch.heigvd.app.utils.daemon.DaemonServer;
+import ch.heigvd.app.utils.daemon.DaemonState;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import picocli.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class DaemonTest {
+
+    private final Path dirPath = Paths.get("montest");
+    private final Path sitePath = dirPath.resolve("templatetest");
+    private final Path stateFile = dirPath.resolve("daemon.json");
+    private Thread daemonThread;
+
+    @Before
+    public void startDaemon() throws IOException, InterruptedException {
+        FileUtils.deleteDirectory(dirPath.toFile());
+        TestDirectoryManager.createTemplateTestDirectory(dirPath, sitePath);
+
+        DaemonServer server = new DaemonServer(stateFile, Duration.ZERO, args -> new CommandLine(new Main()).execute(args));
+        daemonThread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        daemonThread.start();
+        for (int i = 0; i < 100 && !Files.exists(stateFile); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue("The daemon did not start", Files.exists(stateFile));
+    }
+
+    @After
+    public void stopDaemon() throws IOException, InterruptedException {
+        new DaemonClient(stateFile).send(new String[]{"daemon", "--stop"});
+        daemonThread.join(5000);
+        FileUtils.deleteDirectory(dirPath.toFile());
+    }
+
+    /**
+     * Check that a build sent to the daemon runs there, with its output
+     * sent back to the client
+     */
+    @Test
+    public void forwardedBuildShouldRunInTheDaemon() {
+        DaemonClient client = new DaemonClient(stateFile);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream console = System.out;
+        Integer exitCode;
+        System.setOut(new PrintStream(output, true));
+        try {
+            exitCode = client.forward(new CommandLine(new Main()), new String[]{"build", sitePath.toString()});
+        } finally {
+            System.setOut(console);
+        }
+
+        assertEquals(Integer.valueOf(0), exitCode);
+        String printed = output.toString(StandardCharsets.UTF_8);
+        assertTrue(printed, printed.contains("Building in : " + sitePath.toAbsolutePath()));
+        assertTrue(printed, printed.contains("index.html successfully created"));
+        assertTrue(Files.exists(sitePath.resolve("build").resolve("index.html")));
+
+        // Other commands run in this process
+        assertNull(client.forward(new CommandLine(new Main()), new String[]{"init", sitePath.toString()}));
+    }
+
+    /**
+     * Check that the daemon stops when asked and that clients then run
+     * the commands themselves
+     */
+    @Test
+    public void stoppedDaemonShouldNotBeUsed() throws InterruptedException {
+        DaemonClient client = new DaemonClient(stateFile);
+        assertEquals(Integer.valueOf(0), client.send(new String[]{"daemon", "--stop"}));
+        daemonThread.join(5000);
+        assertFalse(daemonThread.isAlive());
+        assertFalse(Files.exists(stateFile));
+        assertNull(client.forward(new CommandLine(new Main()), new String[]{"build", sitePath.toString()}));
+    }
+
+    /**
+     * Check that a serve sent to the daemon keeps serving while its client
+     * is connected, and stops when it disconnects
+     */
+    @Test
+    public void forwardedServeShouldStopWithItsClient() throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        DaemonState state = DaemonState.read(stateFile);
+        assertNotNull(state);
+
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(), state.getPort())) {
+            DataOutputStream out = new DataOutputStream(client.getOutputStream());
+            String[] args = {"serve", "--port", String.valueOf(port), sitePath.toAbsolutePath().toString()};
+            out.writeUTF(state.getToken());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            assertTrue("The site is not served", waitForPort(port, true));
+        }
+        assertTrue("The server still runs after its client left", waitForPort(port, false));
+    }
+
+    /**
+     * Wait until a local port accepts connections or refuses them
+     */
+    private static boolean waitForPort(int port, boolean open) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                if (open)
+                    return true;
+            } catch (IOException e) {
+                if (!open)
+                    return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+}
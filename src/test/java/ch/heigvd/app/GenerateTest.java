@@ -0,0 +1,108 @@
+package ch.heigvd.app;
+
+import ch.heigvd.app.utils.build.BuildEngine;
+import ch.heigvd.app.utils.generate.SiteGenerator;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+public class GenerateTest {
+
+    private final Path dirPath = Paths.get("montest");
+
+    @Before
+    @After
+    public void deleteTestDirectory() throws IOException {
+        FileUtils.deleteDirectory(dirPath.toFile());
+    }
+
+    /**
+     * Check that the same seed and settings give the same site
+     * @throws IOException Error while generating or reading the sites
+     */
+    @Test
+    public void sameSeedShouldGenerateSameSite() throws IOException {
+        Path first = dirPath.resolve("first");
+        Path second = dirPath.resolve("second");
+
+        Main app = new Main();
+        CommandLine cmd = new CommandLine(app);
+        assertEquals(0, cmd.execute("generate", first.toString(), "-n", "50", "--seed", "7", "--extra-fields", "3"));
+        assertEquals(0, cmd.execute("generate", second.toString(), "-n", "50", "--seed", "7", "--extra-fields", "3"));
+
+        Collection<File> files = FileUtils.listFiles(first.toFile(), null, true);
+        assertEquals(50 + 1 + 10 + 4, files.size());
+        for (File file : files) {
+            Path other = second.resolve(first.relativize(file.toPath()));
+            assertTrue(other + " was not generated", Files.exists(other));
+            assertTrue(other + " differs", FileUtils.contentEquals(file, other.toFile()));
+        }
+
+        SiteGenerator generator = new SiteGenerator(8);
+        generator.setPages(50);
+        Path third = dirPath.resolve("third");
+        generator.generate(third);
+        assertFalse(FileUtils.contentEquals(first.resolve("page-0.md").toFile(), third.resolve("page-0.md").toFile()));
+    }
+
+    /**
+     * Check that the pages are spread over the directory tree and that the
+     * generated site can be built
+     * @throws IOException Error while generating or building the site
+     */
+    @Test
+    public void generatedSiteShouldBeBuildable() throws IOException {
+        Path sitePath = dirPath.resolve("site");
+        SiteGenerator generator = new SiteGenerator(42);
+        generator.setPages(30);
+        generator.setTree(2, 2);
+        generator.setFeatureWeight(SiteGenerator.Feature.TABLE, 5);
+        generator.setAssets(2, 10, 20);
+        generator.generate(sitePath);
+
+        // 1 + 2 + 4 directories, page 6 in the last one
+        assertTrue(Files.exists(sitePath.resolve("section-1/section-1/page-6.md")));
+        assertTrue(Files.exists(sitePath.resolve("page-7.md")));
+        long size = Files.size(sitePath.resolve(SiteGenerator.ASSET_DIRECTORY_NAME).resolve("image-0.png"));
+        assertTrue(size >= 10 && size <= 20);
+
+        try (BuildEngine engine = new BuildEngine(sitePath, 2)) {
+            engine.build(true);
+        }
+        Path buildPath = sitePath.resolve(BuildEngine.BUILD_DIRECTORY_NAME);
+        assertTrue(Files.exists(buildPath.resolve("index.html")));
+        assertTrue(Files.exists(buildPath.resolve("assets/style.css")));
+        String page = Files.readString(buildPath.resolve("section-1/section-1/page-6.html"));
+        assertTrue(page.contains("<title>Site généré | Page 6</title>"));
+        assertTrue(page.contains("<table>"));
+    }
+
+    /**
+     * Check that a directory that is not empty is only replaced when forced
+     */
+    @Test
+    public void generateShouldNotReplaceSiteUnlessForced() throws IOException {
+        Path sitePath = dirPath.resolve("site");
+        Files.createDirectories(sitePath);
+        Files.writeString(sitePath.resolve("mine.md"), "{}\n---\n");
+
+        CommandLine cmd = new CommandLine(new Main());
+        assertEquals(1, cmd.execute("generate", sitePath.toString(), "-n", "1"));
+        assertTrue(Files.exists(sitePath.resolve("mine.md")));
+
+        assertEquals(0, cmd.execute("generate", sitePath.toString(), "-n", "1", "--force"));
+        assertFalse(Files.exists(sitePath.resolve("mine.md")));
+        assertTrue(Files.exists(sitePath.resolve("page-0.md")));
+    }
+}
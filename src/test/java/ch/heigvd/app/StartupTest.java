@@ -0,0 +1,109 @@
+package ch.heigvd.app;
+
+import ch.heigvd.app.utils.daemon.DaemonClient;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measure the startup of the commands in a new JVM, as launched by the
+ * script of the distribution. The heavy libraries are always checked; the
+ * time and class count depend on the machine and the JDK, and are only
+ * checked with -Dstartup.limits=true, as in the bench profile.
+ */
+public class StartupTest {
+    // Libraries only needed once a build, a server or a publication runs
+    private static final String[] HEAVY_PACKAGES = {"io.javalin.", "org.eclipse.jetty.", "org.eclipse.jgit.",
+            "com.vladsch.flexmark.", "com.github.jknack.handlebars.", "org.thymeleaf.",
+            "groovy.", "org.codehaus.groovy."};
+    // About 1300 classes are loaded today, most of them by the JDK
+    private static final int MAX_LOADED_CLASSES = 1800;
+    private static final long MAX_STARTUP_MILLIS = 4000;
+    private static final boolean CHECK_LIMITS = Boolean.getBoolean("startup.limits");
+    private static final int RUNS = 3;
+    private static final Pattern LOADED_CLASS = Pattern.compile("\\] (\\S+) source: ");
+
+    private final Path testPath = Paths.get("montest").resolve("startup");
+
+    @Before
+    public void createDirectory() throws IOException {
+        Files.createDirectories(testPath);
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(testPath.toFile());
+    }
+
+    @Test
+    public void versionShouldNotLoadTheCommandLibraries() throws Exception {
+        checkStartup("-V");
+    }
+
+    @Test
+    public void cleanShouldNotLoadTheCommandLibraries() throws Exception {
+        checkStartup("clean", testPath.toAbsolutePath().toString());
+    }
+
+    private void checkStartup(String... args) throws Exception {
+        Path log = testPath.resolve("classes.log");
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            best = Math.min(best, launch(log, args));
+        }
+        System.out.println("Startup of " + String.join(" ", args) + ": " + best + " ms");
+
+        List<String> loaded = new ArrayList<>();
+        for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+            Matcher matcher = LOADED_CLASS.matcher(line);
+            if (matcher.find())
+                loaded.add(matcher.group(1));
+        }
+        for (String name : loaded) {
+            for (String heavy : HEAVY_PACKAGES) {
+                assertFalse(name + " should only be loaded by the command using it", name.startsWith(heavy));
+            }
+        }
+        System.out.println(loaded.size() + " classes loaded");
+        if (CHECK_LIMITS) {
+            assertTrue(loaded.size() + " classes loaded", loaded.size() < MAX_LOADED_CLASSES);
+            assertTrue(best + " ms to start", best < MAX_STARTUP_MILLIS);
+        }
+    }
+
+    /**
+     * Run the application in a new JVM
+     * @return Time until it exited, in milliseconds
+     */
+    private long launch(Path log, String... args) throws Exception {
+        List<String> command = new ArrayList<>(List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xlog:class+load=info:file=" + log.toAbsolutePath(),
+                "-cp", System.getProperty("java.class.path"),
+                Main.class.getName()));
+        command.addAll(List.of(args));
+
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.environment().put(DaemonClient.DISABLE_VARIABLE, "1");
+
+        long start = System.nanoTime();
+        Process process = builder.start();
+        assertEquals(0, process.waitFor());
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
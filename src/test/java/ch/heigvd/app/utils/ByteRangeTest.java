@@ -0,0 +1,42 @@
+package ch.heigvd.app.utils;
+
+import ch.heigvd.app.utils.serve.ByteRange;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ByteRangeTest class
+ */
+public class ByteRangeTest {
+
+    @Test
+    public void rangesShouldBeClampedToTheFile() {
+        ByteRange range = ByteRange.parse("bytes=100-199", 1000);
+        assertEquals(100, range.getStart());
+        assertEquals(100, range.getLength());
+        assertEquals("bytes 100-199/1000", range.toContentRange(1000));
+
+        assertEquals("bytes 500-999/1000", ByteRange.parse("bytes=500-", 1000).toContentRange(1000));
+        assertEquals("bytes 900-999/1000", ByteRange.parse("bytes=900-5000", 1000).toContentRange(1000));
+        assertEquals("bytes 990-999/1000", ByteRange.parse("bytes=-10", 1000).toContentRange(1000));
+        assertEquals("bytes 0-999/1000", ByteRange.parse("bytes=-5000", 1000).toContentRange(1000));
+    }
+
+    @Test
+    public void rangesOutsideTheFileShouldNotBeSatisfiable() {
+        assertFalse(ByteRange.parse("bytes=1000-", 1000).isSatisfiable());
+        assertFalse(ByteRange.parse("bytes=-0", 1000).isSatisfiable());
+        assertFalse(ByteRange.parse("bytes=0-", 0).isSatisfiable());
+        assertEquals("bytes */1000", ByteRange.parse("bytes=2000-3000", 1000).toContentRange(1000));
+    }
+
+    @Test
+    public void invalidOrMultipleRangesShouldGetTheWholeFile() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-10", 1000));
+        assertNull(ByteRange.parse("bytes=10-5", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=0-10, 20-30", 1000));
+    }
+}
@@ -0,0 +1,42 @@
+package ch.heigvd.app.utils;
+
+import ch.heigvd.app.utils.build.DependencyGraph;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * DependencyGraphTest class
+ */
+public class DependencyGraphTest {
+
+    @Test
+    public void graphShouldFindOutputsAffectedByAnInput() {
+        DependencyGraph graph = new DependencyGraph();
+        graph.record("index.html", List.of("index.md", "config.json", "template/layout.html", "template/menu.html"));
+        graph.record("blog.html", List.of("blog.md", "config.json", "template/list.html", DependencyGraph.METADATA));
+        graph.record("image.png", List.of("image.png"));
+
+        assertEquals(Set.of("index.html", "blog.html"), graph.affectedOutputs(List.of("config.json")));
+        assertEquals(Set.of("index.html"), graph.affectedOutputs(List.of("template/menu.html")));
+        assertEquals(Set.of("blog.html"), graph.affectedOutputs(List.of(DependencyGraph.METADATA)));
+        assertEquals(Set.of("image.png"), graph.affectedOutputs(List.of("image.png")));
+    }
+
+    @Test
+    public void graphShouldReplaceAndRemoveOutputs() {
+        DependencyGraph graph = new DependencyGraph();
+        graph.record("index.html", List.of("index.md", "template/layout.html"));
+        graph.record("index.html", List.of("index.md", "template/article.html"));
+
+        assertEquals(Set.of(), graph.affectedOutputs(List.of("template/layout.html")));
+        assertEquals(Set.of("index.md", "template/article.html"), graph.inputsOf("index.html"));
+
+        graph.remove("index.html");
+        assertEquals(Set.of(), graph.affectedOutputs(List.of("index.md")));
+        assertEquals(Set.of(), graph.inputsOf("index.html"));
+    }
+}
@@ -0,0 +1,117 @@
+package ch.heigvd.app.utils;
+
+import ch.heigvd.app.utils.build.BuildEngine;
+import ch.heigvd.app.utils.build.BuildResult;
+import ch.heigvd.app.utils.serve.FileCache;
+import ch.heigvd.app.utils.serve.MimeTypes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * FileCacheTest class
+ */
+public class FileCacheTest {
+
+    private final Path dirPath = Paths.get("montest");
+    private final Path root = dirPath.resolve("cachetest");
+
+    @Before
+    public void createCachedDirectory() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+        Files.createDirectories(root);
+    }
+
+    @After
+    public void deleteCachedDirectory() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+    }
+
+    @Test
+    public void cacheShouldEvictLeastRecentlyUsedFiles() throws IOException {
+        for (String name : List.of("a.html", "b.html", "c.html")) {
+            Files.write(root.resolve(name), new byte[100]);
+        }
+
+        FileCache cache = new FileCache(root, 1000);
+        FileCache.CachedFile a = cache.get("a.html");
+        cache.get("b.html");
+        assertSame(a, cache.get("a.html"));
+        assertEquals(200, cache.getUsedBytes());
+
+        // Larger than a quarter of the budget: served but never cached
+        Files.write(root.resolve("big.png"), new byte[300]);
+        assertEquals(300, cache.get("big.png").getContent().length);
+        assertEquals(2, cache.size());
+
+        FileCache small = new FileCache(root, 400);
+        small.get("a.html");
+        small.get("b.html");
+        small.get("a.html");
+        small.get("c.html");
+        small.get("b.html");
+        small.get("c.html");
+        assertTrue(small.getUsedBytes() <= 400);
+    }
+
+    @Test
+    public void filesAboveTheThresholdShouldBeStreamedAsTheyAre() throws IOException {
+        Files.write(root.resolve("video.mp4"), new byte[2000]);
+        Files.writeString(root.resolve("page.html"), "<body></body>");
+
+        FileCache cache = new FileCache(root, 1024 * 1024, (path, content) -> new byte[0], 1000);
+        FileCache.CachedFile video = cache.get("video.mp4");
+        assertTrue(video.isStreamed());
+        assertNull(video.getContent());
+        assertEquals(root.resolve("video.mp4").toAbsolutePath(), video.getPath());
+        assertEquals(2000, video.getSize());
+        assertFalse(video.isTransformed());
+        assertEquals(0, cache.size());
+
+        FileCache.CachedFile page = cache.get("page.html");
+        assertFalse(page.isStreamed());
+        assertEquals(0, page.getSize());
+    }
+
+    @Test
+    public void cacheShouldReloadFilesChangedByABuild() throws IOException {
+        Path site = dirPath.resolve("templatetest");
+        TestDirectoryManager.createTemplateTestDirectory(dirPath, site);
+        Files.writeString(site.resolve("template").resolve("layout.html"), "{{{ content }}}");
+        Path page = site.resolve("index.md");
+        Files.writeString(page, "{}\n---\n# Un\n");
+
+        try (BuildEngine engine = new BuildEngine(site, 1)) {
+            FileCache cache = new FileCache(engine.getBuildPath(), 1024 * 1024);
+            cache.invalidate(engine.build(false));
+            FileCache.CachedFile first = cache.get("index.html");
+            assertEquals("<h1>Un</h1>", new String(first.getContent()));
+            assertEquals("text/html; charset=utf-8", first.getContentType());
+
+            Files.writeString(page, "{}\n---\n# Deux\n");
+            BuildResult result = engine.rebuild(List.of(page));
+            assertSame(first, cache.get("index.html"));
+            cache.invalidate(result);
+
+            FileCache.CachedFile second = cache.get("index.html");
+            assertEquals("<h1>Deux</h1>", new String(second.getContent()));
+            assertNotEquals(first.getEtag(), second.getEtag());
+        }
+        assertNull(new FileCache(site, 1024).get("../outside.html"));
+    }
+
+    @Test
+    public void mimeTypesShouldBeFoundFromExtension() {
+        assertEquals("text/css; charset=utf-8", MimeTypes.get("css/style.CSS"));
+        assertEquals("image/png", MimeTypes.get("image.png"));
+        assertEquals("application/octet-stream", MimeTypes.get("data.unknownext"));
+    }
+}
@@ -0,0 +1,62 @@
+package ch.heigvd.app.utils;
+
+import ch.heigvd.app.utils.parsers.FrontMatter;
+import com.google.gson.JsonSyntaxException;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrontMatterTest class
+ */
+public class FrontMatterTest {
+
+    @Test
+    public void headerShouldKeepEveryKeyAndLeaveTheMarkdown() throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader("{\n" +
+                "\"title\": \"Ma page\",\n" +
+                "\"tags\": [\"java\", \"web\"],\n" +
+                "\"weight\": 3,\n" +
+                "\"ratio\": 0.5,\n" +
+                "\"draft\": false,\n" +
+                "\"cover\": {\"src\": \"image.png\"}\n" +
+                "}\n" +
+                "---\n" +
+                "# Titre\n" +
+                "---\n" +
+                "Fin"));
+
+        Map<String, Object> header = FrontMatter.read(reader);
+
+        assertEquals("Ma page", header.get("title"));
+        assertEquals(List.of("java", "web"), header.get("tags"));
+        assertEquals(3L, header.get("weight"));
+        assertEquals(0.5, header.get("ratio"));
+        assertEquals(false, header.get("draft"));
+        assertEquals(Map.of("src", "image.png"), header.get("cover"));
+        assertEquals("# Titre\n---\nFin", IOUtils.toString(reader));
+    }
+
+    @Test
+    public void pageWithoutHeaderShouldOnlyBeMarkdown() throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader("# Titre\r\nTexte"));
+        assertTrue(FrontMatter.read(reader).isEmpty());
+        assertEquals("# Titre\r\nTexte", IOUtils.toString(reader));
+
+        reader = new BufferedReader(new StringReader("---\r\n# Titre"));
+        assertTrue(FrontMatter.read(reader).isEmpty());
+        assertEquals("# Titre", IOUtils.toString(reader));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void invalidHeaderShouldBeRejected() throws IOException {
+        FrontMatter.read(new BufferedReader(new StringReader("{\"title\": \n---\n# Titre")));
+    }
+}
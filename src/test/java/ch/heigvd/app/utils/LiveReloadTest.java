@@ -0,0 +1,64 @@
+package ch.heigvd.app.utils;
+
+import ch.heigvd.app.utils.build.BuildEngine;
+import ch.heigvd.app.utils.serve.LiveReload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * LiveReloadTest class
+ */
+public class LiveReloadTest {
+
+    private final Path dirPath = Paths.get("montest");
+    private final Path site = dirPath.resolve("templatetest");
+
+    @Before
+    public void createTestSite() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+        TestDirectoryManager.createTemplateTestDirectory(dirPath, site);
+    }
+
+    @After
+    public void deleteTestSite() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+    }
+
+    @Test
+    public void scriptShouldBeInjectedBeforeTheEndOfTheBody() {
+        String html = new String(LiveReload.inject("index.html",
+                "<html><body><p>x</p></BODY></html>".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+        assertTrue(html.startsWith("<html><body><p>x</p><script>"));
+        assertTrue(html.endsWith("</script>\n</BODY></html>"));
+        assertTrue(html.contains(LiveReload.ENDPOINT));
+
+        byte[] css = "body {}".getBytes(StandardCharsets.UTF_8);
+        assertSame(css, LiveReload.inject("style.css", css));
+    }
+
+    @Test
+    public void changedUrlsShouldListTheOutputsOfARebuild() throws IOException {
+        Files.createDirectories(site.resolve("mon dossier"));
+        Path index = site.resolve("mon dossier").resolve("index.md");
+        Files.writeString(index, "{}\n---\n# Un\n");
+
+        try (BuildEngine engine = new BuildEngine(site, 1)) {
+            assertEquals(Set.of("*"), LiveReload.changedUrls(engine.build(false)));
+
+            Files.writeString(index, "{}\n---\n# Deux\n");
+            assertEquals(Set.of("/mon%20dossier/index.html", "/mon%20dossier/"),
+                    LiveReload.changedUrls(engine.rebuild(List.of(index))));
+        }
+    }
+}
@@ -3,7 +3,12 @@ package ch.heigvd.app.utils;
 import ch.heigvd.app.utils.parsers.MarkdownConverter;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * MarkdownConverterTest class
@@ -72,7 +77,51 @@ public class MarkdownConverterTest {
         assertEquals(result, output);
     }
 
+    @Test
+    public void parserShouldParseTablesCorrectly() {
+        String input = "| Tables | Are |\n" +
+                "| ------ |:---:|\n" +
+                "| col 1  | col 2 |";
+
+        String output = MarkdownConverter.convert(input);
 
+        assertTrue(output.startsWith("<table>\n"));
+        assertTrue(output.contains("<th>Tables</th>"));
+        assertTrue(output.contains("<td align=\"center\">col 2</td>"));
+    }
 
+    @Test
+    public void parserShouldParseTaskListsCorrectly() {
+        String input = "- [ ] Milk\n" +
+                "- [x] Beer";
 
-}
\ No newline at end of file
+        String output = MarkdownConverter.convert(input);
+
+        assertTrue(output.contains("class=\"task-list-item\""));
+        assertTrue(output.contains("checked=\"checked\""));
+    }
+
+    @Test
+    public void parserShouldOnlyUseConfiguredExtensions() {
+        String input = "~~barre~~";
+
+        assertEquals("<p><del>barre</del></p>\n", MarkdownConverter.convert(input));
+        assertEquals("<p>~~barre~~</p>\n", new MarkdownConverter(List.of()).render(input));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parserShouldRejectUnknownExtensions() {
+        new MarkdownConverter(List.of("unknown"));
+    }
+
+    @Test
+    public void parserShouldRenderFromReaderToAppendable() throws IOException {
+        String input = "# Mon premier article\n" +
+                "## Mon sous-titre";
+        StringBuilder output = new StringBuilder();
+
+        MarkdownConverter.getDefault().render(new StringReader(input), output);
+
+        assertEquals(MarkdownConverter.convert(input), output.toString());
+    }
+}
@@ -0,0 +1,46 @@
+package ch.heigvd.app.utils;
+
+import ch.heigvd.app.utils.build.PageIndex;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * PageIndexTest class
+ */
+public class PageIndexTest {
+
+    @Test
+    public void indexShouldSortPagesByDateAndGroupThemByTag() {
+        PageIndex index = new PageIndex();
+        index.put("old.md", "/old.html", Map.of("title", "Old", "date", "2019-12-31", "tags", List.of("java", "web")), false);
+        index.put("undated.md", "/undated.html", Map.of("title", "Undated", "tags", "web"), false);
+        index.put("new.md", "/new.html", Map.of("title", "New", "author", "Ada", "date", "2021-06-01", "tags", List.of("java")), false);
+
+        Map<String, Object> collections = PageIndex.collections(index.sorted());
+        assertEquals(List.of("/new.html", "/old.html", "/undated.html"), urls(collections.get(PageIndex.PAGES_KEY)));
+        Map<?, ?> tags = (Map<?, ?>) collections.get(PageIndex.TAGS_KEY);
+        assertEquals(List.of("java", "web"), List.copyOf(tags.keySet()));
+        assertEquals(List.of("/new.html", "/old.html"), urls(tags.get("java")));
+        assertEquals(List.of("/old.html", "/undated.html"), urls(tags.get("web")));
+    }
+
+    @Test
+    public void indexShouldOnlyReportChangesOfIndexedFields() {
+        PageIndex index = new PageIndex();
+        assertTrue(index.put("page.md", "/page.html", Map.of("title", "Page", "summary", "A"), false));
+        assertFalse(index.put("page.md", "/page.html", Map.of("title", "Page", "summary", "B"), false));
+        assertTrue(index.put("page.md", "/page.html", Map.of("title", "Other"), false));
+        assertTrue(index.remove("page.md"));
+        assertFalse(index.remove("page.md"));
+        assertEquals(0, index.size());
+    }
+
+    private static List<String> urls(Object pages) {
+        return ((List<?>) pages).stream().map(page -> ((PageIndex.Entry) page).getUrl()).collect(Collectors.toList());
+    }
+}
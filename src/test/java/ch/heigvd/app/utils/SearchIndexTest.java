@@ -0,0 +1,99 @@
+package ch.heigvd.app.utils;
+
+import ch.heigvd.app.utils.search.SearchIndex;
+import ch.heigvd.app.utils.search.SearchIndexReader;
+import ch.heigvd.app.utils.search.Tokenizer;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * SearchIndexTest class
+ */
+public class SearchIndexTest {
+    private final Path dirPath = Paths.get("searchtest");
+
+    @Test
+    public void tokenizerShouldIgnoreCaseAndAccents() {
+        List<String> terms = new ArrayList<>();
+        Tokenizer.tokenize("Été, l'ÉCOLE-2021 a x", terms::add);
+        assertEquals(List.of("ete", "ecole", "2021"), terms);
+        assertEquals("ec", Tokenizer.shard("ecole"));
+        assertEquals("_00e6t", Tokenizer.shard("æther"));
+    }
+
+    @Test
+    public void indexShouldBeUpdatedFromThePreviousOne() throws IOException {
+        Files.createDirectories(dirPath);
+        SearchIndex index = SearchIndex.open(null);
+        index.add("a.md", "/a.html", "A", Set.of("java", "web"));
+        index.add("b.md", "/b.html", null, Set.of("java"));
+        List<String> written = new ArrayList<>();
+        index.write(dirPath, written, new ArrayList<>());
+        assertEquals(Set.of("search/ja.json", "search/we.json", "search/docs-0.json"), Set.copyOf(written));
+        assertEquals("{\"java\":[0,1]}", Files.readString(dirPath.resolve("search").resolve("ja.json"), StandardCharsets.UTF_8));
+
+        SearchIndexReader first = SearchIndexReader.open(dirPath.resolve(SearchIndex.FILENAME));
+        assertEquals(List.of("/a.html", "/b.html"), urls(first.search("JAVA", 10)));
+        assertEquals(List.of("/a.html"), urls(first.search("web java", 10)));
+        assertEquals(0, first.search("web rust", 10).getTotal());
+
+        index = SearchIndex.open(dirPath);
+        index.add("b.md", "/b.html", "B", Set.of("rust"));
+        index.remove("a.md");
+        written.clear();
+        List<String> removed = new ArrayList<>();
+        index.write(dirPath, written, removed);
+        assertEquals(Set.of("search/ru.json", "search/docs-0.json"), Set.copyOf(written));
+        assertEquals(Set.of("search/ja.json", "search/we.json"), Set.copyOf(removed));
+
+        SearchIndexReader second = SearchIndexReader.open(dirPath.resolve(SearchIndex.FILENAME));
+        assertEquals(0, second.search("java", 10).getTotal());
+        assertEquals("B", second.search("rust", 10).getPages().get(0).getTitle());
+        // A reader keeps the index it mapped
+        assertEquals(2, first.search("java", 10).getTotal());
+    }
+
+    @Test
+    public void idsOfRemovedPagesShouldBeGivenBack() throws IOException {
+        Files.createDirectories(dirPath);
+        SearchIndex index = SearchIndex.open(null);
+        for (int i = 0; i < 3000; i++) {
+            index.add(i + ".md", "/" + i + ".html", null, Set.of("page", i % 2 == 0 ? "even" : "odd"));
+        }
+        index.write(dirPath, new ArrayList<>(), new ArrayList<>());
+
+        index = SearchIndex.open(dirPath);
+        for (int i = 0; i < 2500; i++) {
+            index.remove(i + ".md");
+        }
+        List<String> removed = new ArrayList<>();
+        index.write(dirPath, new ArrayList<>(), removed);
+        assertEquals(List.of("search/docs-1.json", "search/docs-2.json"), removed);
+
+        SearchIndexReader reader = SearchIndexReader.open(dirPath.resolve(SearchIndex.FILENAME));
+        SearchIndexReader.Result result = reader.search("page", 1000);
+        assertEquals(500, result.getTotal());
+        assertEquals("/2500.html", result.getPages().get(0).getUrl());
+        assertEquals(250, reader.search("odd", 1000).getTotal());
+    }
+
+    private static List<String> urls(SearchIndexReader.Result result) {
+        return result.getPages().stream().map(SearchIndexReader.Page::getUrl).collect(Collectors.toList());
+    }
+
+    @After
+    public void deleteTestDirectory() throws IOException {
+        FileUtils.deleteDirectory(dirPath.toFile());
+    }
+}
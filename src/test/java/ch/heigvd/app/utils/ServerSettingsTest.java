@@ -0,0 +1,109 @@
+package ch.heigvd.app.utils;
+
+import ch.heigvd.app.utils.serve.FileCache;
+import ch.heigvd.app.utils.serve.MappedSearchIndex;
+import ch.heigvd.app.utils.serve.ServerSettings;
+import ch.heigvd.app.utils.serve.SiteServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * ServerSettingsTest class
+ */
+public class ServerSettingsTest {
+
+    private final Path dirPath = Paths.get("montest");
+    private final Path root = dirPath.resolve("servertest");
+
+    @Before
+    public void createServedDirectory() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+        Files.createDirectories(root);
+    }
+
+    @After
+    public void deleteServedDirectory() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+    }
+
+    @Test
+    public void defaultSettingsShouldHaveEnoughWorkers() {
+        ServerSettings settings = ServerSettings.defaults();
+        assertEquals(ServerSettings.DEFAULT_PORT, settings.getPort());
+        assertEquals(ServerSettings.DEFAULT_ACCEPTORS, settings.getAcceptors());
+        assertTrue(settings.getAcceptorThreads() >= 1);
+        assertTrue(settings.getWorkers() >= settings.getRequiredWorkers());
+    }
+
+    @Test
+    public void invalidSettingsShouldBeRefused() {
+        assertRefused(-1, -1, 200, 30000, 0);
+        assertRefused(70000, -1, 200, 30000, 0);
+        assertRefused(7070, 0, 200, 30000, 0);
+        assertRefused(7070, -1, 0, 30000, 0);
+        assertRefused(7070, -1, 200, 0, 0);
+        assertRefused(7070, -1, 200, 30000, -1);
+    }
+
+    @Test
+    public void tooFewWorkersShouldBeRefusedWithTheMinimum() {
+        int workers = 1;
+        String message = null;
+        while (true) {
+            try {
+                new ServerSettings(0, 2, workers, 30000, 0);
+                break;
+            } catch (IllegalArgumentException e) {
+                message = e.getMessage();
+                workers++;
+            }
+        }
+        // Two acceptors, at least one selector and one reserved thread, and one worker left
+        assertTrue(workers >= 5);
+        assertEquals(workers, new ServerSettings(0, 2, workers, 30000, 0).getRequiredWorkers());
+        assertTrue(message, message.startsWith("At least " + workers + " workers are needed for 2 acceptor(s)"));
+    }
+
+    @Test
+    public void serverShouldStartWithTheMinimumWorkersAndABoundedQueue() throws IOException {
+        Files.writeString(root.resolve("index.html"), "<p>Bonjour</p>");
+        int workers = new ServerSettings(0, 1, 1000, 30000, 4).getRequiredWorkers();
+        ServerSettings settings = new ServerSettings(0, 1, workers, 30000, 4);
+        assertEquals(4, settings.getQueueSize());
+
+        SiteServer server = new SiteServer(new FileCache(root, 1024 * 1024), null,
+                new MappedSearchIndex(root), settings);
+        server.start();
+        try {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://localhost:" + server.getPort() + "/index.html").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            try (InputStream in = connection.getInputStream()) {
+                assertEquals("<p>Bonjour</p>", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void assertRefused(int port, int acceptors, int workers, long idleTimeout, int queueSize) {
+        try {
+            new ServerSettings(port, acceptors, workers, idleTimeout, queueSize);
+            fail("Settings should be refused");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().endsWith("!"));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ch.heigvd.app.utils;
+
+import ch.heigvd.app.utils.build.TemplateRegistry;
+import com.github.jknack.handlebars.Template;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * TemplateRegistryTest class
+ */
+public class TemplateRegistryTest {
+
+    private final Path dirPath = Paths.get("montest");
+    private Path templatePath;
+
+    @Before
+    public void createTemplateDirectory() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+        templatePath = Files.createDirectories(dirPath.resolve("template"));
+    }
+
+    @After
+    public void deleteTemplateDirectory() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+    }
+
+    @Test
+    public void registryShouldCompileTemplatesOnlyOnce() throws IOException {
+        write(templatePath.resolve("layout.html"), "<p>{{ page.title }}</p>");
+
+        TemplateRegistry registry = new TemplateRegistry(templatePath);
+        assertEquals(Set.of("layout"), registry.refresh());
+        Template first = registry.get("layout");
+
+        assertTrue(registry.refresh().isEmpty());
+        assertSame(first, registry.get("layout"));
+
+        // Touching the file without changing it must not recompile it
+        Files.setLastModifiedTime(templatePath.resolve("layout.html"), FileTime.fromMillis(0));
+        assertTrue(registry.refresh().isEmpty());
+        assertSame(first, registry.get("layout"));
+    }
+
+    @Test
+    public void registryShouldRecompileModifiedTemplatesAndPartials() throws IOException {
+        write(templatePath.resolve("layout.html"), "{{> menu }}{{{ content }}}");
+        write(templatePath.resolve("menu.html"), "<nav>old</nav>");
+
+        TemplateRegistry registry = new TemplateRegistry(templatePath);
+        registry.refresh();
+        assertEquals("<nav>old</nav><p>x</p>", registry.get("layout").apply(Map.of("content", "<p>x</p>")));
+
+        write(templatePath.resolve("menu.html"), "<nav>new</nav>");
+        Files.setLastModifiedTime(templatePath.resolve("menu.html"), FileTime.fromMillis(0));
+        assertEquals(Set.of("menu"), registry.refresh());
+        assertEquals("<nav>new</nav><p>x</p>", registry.get("layout").apply(Map.of("content", "<p>x</p>")));
+
+        Files.delete(templatePath.resolve("menu.html"));
+        assertEquals(Set.of("menu"), registry.refresh());
+        assertFalse(registry.has("menu"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registryShouldRejectUnknownTemplates() throws IOException {
+        TemplateRegistry registry = new TemplateRegistry(templatePath);
+        registry.refresh();
+        registry.get("missing");
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.writeString(path, content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,116 @@
+package ch.heigvd.app.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import utils.watchDir.ChangeSet;
+import utils.watchDir.WatchDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * WatchDirTest class
+ */
+public class WatchDirTest {
+
+    private final Path dirPath = Paths.get("montest");
+    private Path root;
+
+    @Before
+    public void createWatchedDirectory() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+        root = Files.createDirectories(dirPath.resolve("watchtest")).toRealPath();
+    }
+
+    @After
+    public void deleteWatchedDirectory() throws IOException {
+        TestDirectoryManager.deleteTestDirectory(dirPath);
+    }
+
+    @Test
+    public void watcherShouldCoalesceChangesAndSkipIgnoredPaths() throws Exception {
+        Path ignored = Files.createDirectory(root.resolve("build"));
+        BlockingQueue<ChangeSet> changes = new LinkedBlockingQueue<>();
+        Thread thread = start(new WatchDir(root, Duration.ofMillis(300), List.of(ignored),
+                List.of("*.tmp"), changes::add));
+
+        try {
+            Files.writeString(root.resolve("a.md"), "a");
+            Files.writeString(root.resolve("b.md"), "b");
+            Files.writeString(root.resolve("c.tmp"), "c");
+            Files.writeString(ignored.resolve("d.html"), "d");
+
+            ChangeSet change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertFalse(change.isFullRescan());
+            assertEquals(Set.of(root.resolve("a.md"), root.resolve("b.md")), change.getPaths());
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void watcherShouldReportFilesOfNewDirectories() throws Exception {
+        BlockingQueue<ChangeSet> changes = new LinkedBlockingQueue<>();
+        Thread thread = start(new WatchDir(root, Duration.ofMillis(300), List.of(), List.of(), changes::add));
+
+        try {
+            Path sub = Files.createDirectory(root.resolve("sub"));
+            Files.writeString(sub.resolve("page.md"), "page");
+
+            ChangeSet change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            while (!change.getPaths().contains(sub.resolve("page.md"))) {
+                ChangeSet next = changes.poll(10, TimeUnit.SECONDS);
+                assertNotNull(next);
+                change = change.merge(next);
+            }
+            assertTrue(change.getPaths().contains(sub));
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void watcherShouldSendALastChangeWhenTheTreeIsGone() throws Exception {
+        BlockingQueue<ChangeSet> changes = new LinkedBlockingQueue<>();
+        Thread thread = start(new WatchDir(root, Duration.ofMillis(300), List.of(), List.of(), changes::add));
+
+        try {
+            TestDirectoryManager.deleteTestDirectory(root);
+
+            ChangeSet change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            while (!change.isLast()) {
+                ChangeSet next = changes.poll(10, TimeUnit.SECONDS);
+                assertNotNull("The watcher did not stop", next);
+                change = change.merge(next);
+            }
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    private static Thread start(WatchDir watcher) throws IOException {
+        Thread thread = new Thread(watcher, "watch-dir-test");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}